@@ -24,39 +24,73 @@
 package org.jsf2jpa.ejbs;
 
 import java.io.Serializable;
-import java.math.BigInteger;
-import java.text.NumberFormat;
-import java.text.ParseException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import javax.ejb.AsyncResult;
+import javax.ejb.Asynchronous;
 import javax.ejb.EJBException;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
 
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.JoinType;
+import javax.persistence.criteria.Order;
 import javax.persistence.criteria.Path;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
 import javax.persistence.criteria.Subquery;
+import javax.persistence.metamodel.Attribute;
 import javax.persistence.metamodel.EntityType;
 import javax.transaction.HeuristicMixedException;
 import javax.transaction.HeuristicRollbackException;
 import javax.transaction.NotSupportedException;
 import javax.transaction.RollbackException;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
 import javax.transaction.SystemException;
+import javax.transaction.TransactionSynchronizationRegistry;
 import javax.transaction.UserTransaction;
+import org.eclipse.persistence.config.HintValues;
+import org.eclipse.persistence.config.QueryHints;
+import org.eclipse.persistence.jpa.JpaEntityManager;
+import org.eclipse.persistence.jpa.JpaQuery;
+import org.eclipse.persistence.queries.DeleteAllQuery;
+import org.eclipse.persistence.queries.ModifyAllQuery;
+import org.eclipse.persistence.queries.ReportQuery;
+import org.eclipse.persistence.queries.ScrollableCursor;
+import org.eclipse.persistence.queries.UpdateAllQuery;
 import org.jsf2jpa.entities.AbstractAttribute;
 import org.jsf2jpa.entities.BaseEntity;
+import org.jsf2jpa.entities.DataType;
+import org.jsf2jps.utils.BoundedCache;
 import org.jsf2jps.utils.EJBUtils;
 import org.jsf2jps.utils.NamingConstants;
+import org.jsf2jps.utils.ReadRouting;
 
 /**
  * Class defines base EJB functions. This fucntions include several methods to find entity,
@@ -82,6 +116,39 @@ public abstract class AbstractFacade<T extends BaseEntity, A extends AbstractAtt
     protected abstract EntityManager getEntityManager();
     protected abstract UserTransaction getUserTransaction();
 
+    /**
+     * Function retrieves entity manager of the read-only persistence unit
+     * @return entity manager or null if facade does not use read-only unit
+     */
+    protected EntityManager getReadOnlyEntityManager()
+    {
+        return null;
+    }
+
+    /**
+     * Function chooses entity manager for read queries. Read-only unit is used when it is
+     * enabled (see {@link ReadRouting}), nothing was written by the current request and
+     * there is no active transaction
+     * @return entity manager
+     */
+    protected EntityManager getReadEntityManager()
+    {
+        EntityManager readOnly = getReadOnlyEntityManager();
+        if (readOnly == null || !ReadRouting.isEnabled() || ReadRouting.isPrimaryForced())
+            return getEntityManager();
+
+        try {
+            if (getUserTransaction().getStatus() != Status.STATUS_NO_TRANSACTION)
+                return getEntityManager();
+        }
+        catch (SystemException ex) {
+            Logger.getLogger(AbstractFacade.class.getName()).log(Level.WARNING, null, ex);
+            return getEntityManager();
+        }
+
+        return readOnly;
+    }
+
     /**
      * Entity class
      */
@@ -90,6 +157,72 @@ public abstract class AbstractFacade<T extends BaseEntity, A extends AbstractAtt
      * Entity attributes class
      */
     private Class<A> attributesClass;
+
+    /**
+     * Maximum number of cached counts per entity class
+     */
+    private static final int    COUNT_CACHE_SIZE = 512;
+    /**
+     * Cached count time to live in milliseconds
+     */
+    private static final long   COUNT_CACHE_TTL = 60000L;
+    /**
+     * Count caches by entity class. Facades are pooled so caches are shared between instances
+     */
+    private static final ConcurrentMap<Class<?>, BoundedCache<String, Integer>> countCaches =
+            new ConcurrentHashMap<Class<?>, BoundedCache<String, Integer>>();
+    /**
+     * Maximum number of cached children lists for each entity class
+     */
+    private static final int    CHILDREN_CACHE_SIZE = 1024;
+    /**
+     * Cached children list time to live in milliseconds
+     */
+    private static final long   CHILDREN_CACHE_TTL = 300000L;
+    /**
+     * Identifiers of children by parent, caches are kept for each entity class
+     */
+    private static final ConcurrentMap<Class<?>, BoundedCache<Long, List<Long>>> childrenCaches =
+            new ConcurrentHashMap<Class<?>, BoundedCache<Long, List<Long>>>();
+    /**
+     * Attribute statistics time to live in milliseconds
+     */
+    private static final long   STATISTICS_TTL = 300000L;
+    /**
+     * Attribute statistics by attribute class
+     */
+    private static final BoundedCache<Class<?>, AttributeStatistics> attributeStatistics =
+            new BoundedCache<Class<?>, AttributeStatistics>(64, STATISTICS_TTL);
+    /**
+     * Attribute which selects less rows is considered as selective
+     */
+    private static final long   SELECTIVE_ROWS = 1000L;
+    /**
+     * Attribute which selects this times less rows than others is considered as selective
+     */
+    private static final long   SELECTIVITY_RATIO = 10L;
+    /**
+     * Maximum number of attributes checked by correlated subqueries
+     */
+    private static final int    MAX_EXISTS_ATTRIBUTES = 4;
+    /**
+     * Sort direction suffixes of the sort field column
+     */
+    private static final String SORT_DESC = " desc";
+    private static final String SORT_ASC = " asc";
+    /**
+     * Default count of entities written by one batch
+     */
+    public static final int     DEFAULT_BATCH_SIZE = 100;
+    /**
+     * Maximum number of identifiers in one bulk statement
+     */
+    private static final int    MAX_BULK_IDS = 1000;
+    /**
+     * Children cache key of the root entities
+     */
+    protected static final Long ROOT_KEY = Long.valueOf(0);
+    private static final String REGISTRY_JNDI_NAME = "java:comp/TransactionSynchronizationRegistry";
     
     /**
      * Constructor
@@ -103,388 +236,2436 @@ public abstract class AbstractFacade<T extends BaseEntity, A extends AbstractAtt
     }
 
     /**
-     * Function used to add order by to criteria query
+     * Function used to add order by to criteria query. Sort field could contain several
+     * comma separated columns, every column could have its own direction, e.g.
+     * <code>attributes['Price'] desc, model.name</code>. Columns could be:
+     * <ul>
+     * <li>entity attributes, e.g. <code>name</code>
+     * <li>attributes of the related entity (single join only), e.g. <code>model.name</code>
+     * <li>external attributes, e.g. <code>attributes['Price']</code>. They are sorted by the value
+     * of the attribute type, entities without attribute are placed as nulls. If attribute projection
+     * has column of the attribute, value is taken from the projection row
+     * </ul>
+     * Identifier is added as the last sort key in the direction of the last column
      * @param cq - criteria query object
      * @param builder - criteria query builder
      * @param from - root object
      * @param sortField - field used to sort
-     * @param descend - flag indicates sort direction
+     * @param descend - flag indicates default sort direction
+     * @param plan - query plan, sort keys served by projection are replaced by its customizer
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    protected void setOrderBy (CriteriaQuery<?> cq, CriteriaBuilder builder, Root<T> from, String sortField, boolean descend, QueryPlan plan)
+    {
+        List<Order> orders = new ArrayList<Order>();
+        Map<String, Join> relations = new HashMap<String, Join>();
+        List<Object[]> projected = new ArrayList<Object[]>();
+        boolean lastDesc = descend;
+
+        for (String item : getSortItems(sortField)) {
+            boolean desc = descend;
+            String column = item;
+            if (column.toLowerCase().endsWith(SORT_DESC)) {
+                desc = true;
+                column = column.substring(0, column.length() - SORT_DESC.length()).trim();
+            }
+            else if (column.toLowerCase().endsWith(SORT_ASC)) {
+                desc = false;
+                column = column.substring(0, column.length() - SORT_ASC.length()).trim();
+            }
+
+            column = column.replace("wrappedObject.", "");
+            Expression key;
+
+            if (column.indexOf('[') != -1) {
+                /*
+                 * External attribute. Value is selected by correlated subquery, so rows
+                 * are neither multiplied by join nor grouped by all entity columns
+                 */
+                String attrName = column.substring(column.indexOf('[')+2, column.indexOf(']')-1);
+                DataType dataType = getAttributeStatistics().getDataType(attrName);
+                if (dataType == null)
+                    dataType = DataType.STRING;
+
+                Subquery value = cq.subquery(getValueType(dataType));
+                Root fromAttr = value.from(attributesClass);
+                value.select(builder.greatest(fromAttr.get(getValueAttribute(dataType))));
+                value.where(builder.equal(fromAttr.get(NamingConstants.PARENT), from),
+                            builder.equal(fromAttr.get(NamingConstants.NAME), attrName));
+                key = value;
+
+                /*
+                 * Subquery keeps criteria query valid, customizer replaces it by projection column
+                 */
+                if (getProjectedSortColumn(attrName, dataType) != null)
+                    projected.add(new Object[] {orders.size(), attrName, desc});
+            }
+            else if (column.indexOf('.') != -1) {
+                /*
+                 * Attribute of related entity, only one join is allowed
+                 */
+                String[] fields = column.split("\\.");
+                if (fields.length != 2)
+                    continue;
+
+                Join relation = relations.get(fields[0]);
+                if (relation == null) {
+                    relation = from.join(fields[0], JoinType.LEFT);
+                    relations.put(fields[0], relation);
+                }
+
+                key = relation.get(fields[1]);
+            }
+            else {
+                key = from.get(column);
+            }
+
+            orders.add(desc ? builder.desc(key) : builder.asc(key));
+            lastDesc = desc;
+        }
+
+        /*
+         * Identifier is always the last sort key. It makes rows order deterministic,
+         * keyset pagination relies on it
+         */
+        Path<?> id = from.get(NamingConstants.ID);
+        orders.add(lastDesc ? builder.desc(id) : builder.asc(id));
+
+        cq.orderBy(orders);
+        if (!projected.isEmpty())
+            plan.addCustomizer(getAttributeProjection().getOrderCustomizer(projected));
+    }
+
+    /**
+     * Function retrieves projection column which could be used to sort by attribute
+     * @param attrName - attribute name
+     * @param dataType - type of the attribute values
+     * @return column name or null if projection could not be used
+     */
+    private String getProjectedSortColumn (String attrName, DataType dataType)
+    {
+        AttributeProjection projection = getReadyProjection();
+        if (projection == null || projection.getDataType(attrName) != dataType)
+            return null;
+
+        return projection.getColumn(attrName);
+    }
+
+    /**
+     * Function splits sort field to the list of columns
+     * @param sortField - field used to sort
+     * @return list of columns
      */
-    protected void setOrderBy (CriteriaQuery<T> cq, CriteriaBuilder builder, Root<T> from, String sortField, boolean descend)
+    protected static List<String> getSortItems (String sortField)
     {
-        if (sortField != null) {
-            sortField = sortField.replace("wrappedObject.", "");
-            if (sortField.indexOf('.') != -1 || sortField.indexOf('[') != -1)
-                return;
+        List<String> items = new ArrayList<String>();
+        if (sortField == null)
+            return items;
+
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i <= sortField.length(); i++) {
+            char c = i < sortField.length() ? sortField.charAt(i) : ',';
+            if (c == '[')
+                depth++;
+            else if (c == ']')
+                depth--;
+            else if (c == ',' && depth == 0) {
+                String item = sortField.substring(start, i).trim();
+                if (!item.isEmpty())
+                    items.add(item);
 
-            cq.orderBy(descend ? builder.desc(from.get(sortField)) : builder.asc(from.get(sortField)));
+                start = i + 1;
+            }
         }
+
+        return items;
     }
 
     /**
-     * Function used to add predicates to criteria query
-     * @param cq - criteria query object
+     * Function converts sort field name to the entity attribute name
+     * @param sortField - field used to sort
+     * @return attribute name or null if this field is empty or it is not a single attribute of the entity
+     */
+    protected String getSortAttribute (String sortField)
+    {
+        if (sortField == null || sortField.isEmpty())
+            return null;
+
+        sortField = sortField.replace("wrappedObject.", "").trim();
+        if (sortField.indexOf('.') != -1 || sortField.indexOf('[') != -1
+                || sortField.indexOf(',') != -1 || sortField.indexOf(' ') != -1)
+            return null;
+
+        return sortField;
+    }
+
+    /**
+     * Function checks if keyset pagination could be used with sort field
+     * @param sortField - field used to sort
+     * @return true if rows are sorted by identifier only or by single entity attribute
+     */
+    protected boolean isSeekable (String sortField)
+    {
+        return getSortItems(sortField).isEmpty() || getSortAttribute(sortField) != null;
+    }
+
+    /**
+     * Function creates keyset predicate which selects rows placed after the row described by key.
+     * Null values are considered as greatest ones (this is default for Derby and Oracle).
+     * Key values are bound as parameters, see {@link #addSeekValues(QueryPlan, SeekKey)}
      * @param builder - criteria query builder
      * @param from - root object
-     * @param model - entity model
+     * @param after - key of the last row of the previous page
+     * @param descend - flag indicates sort direction
+     * @param plan - query plan
+     * @return keyset predicate
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    protected Predicate getSeekPredicate (CriteriaBuilder builder, Root<T> from, SeekKey after, boolean descend, QueryPlan plan)
+    {
+        Path key = after.getSortField() != null ? from.get(after.getSortField()) : null;
+        Expression value = key != null && after.getSortValue() != null ? plan.parameter(builder, key.getJavaType()) : null;
+
+        Path<Long> id = from.get(NamingConstants.ID);
+        Expression<Long> lastId = plan.parameter(builder, Long.class);
+        Predicate idPredicate = descend ? builder.lessThan(id, lastId) : builder.greaterThan(id, lastId);
+
+        if (key == null)
+            return idPredicate;
+
+        if (value == null) {
+            /*
+             * Last row is inside of the null values group
+             */
+            if (descend)
+                return builder.or(builder.isNotNull(key), builder.and(builder.isNull(key), idPredicate));
+            else
+                return builder.and(builder.isNull(key), idPredicate);
+        }
+
+        if (descend) {
+            return builder.or(
+                    builder.lessThan(key, value),
+                    builder.and(builder.equal(key, value), idPredicate));
+        }
+        else {
+            return builder.or(
+                    builder.greaterThan(key, value),
+                    builder.and(builder.equal(key, value), idPredicate),
+                    builder.isNull(key));
+        }
+    }
+
+    /**
+     * Function adds keyset parameter values to the query plan
+     * @param plan - query plan
+     * @param after - key of the last row of the previous page or null
+     */
+    protected static void addSeekValues (QueryPlan plan, SeekKey after)
+    {
+        if (after == null)
+            return;
+
+        if (after.getSortField() != null && after.getSortValue() != null)
+            plan.addValue(after.getSortValue());
+
+        plan.addValue(after.getId());
+    }
+
+    /**
+     * Function creates part of the query shape which describes keyset predicate
+     * @param after - key of the last row of the previous page or null
+     * @return keyset shape
+     */
+    protected static String getSeekShape (SeekKey after)
+    {
+        if (after == null)
+            return "offset";
+
+        return "seek:" + after.getSortField() + (after.getSortValue() == null ? ":null" : "");
+    }
+
+    /**
+     * Function creates part of the query shape which describes sorting
+     * @param sortField - field used to sort
+     * @param descend - flag indicates sort direction
+     * @return sort shape
+     */
+    protected String getSortShape (String sortField, boolean descend)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (String item : getSortItems(sortField)) {
+            sb.append(item.replace("wrappedObject.", ""));
+            if (item.indexOf('[') != -1) {
+                String attrName = item.substring(item.indexOf('[')+2, item.indexOf(']')-1);
+                DataType dataType = getAttributeStatistics().getDataType(attrName);
+                if (getProjectedSortColumn(attrName, dataType != null ? dataType : DataType.STRING) != null)
+                    sb.append("@pv");
+            }
+
+            sb.append(',');
+        }
+
+        return sb.append(descend ? ":desc" : ":asc").toString();
+    }
+
+    /**
+     * Function creates key of the row for keyset pagination
+     * @param entity - last row of the page
+     * @param sortField - field used to sort
+     * @return key or null if keyset pagination could not be used with this sort field
+     */
+    public SeekKey getSeekKey (T entity, String sortField)
+    {
+        if (entity == null || entity.getId() == null || !isSeekable(sortField))
+            return null;
+
+        String attribute = getSortAttribute(sortField);
+        if (attribute == null)
+            return new SeekKey(null, null, entity.getId());
+
+        EntityType<T> model = getEntityManager().getMetamodel().entity(entityClass);
+        Attribute<? super T, ?> attr = model.getAttribute(attribute);
+        if (attr.getPersistentAttributeType() != Attribute.PersistentAttributeType.BASIC
+                || !Comparable.class.isAssignableFrom(attr.getJavaType()))
+            return null;
+
+        try {
+            Object value = null;
+            Member member = attr.getJavaMember();
+            if (member instanceof Field) {
+                ((Field)member).setAccessible(true);
+                value = ((Field)member).get(entity);
+            }
+            else if (member instanceof Method) {
+                value = ((Method)member).invoke(entity);
+            }
+
+            return new SeekKey(attribute, (Comparable) value, entity.getId());
+        }
+        catch (Exception ex) {
+            throw (new EJBException(ex));
+        }
+    }
+
+    /**
+     * Function creates key of the projected row for keyset pagination
+     * @param row - last row of the page
+     * @param sortField - field used to sort
+     * @return key or null if keyset pagination could not be used with this sort field
+     * or sort field was not selected
+     */
+    public SeekKey getSeekKey (ProjectedRow row, String sortField)
+    {
+        if (row == null || row.getId() == null || !isSeekable(sortField))
+            return null;
+
+        String attribute = getSortAttribute(sortField);
+        if (attribute == null)
+            return new SeekKey(null, null, row.getId());
+
+        Object value = row.get(attribute);
+        if ((value == null && !row.containsKey(attribute)) || (value != null && !(value instanceof Comparable)))
+            return null;
+
+        return new SeekKey(attribute, (Comparable) value, row.getId());
+    }
+
+    /**
+     * Function converts map of filters to the list of filter terms. Columns are processed in
+     * alphabetical order, so equal maps always produce the same list of terms. String values
+     * are compiled with {@link FilterExpression}, see it for the filter language description
      * @param filters - filters map
-     * @param preList - predicate list (in, out)
+     * @return list of filter terms
      */
-    @SuppressWarnings("rawtypes")
-    protected void addSimpleFilter (CriteriaQuery cq, CriteriaBuilder builder, Path<T> from, EntityType<T> model, Map<String, ?> filters, List<Predicate> preList)
+    protected List<FilterTerm> compileFilters (Map<String, ?> filters)
     {
-        Pattern numPat = Pattern.compile("<|>|=");
-        
-        if (filters != null && filters.size() > 0) {
-            for (String column : filters.keySet()) {
-                Object var = filters.get(column);
+        List<FilterTerm> terms = new ArrayList<FilterTerm>();
+        if (filters == null || filters.isEmpty())
+            return terms;
+
+        EntityType<T> model = getEntityManager().getMetamodel().entity(entityClass);
+        List<String> columns = new ArrayList<String>(filters.keySet());
+        Collections.sort(columns);
+
+        for (String key : columns) {
+            Object var = filters.get(key);
+            /*
+             * Removes wrapped object definitions
+             */
+            String column = key.replace("wrappedObject.", "");
+
+            /*
+             * If this is an attribute
+             */
+            if (column.indexOf('[') != -1) {
+                String attrName = column.substring(column.indexOf('[')+2, column.indexOf(']')-1);
+                DataType dataType = getAttributeStatistics().getDataType(attrName);
+                if (dataType == null)
+                    dataType = DataType.STRING;
+
+                addFilterTerm(terms, FilterTerm.Kind.ATTRIBUTE, attrName, getValueType(dataType), dataType, FilterExpression.MatchMode.EXACT, var);
+                continue;
+            }
+
+            if (column.indexOf('.') != -1) {
                 /*
-                 * Removes wrapped object definitions
+                 * This is not simple query because this field could become a reason for table join
                  */
-                column = column.replace("wrappedObject.", "");
-
+                String[] fields = column.split("\\.");
                 /*
-                 * If this is an attribute
+                 * This is simple join. This filter allowed only simple joins,
+                 * just skip this filter because it's unusable
                  */
-                if (column.indexOf('[') != -1) {
-                    try {
-                        String attrName = column.substring(column.indexOf('[')+2, column.indexOf(']')-1);
-                        AbstractAttribute attr = attributesClass.newInstance();
-                        attr.setName(attrName);
-                        attr.setStringValue((String)var);
-                        addAttributeFilter(cq, builder, from, Arrays.asList(attr), NamingConstants.PARENT, preList);
-                    }
-                    catch (Exception ex) {
-                        throw (new EJBException(ex));
-                    }
-                    
+                if (fields.length != 2)
                     continue;
-                }
 
-                if (column.indexOf('.') != -1) {
-                    /*
-                     * This is not simple query because this field could become a reason for table join
-                     */
-                    String[] fields = column.split("\\.");
+                EntityType<?> relation = getEntityManager().getMetamodel().entity(model.getAttribute(fields[0]).getJavaType());
+
+                if (fields[1].equals(NamingConstants.ID)) {
                     /*
-                     * This is simple join. This filter allowed only simple joins
+                     * If filterable column is id then compare foreign key
                      */
-                    if (fields.length == 2) {
-                        /*
-                         * Get main attribute
-                         */
-                        Path attr = from.get(fields[0]);
-                        /*
-                         * If filterable column is id then just get desired object by it's identifier
-                         */
-                        if (fields[1].equals(NamingConstants.ID)) {
-                            try {
-                                BigInteger id = BigInteger.valueOf(NumberFormat.getInstance().parse(var.toString()).longValue());
-                                Object value = getEntityManager().find(attr.getJavaType(), id);
-                                preList.add(builder.equal(from.get(fields[0]), value));
-                            }
-                            catch (ParseException ex) {
-                                Logger.getLogger(AbstractFacade.class.getName()).log(Level.SEVERE, null, ex);
-                            }
-                        }
-                        else {
-                            /*
-                             * Create subquery to find by attribute
-                             */
-                            Subquery subquery = cq.subquery(attr.getJavaType());
-                            Root fromAttr = subquery.from(attr.getJavaType());
-                            subquery.select(fromAttr.get(NamingConstants.ID));
-
-                            if (var instanceof String && ((String)var).contains("%")) {
-                                /*
-                                 * This is a like query
-                                 */
-                                subquery.where(builder.like(builder.lower(fromAttr.get(fields[1])), var.toString().toLowerCase()));   
-                            }
-                            else {
-                                /*
-                                 * This is strong equals query
-                                 */
-                                subquery.where(builder.equal(fromAttr.get(fields[1]), var));
-                            }
-
-                            /*
-                             * Add where to main query
-                             */
-                            preList.add(builder.in(from.get(fields[0]).get(NamingConstants.ID)).value(subquery));
-                        }
-                    }
-                    else
-                        /*
-                         * Just skip this filter becauseit's unusable
-                         */
-                        continue;
+                    addFilterTerm(terms, FilterTerm.Kind.RELATION_ID, fields[0], relation.getIdType().getJavaType(), null, FilterExpression.MatchMode.EXACT, var);
                 }
                 else {
-                    Path ptAttr = from.get(column);
-                    Class<?> cl = ptAttr.getJavaType();
-                    if (cl.equals(String.class)) {
-                        if (var instanceof String && ((String)var).contains("%")) {
-                            Expression<String> literal = from.get(column);
-                            preList.add(builder.like(builder.lower(literal), var.toString().toLowerCase()));
-                        }
-                    }
-                    else if (Number.class.isAssignableFrom(cl)) {
-                        Number numVar = 0;
-
-                        if (var instanceof String) {
-                            try {
-                                String vs = ((String)var).replaceAll(numPat.pattern(), "");
-                                if (!vs.isEmpty())
-                                    numVar = NumberFormat.getNumberInstance().parse(vs);
-                                else
-                                    continue;
-                            }
-                            catch (ParseException ex) {
-                                Logger.getLogger(AbstractFacade.class.getName()).log(Level.SEVERE, null, ex);
-                            }
-                        }
-                        else if (var instanceof Number) {
-                            numVar = (Number)var;
-                        }
-
-                        Matcher matcher = numPat.matcher((String)var);
-                        if (matcher.find()) {
-                            switch (matcher.group().charAt(0)) {
-                                case '<':
-                                    preList.add(builder.le(ptAttr, numVar));
-                                    break;
-
-                                case '>':
-                                    preList.add(builder.ge(ptAttr, numVar));
-                                    break;
-
-                                case '=':
-                                    preList.add(builder.equal(ptAttr, numVar));
-                                    break;
-                            }
-                        }
-                        else {
-                            preList.add(builder.equal(from.get(column), numVar));
-                        }
-                    }
-                    else {
-                        preList.add(builder.equal(from.get(column), var));
-                    }
+                    addFilterTerm(terms, FilterTerm.Kind.RELATION_PROPERTY, column, relation.getAttribute(fields[1]).getJavaType(), null, FilterExpression.MatchMode.EXACT, var);
                 }
+
+                continue;
             }
+
+            addFilterTerm(terms, FilterTerm.Kind.PROPERTY, column, model.getAttribute(column).getJavaType(), null, FilterExpression.MatchMode.CONTAINS, var);
         }
+
+        addTextIndexTerms(terms);
+        return terms;
     }
 
     /**
-     * Function used to add predicates to criteria query
-     * @param cq - criteria query
-     * @param builder - criteria query builder
-     * @param from - root object
-     * @param filters - filter map
-     * @param preList - predicate list (in, out)
+     * Function resolves contains filters (<code>%text%</code>) of the indexed texts by text index
+     * and adds identifiers of the found entities to the filter terms. Contains filters are kept,
+     * so database checks the found rows only instead of scanning the whole table. Found identifiers
+     * restrict the result, so index is used only when it is declared complete, see {@link TextIndex}
+     * @param terms - filter terms (in, out)
      */
-    @SuppressWarnings("rawtypes")
-    protected void addSimpleFilter (CriteriaQuery cq, CriteriaBuilder builder, Root<T> from, Map<String, ?> filters, List<Predicate> preList)
+    protected void addTextIndexTerms (List<FilterTerm> terms)
     {
-        addSimpleFilter(cq, builder, from, from.getModel(), filters, preList);
+        TextIndex index = getReadyTextIndex();
+        if (index == null)
+            return;
+
+        Set<Long> found = null;
+        for (FilterTerm term : terms) {
+            String field = TextIndex.getField(term);
+            String text = getContainedText(term);
+            if (field == null || text == null)
+                continue;
+
+            Set<Long> ids = index.search(field, text);
+            if (ids == null)
+                continue;
+
+            if (found == null) {
+                found = new HashSet<Long>(ids);
+            }
+            else {
+                found.retainAll(ids);
+            }
+        }
+
+        if (found == null || found.size() > MAX_BULK_IDS)
+            return;
+
+        if (found.isEmpty()) {
+            terms.add(new FilterTerm(FilterTerm.Kind.PROPERTY, NamingConstants.ID, FilterTerm.Operator.IS_NULL, null));
+            return;
+        }
+
+        /*
+         * List is padded to the power of two, so few query shapes are compiled
+         */
+        List<Long> ids = new ArrayList<Long>(found);
+        Collections.sort(ids);
+        int size = Integer.highestOneBit(ids.size());
+        if (size < ids.size())
+            size <<= 1;
+
+        Long last = ids.get(ids.size() - 1);
+        while (ids.size() < size) {
+            ids.add(last);
+        }
+
+        terms.add(new FilterTerm(FilterTerm.Kind.PROPERTY, NamingConstants.ID, FilterTerm.Operator.IN, null, ids.toArray()));
     }
 
     /**
-     * Function used to add subquery filter by entity attributes 
-     * @param cq - criteria query
-     * @param builder - criteria query builder
-     * @param from - root object
-     * @param attributesFilter - attributes for filter
-     * @param joinColumn - column of base object in attribute object
-     * @param preList  - predicates list
+     * Function retrieves text of the contains filter
+     * @param term - filter term
+     * @return text without wildcards or null if term is not a contains filter
      */
-    protected void addAttributeFilter (CriteriaQuery cq, 
-                                       CriteriaBuilder builder, 
-                                       Path<T> from, 
-                                       List attributesFilter,
-                                       String joinColumn,
-                                       List<Predicate> preList)
+    private static String getContainedText (FilterTerm term)
+    {
+        if (term.getOperator() != FilterTerm.Operator.LIKE || !(term.getValues()[0] instanceof String))
+            return null;
+
+        String pattern = (String) term.getValues()[0];
+        if (pattern.length() < 2 || pattern.charAt(0) != FilterExpression.LIKE_WILDCARD || pattern.charAt(pattern.length() - 1) != FilterExpression.LIKE_WILDCARD)
+            return null;
+
+        /*
+         * Pattern is escaped, the text must not have other wildcards
+         */
+        StringBuilder text = new StringBuilder();
+        for (int i = 1; i < pattern.length() - 1; i++) {
+            char c = pattern.charAt(i);
+            if (c == FilterExpression.LIKE_ESCAPE && i + 1 < pattern.length() - 1)
+                c = pattern.charAt(++i);
+            else if (c == FilterExpression.LIKE_WILDCARD || c == FilterExpression.LIKE_ANY_CHAR || c == FilterExpression.LIKE_ESCAPE)
+                return null;
+
+            text.append(c);
+        }
+
+        return text.toString();
+    }
+
+    /**
+     * Function creates filter term for one column
+     * @param terms - list of terms (in, out)
+     * @param kind - kind of the column
+     * @param path - column path or attribute name
+     * @param type - type of the column
+     * @param dataType - type of the external attribute value, null for entity columns
+     * @param mode - match mode used for strings without operators
+     * @param var - filter value
+     */
+    protected void addFilterTerm (List<FilterTerm> terms, FilterTerm.Kind kind, String path, Class<?> type, DataType dataType, FilterExpression.MatchMode mode, Object var)
+    {
+        if (var == null) {
+            terms.add(new FilterTerm(kind, path, FilterTerm.Operator.IS_NULL, dataType));
+        }
+        else if (var instanceof String) {
+            FilterExpression expr = FilterExpression.compile((String)var, type, mode);
+            /*
+             * Empty or wrong filter is just skipped
+             */
+            if (expr != null)
+                terms.add(new FilterTerm(kind, path, expr.getOperator(), dataType, expr.getValues()));
+        }
+        else if (var instanceof Number && Number.class.isAssignableFrom(type)) {
+            terms.add(new FilterTerm(kind, path, FilterTerm.Operator.EQUAL, dataType, EJBUtils.convertNumber((Number)var, type)));
+        }
+        else {
+            terms.add(new FilterTerm(kind, path, FilterTerm.Operator.EQUAL, dataType, var));
+        }
+    }
+
+    /**
+     * Function converts list of attributes used to filter to the list of filter terms.
+     * Attributes are ordered by name
+     * @param attributesFilter - attributes metadata with names and values
+     * @return list of filter terms
+     */
+    protected List<FilterTerm> compileAttributesFilter (List<?> attributesFilter)
+    {
+        List<AbstractAttribute> attrs = new ArrayList<AbstractAttribute>();
+        if (attributesFilter != null) {
+            for (Object a : attributesFilter) {
+                if (a instanceof AbstractAttribute && ((AbstractAttribute)a).getDataType() != null)
+                    attrs.add((AbstractAttribute)a);
+            }
+        }
+
+        Collections.sort(attrs, new Comparator<AbstractAttribute>() {
+            @Override
+            public int compare(AbstractAttribute o1, AbstractAttribute o2)
+            {
+                return String.valueOf(o1.getName()).compareTo(String.valueOf(o2.getName()));
+            }
+        });
+
+        List<FilterTerm> terms = new ArrayList<FilterTerm>(attrs.size());
+        for (AbstractAttribute attr : attrs) {
+            terms.add(new FilterTerm(FilterTerm.Kind.ATTRIBUTE, attr.getName(), FilterTerm.Operator.EQUAL, attr.getDataType(), attr.getAsObject()));
+        }
+
+        return terms;
+    }
+
+    /**
+     * Function creates part of the query shape which describes filter terms
+     * @param terms - filter terms
+     * @return terms shape
+     */
+    protected static String getShape (List<FilterTerm> terms)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (FilterTerm term : terms) {
+            sb.append(term.getShape()).append(';');
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Function adds values of filter terms to the query plan
+     * @param plan - query plan
+     * @param terms - filter terms
+     */
+    protected static void addValues (QueryPlan plan, List<FilterTerm> terms)
+    {
+        for (FilterTerm term : terms) {
+            for (Object value : term.getValues()) {
+                plan.addValue(value);
+            }
+        }
+    }
+
+    /**
+     * Function creates comparison predicate for the filter term. Term values are bound as parameters
+     * @param builder - criteria query builder
+     * @param path - compared expression
+     * @param term - filter term
+     * @param plan - query plan
+     * @return predicate
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    protected Predicate getComparison (CriteriaBuilder builder, Expression path, FilterTerm term, QueryPlan plan)
+    {
+        switch (term.getOperator()) {
+            case IS_NULL:
+                return builder.isNull(path);
+
+            case LIKE:
+                return builder.like(builder.lower(path), plan.parameter(builder, String.class), FilterExpression.LIKE_ESCAPE);
+
+            case LESS_EQUAL:
+                return builder.le(path, plan.parameter(builder, path.getJavaType()));
+
+            case GREATER_EQUAL:
+                return builder.ge(path, plan.parameter(builder, path.getJavaType()));
+
+            case BETWEEN:
+                return builder.between(path, plan.parameter(builder, path.getJavaType()), plan.parameter(builder, path.getJavaType()));
+
+            case IN:
+                CriteriaBuilder.In in = builder.in(path);
+                for (int i = 0; i < term.getValues().length; i++) {
+                    in.value(plan.parameter(builder, path.getJavaType()));
+                }
+                return in;
+
+            default:
+                return builder.equal(path, plan.parameter(builder, path.getJavaType()));
+        }
+    }
+
+    /**
+     * Function used to add predicates to criteria query
+     * @param cq - criteria query object
+     * @param builder - criteria query builder
+     * @param from - root object
+     * @param terms - filter terms, see {@link #compileFilters(Map)}
+     * @param plan - query plan used to create parameters
+     * @param preList - predicate list (in, out)
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    protected void addSimpleFilter (CriteriaQuery cq, CriteriaBuilder builder, Path<T> from, List<FilterTerm> terms, QueryPlan plan, List<Predicate> preList)
+    {
+        for (FilterTerm term : terms) {
+            switch (term.getKind()) {
+                case ATTRIBUTE:
+                    addAttributeFilter(cq, builder, from, Arrays.asList(term), NamingConstants.PARENT, AttributeFilterStrategy.INTERSECT, plan, preList);
+                    break;
+
+                case RELATION_ID:
+                    preList.add(getComparison(builder, from.get(term.getPath()).get(NamingConstants.ID), term, plan));
+                    break;
+
+                case RELATION_PROPERTY:
+                    /*
+                     * Create subquery to find by attribute of related entity
+                     */
+                    String[] fields = term.getPath().split("\\.");
+                    Path relation = from.get(fields[0]);
+                    Subquery subquery = cq.subquery(relation.getJavaType());
+                    Root fromRelation = subquery.from(relation.getJavaType());
+                    subquery.select(fromRelation.get(NamingConstants.ID));
+                    subquery.where(getComparison(builder, fromRelation.get(fields[1]), term, plan));
+                    /*
+                     * Add where to main query
+                     */
+                    preList.add(builder.in(relation.get(NamingConstants.ID)).value(subquery));
+                    break;
+
+                default:
+                    preList.add(getComparison(builder, from.get(term.getPath()), term, plan));
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Function orders attribute filter terms by estimated selectivity, most selective goes first,
+     * and chooses filter strategy if it is not set
+     * @param attributesFilter - attribute filter terms (in, out)
+     * @param strategy - desired strategy, {@link AttributeFilterStrategy#AUTO} to choose it using attribute statistics
+     * @return strategy which should be used
+     */
+    protected AttributeFilterStrategy chooseAttributeFilterStrategy (List<FilterTerm> attributesFilter, AttributeFilterStrategy strategy)
+    {
+        if (attributesFilter.size() <= 1)
+            return strategy == AttributeFilterStrategy.AUTO ? AttributeFilterStrategy.INTERSECT : strategy;
+
+        final AttributeStatistics stats = getAttributeStatistics();
+        Collections.sort(attributesFilter, new Comparator<FilterTerm>() {
+            @Override
+            public int compare(FilterTerm o1, FilterTerm o2)
+            {
+                long e1 = stats.estimate(o1);
+                long e2 = stats.estimate(o2);
+                return e1 < e2 ? -1 : (e1 == e2 ? 0 : 1);
+            }
+        });
+
+        if (strategy != AttributeFilterStrategy.AUTO)
+            return strategy;
+
+        long first = stats.estimate(attributesFilter.get(0));
+        long last = stats.estimate(attributesFilter.get(attributesFilter.size() - 1));
+
+        /*
+         * Selective attribute reduces the set of entities checked by others
+         */
+        if (first <= SELECTIVE_ROWS || first * SELECTIVITY_RATIO <= last)
+            return AttributeFilterStrategy.INTERSECT;
+
+        /*
+         * Too many correlated subqueries are worse than one scan of attributes
+         */
+        if (attributesFilter.size() > MAX_EXISTS_ATTRIBUTES)
+            return AttributeFilterStrategy.GROUP_BY;
+
+        return AttributeFilterStrategy.EXISTS;
+    }
+
+    /**
+     * Function retrieves statistics of the external attributes. Statistics are calculated
+     * by one group by query and cached for some time
+     * @return attribute statistics
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    protected AttributeStatistics getAttributeStatistics ()
+    {
+        AttributeStatistics stats = attributeStatistics.get(attributesClass);
+        if (stats != null)
+            return stats;
+
+        long generation = attributeStatistics.getGeneration();
+        CriteriaBuilder builder = getEntityManager().getCriteriaBuilder();
+        CriteriaQuery<Object[]> cq = builder.createQuery(Object[].class);
+        Root fromAttr = cq.from(attributesClass);
+        Path name = fromAttr.get(NamingConstants.NAME);
+        Path dataType = fromAttr.get(NamingConstants.DATA_TYPE);
+        cq.multiselect(
+                name,
+                dataType,
+                builder.count(fromAttr),
+                builder.countDistinct(fromAttr.get(NamingConstants.STRING_VALUE)),
+                builder.countDistinct(fromAttr.get(NamingConstants.NUMBER_VALUE)),
+                builder.countDistinct(fromAttr.get(NamingConstants.DATE_VALUE)));
+        cq.groupBy(name, dataType);
+
+        stats = new AttributeStatistics();
+        for (Object[] row : getEntityManager().createQuery(cq).getResultList()) {
+            long distinct = ((Long)row[3]) + ((Long)row[4]) + ((Long)row[5]);
+            stats.add((String)row[0], (DataType)row[1], (Long)row[2], distinct);
+        }
+
+        attributeStatistics.put(attributesClass, stats, generation);
+        return stats;
+    }
+
+    /**
+     * Function used to add subquery filter by entity attributes 
+     * @param cq - criteria query
+     * @param builder - criteria query builder
+     * @param from - root object
+     * @param attributesFilter - attribute filter terms, see {@link #compileAttributesFilter(List)}
+     * @param joinColumn - column of base object in attribute object
+     * @param strategy - filter strategy, see {@link #chooseAttributeFilterStrategy(List, AttributeFilterStrategy)}
+     * @param plan - query plan used to create parameters
+     * @param preList  - predicates list
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    protected void addAttributeFilter (CriteriaQuery cq, 
+                                       CriteriaBuilder builder, 
+                                       Path<T> from, 
+                                       List<FilterTerm> attributesFilter,
+                                       String joinColumn,
+                                       AttributeFilterStrategy strategy,
+                                       QueryPlan plan,
+                                       List<Predicate> preList)
+    {
+        if (attributesFilter.isEmpty())
+            return;
+
+        switch (strategy) {
+            case EXISTS:
+                for (FilterTerm term : attributesFilter) {
+                    Subquery<Long> subquery = cq.subquery(Long.class);
+                    Root fromAttr = subquery.from(attributesClass);
+                    Path parentId = fromAttr.get(joinColumn).get(NamingConstants.ID);
+
+                    subquery.select(parentId);
+                    subquery.where(
+                            builder.equal(parentId, from.get(NamingConstants.ID)),
+                            getAttributePredicate(builder, fromAttr, term, plan));
+                    preList.add(builder.exists(subquery));
+                }
+                break;
+
+            case INTERSECT:
+                Subquery<Long> previous = null;
+                for (FilterTerm term : attributesFilter) {
+                    Subquery<Long> subquery = cq.subquery(Long.class);
+                    Root fromAttr = subquery.from(attributesClass);
+                    Path parentId = fromAttr.get(joinColumn).get(NamingConstants.ID);
+
+                    subquery.select(parentId);
+                    if (previous == null)
+                        subquery.where(getAttributePredicate(builder, fromAttr, term, plan));
+                    else
+                        subquery.where(getAttributePredicate(builder, fromAttr, term, plan), builder.in(parentId).value(previous));
+
+                    previous = subquery;
+                }
+
+                preList.add(builder.in(from.get(NamingConstants.ID)).value(previous));
+                break;
+
+            default:
+                Subquery<Long> subquery = cq.subquery(Long.class);
+                Root fromAttr = subquery.from(attributesClass);
+                Path parentId = fromAttr.get(joinColumn).get(NamingConstants.ID);
+
+                subquery.select(parentId);
+                subquery.groupBy(parentId);
+                subquery.having(builder.equal(builder.count(parentId), attributesFilter.size()));
+
+                Predicate wherePredicates = null;
+
+                for (FilterTerm term : attributesFilter) {
+                    Predicate pp = getAttributePredicate(builder, fromAttr, term, plan);
+
+                    if (wherePredicates == null)
+                        wherePredicates = pp;
+                    else
+                        wherePredicates = builder.or(wherePredicates, pp);
+                }
+
+                subquery.where(wherePredicates);
+                preList.add(builder.in(from.get(NamingConstants.ID)).value(subquery));
+                break;
+        }
+    }
+
+    /**
+     * Function creates predicate which checks name and value of the attribute
+     * @param builder - criteria query builder
+     * @param fromAttr - attribute root object
+     * @param term - attribute filter term
+     * @param plan - query plan used to create parameters
+     * @return predicate
+     */
+    @SuppressWarnings("rawtypes")
+    protected Predicate getAttributePredicate (CriteriaBuilder builder, Root fromAttr, FilterTerm term, QueryPlan plan)
+    {
+        return builder.and (
+                builder.equal(fromAttr.get(NamingConstants.NAME), term.getPath()),
+                getComparison(builder, fromAttr.get(getValueAttribute(term.getDataType())), term, plan)
+            );
+    }
+
+    /**
+     * Function retrieves java type of the attribute value
+     * @param dataType - attribute data type
+     * @return value type
+     */
+    protected static Class<?> getValueType (DataType dataType)
+    {
+        switch (dataType) {
+            case NUMBER:
+                return BigDecimal.class;
+
+            case DATE:
+                return Date.class;
+
+            default:
+                return String.class;
+        }
+    }
+
+    /**
+     * Function retrieves name of the attribute value field
+     * @param dataType - attribute data type
+     * @return value field name
+     */
+    protected static String getValueAttribute (DataType dataType)
+    {
+        switch (dataType) {
+            case NUMBER:
+                return NamingConstants.NUMBER_VALUE;
+
+            case DATE:
+                return NamingConstants.DATE_VALUE;
+
+            default:
+                return NamingConstants.STRING_VALUE;
+        }
+    }
+
+    /**
+     * Function used to create new entity on <T> type
+     * @param entity - entity to create
+     */
+    public void create(T entity)
+    {
+        boolean isOwnTran = false;
+        List<T> written = null;
+        try {
+            isOwnTran = EJBUtils.beginTransaction(getUserTransaction());
+            T managed = write(entity, false);
+            written = Arrays.asList(managed);
+            refreshAttributeProjection(managed);
+            List<Long> ids = getWrittenIds(written);
+            EJBUtils.commit(getUserTransaction(), isOwnTran);
+            isOwnTran = false;
+            refreshTextIndex(ids);
+        }
+        catch (Exception ex) {
+            EJBUtils.rollback(getUserTransaction(), isOwnTran);
+            throw (new EJBException(ex));
+        }
+        finally {
+            invalidateCaches(written);
+        }
+    }
+
+    /**
+     * Function used to merge entity
+     * @param entity - entity to merge
+     */
+    public void merge(T entity)
+    {
+        boolean isOwnTran = false;
+        List<T> written = null;
+        try {
+            isOwnTran = EJBUtils.beginTransaction(getUserTransaction());
+            T managed = write(entity, true);
+            written = Arrays.asList(managed);
+            refreshAttributeProjection(managed);
+            List<Long> ids = getWrittenIds(written);
+            EJBUtils.commit(getUserTransaction(), isOwnTran);
+            isOwnTran = false;
+            refreshTextIndex(ids);
+        }
+        catch (Exception ex) {
+            EJBUtils.rollback(getUserTransaction(), isOwnTran);
+            throw (new EJBException(ex));
+        }
+        finally {
+            invalidateCaches(written);
+        }
+    }
+
+    /**
+     * Function persists or merges one entity in the current transaction. Subclasses
+     * override it to maintain derived columns of the written entities
+     * @param entity - entity to write
+     * @param merge - true to merge entity, false to persist it
+     * @return managed entity
+     */
+    protected T write(T entity, boolean merge)
+    {
+        if (merge)
+            return getEntityManager().merge(entity);
+
+        getEntityManager().persist(entity);
+        return entity;
+    }
+
+    /**
+     * Function creates entities in batches of default size, see {@link #createAll(Collection, int)}
+     * @param entities - entities to create
+     */
+    public void createAll(Collection<? extends T> entities)
+    {
+        createAll(entities, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Function creates entities in batches. Each batch is flushed by JDBC batch writing
+     * (see <code>eclipselink.jdbc.batch-writing</code> in persistence.xml), committed if the
+     * transaction was started here and then persistence context is cleared, so memory usage
+     * depends on the batch size only. Created entities are detached when function returns.
+     * <p>
+     * Write is partial when the transaction is started here: if a batch fails it is rolled back,
+     * but the previous batches stay committed. Caller which needs all-or-nothing write starts
+     * the transaction itself, in this case batches are only flushed and nothing is committed here.
+     * Persistence context of the caller is not cleared either, so written entities stay managed
+     * and memory usage grows with the count of entities
+     * @param entities - entities to create
+     * @param batchSize - count of entities in one batch
+     */
+    public void createAll(Collection<? extends T> entities, int batchSize)
+    {
+        writeAll(entities, batchSize, false);
+    }
+
+    /**
+     * Function merges entities in batches of default size, see {@link #mergeAll(Collection, int)}
+     * @param entities - entities to merge
+     */
+    public void mergeAll(Collection<? extends T> entities)
+    {
+        mergeAll(entities, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Function merges entities in batches, see {@link #createAll(Collection, int)}
+     * @param entities - entities to merge
+     * @param batchSize - count of entities in one batch
+     */
+    public void mergeAll(Collection<? extends T> entities, int batchSize)
+    {
+        writeAll(entities, batchSize, true);
+    }
+
+    /**
+     * Function persists or merges entities in batches
+     * @param entities - entities to write
+     * @param batchSize - count of entities in one batch
+     * @param merge - true to merge entities, false to persist them
+     */
+    private void writeAll(Collection<? extends T> entities, int batchSize, boolean merge)
+    {
+        if (batchSize <= 0)
+            throw (new IllegalArgumentException("Batch size must be positive: " + batchSize));
+
+        long start = System.currentTimeMillis();
+        List<T> batch = new ArrayList<T>(Math.min(batchSize, entities.size()));
+        boolean isOwnTran = false;
+        try {
+            Iterator<? extends T> it = entities.iterator();
+            while (it.hasNext()) {
+                batch.clear();
+                isOwnTran = EJBUtils.beginTransaction(getUserTransaction());
+                while (it.hasNext() && batch.size() < batchSize) {
+                    batch.add(write(it.next(), merge));
+                }
+
+                getEntityManager().flush();
+                refreshAttributeProjection(batch);
+                List<Long> ids = getWrittenIds(batch);
+                boolean committed = isOwnTran;
+                EJBUtils.commit(getUserTransaction(), isOwnTran);
+                isOwnTran = false;
+
+                /*
+                 * Persistence context of the caller transaction holds its own entities
+                 * and changes, it is not cleared here
+                 */
+                if (committed)
+                    getEntityManager().clear();
+                refreshTextIndex(ids);
+            }
+        }
+        catch (Exception ex) {
+            /*
+             * Only the current batch is rolled back, committed batches stay in database
+             */
+            EJBUtils.rollback(getUserTransaction(), isOwnTran);
+            throw (new EJBException(ex));
+        }
+        finally {
+            invalidateCaches(entities);
+        }
+
+        Logger.getLogger(AbstractFacade.class.getName()).log(Level.FINE, "{0} {1} entities of {2} written in {3} ms",
+                new Object[] {merge ? "Merged" : "Created", entities.size(), entityClass.getSimpleName(), System.currentTimeMillis() - start});
+    }
+
+    /**
+     * Function removes entity
+     * @param entity - entity to remove
+     */
+    public void remove(T entity)
+    {
+        boolean isOwnTran = false;
+        List<T> written = null;
+        try {
+            isOwnTran = EJBUtils.beginTransaction(getUserTransaction());
+            T managed = getEntityManager().merge(entity);
+            getEntityManager().remove(managed);
+            written = Arrays.asList(managed);
+            refreshAttributeProjection(managed);
+            List<Long> ids = getWrittenIds(written);
+            EJBUtils.commit(getUserTransaction(), isOwnTran);
+            isOwnTran = false;
+
+            /*
+             * Entries of the removed entities are dropped by refresh since nothing is loaded for them
+             */
+            refreshTextIndex(ids);
+        }
+        catch (Exception ex) {
+            EJBUtils.rollback(getUserTransaction(), isOwnTran);
+            throw (new EJBException(ex));
+        }
+        finally {
+            invalidateCaches(written);
+        }
+    }
+
+    /**
+     * Function updates all filtered entities by one statement
+     * @param filters - map of filters
+     * @param values - new values by attribute name
+     * @return count of updated entities
+     */
+    public int updateFiltered(Map<String, Object> filters, Map<String, Object> values)
+    {
+        return updateFiltered(filters, null, NamingConstants.PARENT, values);
+    }
+
+    /**
+     * Function updates all entities selected by filters and attribute filters by one statement.
+     * Only entity attributes (basic or single valued relations) could be updated. Entities which
+     * are already managed by the current persistence context are not refreshed
+     * @param filters - map of filters
+     * @param attributesFilter - list of attribute filters or null
+     * @param joinColumn - column of base object in attribute object
+     * @param values - new values by attribute name
+     * @return count of updated entities
+     */
+    @SuppressWarnings("rawtypes")
+    public int updateFiltered(Map<String, Object> filters, List attributesFilter, String joinColumn, Map<String, Object> values)
+    {
+        if (values == null || values.isEmpty())
+            return 0;
+
+        EntityType<T> model = getEntityManager().getMetamodel().entity(entityClass);
+        for (String name : values.keySet()) {
+            Attribute<? super T, ?> attr = model.getAttribute(name);
+            if (attr.isCollection() || !isBulkUpdatable(name))
+                throw (new IllegalArgumentException("Attribute " + name + " could not be updated"));
+        }
+
+        boolean isOwnTran = false;
+        try {
+            isOwnTran = EJBUtils.beginTransaction(getUserTransaction());
+            QueryPlan plan = createPlan("update", "");
+            CriteriaQuery<Long> cq = createIdQuery(compileFilters(filters), compileAttributesFilter(attributesFilter), joinColumn, plan);
+
+            UpdateAllQuery update = new UpdateAllQuery(entityClass);
+            update.setSelectionCriteria(update.getExpressionBuilder().get(NamingConstants.ID).in(getReportQuery(cq)));
+            for (Map.Entry<String, Object> value : values.entrySet()) {
+                update.addUpdate(value.getKey(), value.getValue());
+            }
+
+            int count = executeBulk(update, plan);
+            EJBUtils.commit(getUserTransaction(), isOwnTran);
+            isOwnTran = false;
+
+            /*
+             * Changed rows are not known, index is rebuilt at the next use
+             */
+            TextIndex index = getTextIndex();
+            if (index != null && (values.containsKey(NamingConstants.NAME) || values.containsKey(NamingConstants.DESCRIPTION)))
+                index.invalidate();
+            return count;
+        }
+        catch (Exception ex) {
+            EJBUtils.rollback(getUserTransaction(), isOwnTran);
+            throw (new EJBException(ex));
+        }
+        finally {
+            invalidateCaches();
+        }
+    }
+
+    /**
+     * Function checks if attribute could be changed by bulk update. Attributes which
+     * derived columns depend on must be changed by {@link #merge(BaseEntity)}
+     * @param name - attribute name
+     * @return true if attribute could be updated
+     */
+    protected boolean isBulkUpdatable(String name)
+    {
+        return !NamingConstants.ID.equals(name);
+    }
+
+    /**
+     * Function deletes all filtered entities together with their attributes
+     * @param filters - map of filters
+     * @return count of deleted entities
+     */
+    public int deleteFiltered(Map<String, Object> filters)
+    {
+        return deleteFiltered(filters, null, NamingConstants.PARENT);
+    }
+
+    /**
+     * Function deletes all entities selected by filters and attribute filters together with their
+     * attributes. Attributes and entities are deleted by two statements with the same subquery.
+     * If filter uses attributes, the subquery would not find anything after attributes are deleted,
+     * so identifiers are selected first and entities are deleted by chunks of identifiers.
+     * Other children (e.g. child nodes of the hierarchy) are not deleted, database rejects
+     * deletion of the entities which have them
+     * @param filters - map of filters
+     * @param attributesFilter - list of attribute filters or null
+     * @param joinColumn - column of base object in attribute object
+     * @return count of deleted entities
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public int deleteFiltered(Map<String, Object> filters, List attributesFilter, String joinColumn)
+    {
+        boolean isOwnTran = false;
+        try {
+            isOwnTran = EJBUtils.beginTransaction(getUserTransaction());
+            List<FilterTerm> terms = compileFilters(filters);
+            List<FilterTerm> attrTerms = compileAttributesFilter(attributesFilter);
+            QueryPlan plan = createPlan("delete", "");
+            CriteriaQuery<Long> cq = createIdQuery(terms, attrTerms, joinColumn, plan);
+
+            boolean byAttributes = !attrTerms.isEmpty();
+            for (FilterTerm term : terms) {
+                byAttributes |= term.getKind() == FilterTerm.Kind.ATTRIBUTE;
+            }
+
+            int count = 0;
+            if (byAttributes) {
+                Query q = getEntityManager().createQuery(cq);
+                List<Object> values = plan.getValues();
+                for (int i = 0; i < values.size(); i++) {
+                    q.setParameter(QueryPlan.getParameterName(i), values.get(i));
+                }
+
+                List<Long> ids = q.getResultList();
+                for (int i = 0; i < ids.size(); i += MAX_BULK_IDS) {
+                    List<Long> chunk = ids.subList(i, Math.min(i + MAX_BULK_IDS, ids.size()));
+                    DeleteAllQuery attrDelete = new DeleteAllQuery(attributesClass);
+                    attrDelete.setSelectionCriteria(attrDelete.getExpressionBuilder().get(joinColumn).get(NamingConstants.ID).in(chunk));
+                    executeBulk(attrDelete, null);
+
+                    DeleteAllQuery delete = new DeleteAllQuery(entityClass);
+                    delete.setSelectionCriteria(delete.getExpressionBuilder().get(NamingConstants.ID).in(chunk));
+                    count += executeBulk(delete, null);
+                }
+            }
+            else {
+                DeleteAllQuery attrDelete = new DeleteAllQuery(attributesClass);
+                attrDelete.setSelectionCriteria(attrDelete.getExpressionBuilder().get(joinColumn).get(NamingConstants.ID).in(getReportQuery(cq)));
+                executeBulk(attrDelete, plan);
+
+                DeleteAllQuery delete = new DeleteAllQuery(entityClass);
+                delete.setSelectionCriteria(delete.getExpressionBuilder().get(NamingConstants.ID).in(getReportQuery(cq)));
+                count = executeBulk(delete, plan);
+            }
+
+            AttributeProjection projection = getAttributeProjection();
+            if (projection != null && AttributeProjection.isEnabled())
+                projection.purge(getEntityManager());
+
+            EJBUtils.commit(getUserTransaction(), isOwnTran);
+            isOwnTran = false;
+
+            /*
+             * Deleted rows are not always known, index is rebuilt at the next use
+             */
+            TextIndex index = getTextIndex();
+            if (index != null)
+                index.invalidate();
+            return count;
+        }
+        catch (Exception ex) {
+            EJBUtils.rollback(getUserTransaction(), isOwnTran);
+            throw (new EJBException(ex));
+        }
+        finally {
+            invalidateCaches();
+        }
+    }
+
+    /**
+     * Function creates query which selects identifiers of filtered entities
+     * @param terms - filter terms
+     * @param attrTerms - attribute filter terms
+     * @param joinColumn - column of base object in attribute object
+     * @param plan - query plan used to create parameters
+     * @return criteria query
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private CriteriaQuery<Long> createIdQuery(List<FilterTerm> terms, List<FilterTerm> attrTerms, String joinColumn, QueryPlan plan)
+    {
+        AttributeFilterStrategy strategy = chooseAttributeFilterStrategy(attrTerms, AttributeFilterStrategy.AUTO);
+        addValues(plan, attrTerms);
+        addValues(plan, terms);
+
+        CriteriaBuilder builder = getEntityManager().getCriteriaBuilder();
+        CriteriaQuery<Long> cq = builder.createQuery(Long.class);
+        Root<T> from = cq.from(entityClass);
+        cq.select(from.<Long>get(NamingConstants.ID));
+
+        List<Predicate> predicates = new ArrayList<Predicate>();
+        addAttributeFilter(cq, builder, from, attrTerms, joinColumn, strategy, plan, predicates);
+        addSimpleFilter (cq, builder, from, terms, plan, predicates);
+
+        if (!predicates.isEmpty())
+            cq.where(predicates.toArray(new Predicate[predicates.size()]));
+
+        return cq;
+    }
+
+    /**
+     * Function converts criteria query to EclipseLink query which could be used as subquery
+     * @param cq - criteria query
+     * @return report query
+     */
+    private ReportQuery getReportQuery(CriteriaQuery<?> cq)
+    {
+        return (ReportQuery) getEntityManager().createQuery(cq).unwrap(JpaQuery.class).getDatabaseQuery().clone();
+    }
+
+    /**
+     * Function executes bulk query immediately in the current transaction
+     * @param query - update or delete query
+     * @param plan - query plan which holds parameter values of subquery or null
+     * @return count of affected rows
+     */
+    private int executeBulk(ModifyAllQuery query, QueryPlan plan)
+    {
+        List<Object> values = plan != null ? plan.getValues() : Collections.emptyList();
+        for (int i = 0; i < values.size(); i++) {
+            query.addArgument(QueryPlan.getParameterName(i));
+        }
+
+        query.setShouldDeferExecutionInUOW(false);
+        Object count = getEntityManager().unwrap(JpaEntityManager.class).getActiveSession().executeQuery(query, values);
+        return count instanceof Number ? ((Number) count).intValue() : 0;
+    }
+
+    /**
+     * Function retrieves pivoted projection of the entity attributes
+     * @return projection or null if entity does not have projection
+     */
+    protected AttributeProjection getAttributeProjection()
+    {
+        return null;
+    }
+
+    /**
+     * Function retrieves projection which could be used by queries. Projection is built
+     * at the first use
+     * @return projection or null if projection is disabled or could not be built
+     */
+    protected AttributeProjection getReadyProjection()
+    {
+        AttributeProjection projection = getAttributeProjection();
+        if (projection == null || !AttributeProjection.isEnabled())
+            return null;
+
+        if (!projection.isReady()) {
+            try {
+                rebuildAttributeProjection();
+            }
+            catch (EJBException ex) {
+                Logger.getLogger(AbstractFacade.class.getName()).log(Level.WARNING, "Attribute projection is not available", ex);
+            }
+        }
+
+        return projection.isReady() ? projection : null;
+    }
+
+    /**
+     * Function creates projection table if it does not exist and refills it
+     */
+    public void rebuildAttributeProjection()
+    {
+        AttributeProjection projection = getAttributeProjection();
+        if (projection == null)
+            return;
+
+        boolean isOwnTran = false;
+        try {
+            isOwnTran = EJBUtils.beginTransaction(getUserTransaction());
+            projection.rebuild(getEntityManager());
+            EJBUtils.commit(getUserTransaction(), isOwnTran);
+        }
+        catch (Exception ex) {
+            EJBUtils.rollback(getUserTransaction(), isOwnTran);
+            throw (new EJBException(ex));
+        }
+    }
+
+    /**
+     * Function refreshes projection row of the entity. It is called inside of the transaction
+     * which modifies entity. Row is refreshed if projection table exists, even if this instance
+     * has not built projection yet, other instances could use it
+     * @param entity - modified entity
+     */
+    protected void refreshAttributeProjection(T entity)
+    {
+        AttributeProjection projection = getAttributeProjection();
+        if (projection == null || !AttributeProjection.isEnabled())
+            return;
+
+        getEntityManager().flush();
+        projection.refresh(getEntityManager(), Arrays.asList(entity.getId()));
+    }
+
+    /**
+     * Function refreshes projection rows of the entities. Entities must be already flushed
+     * @param entities - modified entities
+     */
+    protected void refreshAttributeProjection(List<T> entities)
+    {
+        AttributeProjection projection = getAttributeProjection();
+        if (projection == null || !AttributeProjection.isEnabled() || entities.isEmpty())
+            return;
+
+        List<Long> ids = new ArrayList<Long>(entities.size());
+        for (T entity : entities) {
+            ids.add(entity.getId());
+        }
+
+        projection.refresh(getEntityManager(), ids);
+    }
+
+    /**
+     * Function retrieves text index of the entity
+     * @return text index or null if entity does not have index
+     */
+    protected TextIndex getTextIndex()
+    {
+        return null;
+    }
+
+    /**
+     * Function retrieves text index which could be used by queries. Index is built
+     * at the first use if it was not built at startup
+     * @return text index or null if index is disabled or could not be built
+     */
+    protected TextIndex getReadyTextIndex()
+    {
+        TextIndex index = getTextIndex();
+        if (index == null || !TextIndex.isEnabled())
+            return null;
+
+        if (!index.isReady()) {
+            try {
+                rebuildTextIndex();
+            }
+            catch (RuntimeException ex) {
+                Logger.getLogger(AbstractFacade.class.getName()).log(Level.WARNING, "Text index is not available", ex);
+            }
+        }
+
+        return index.isReady() ? index : null;
+    }
+
+    /**
+     * Function rebuilds text index from database
+     */
+    public void rebuildTextIndex()
+    {
+        TextIndex index = getTextIndex();
+        if (index != null)
+            index.rebuild(getEntityManager());
+    }
+
+    /**
+     * Function retrieves identifiers of the entities which index entries must be refreshed
+     * after commit: the written entities and all entities written by cascade. Changes are
+     * flushed, so entity listener has seen all of them
+     * @param written - entities written by facade
+     * @return list of identifiers, empty if entity does not have index
+     */
+    private List<Long> getWrittenIds(Collection<? extends T> written)
+    {
+        TextIndex index = getTextIndex();
+        if (index == null || !TextIndex.isEnabled())
+            return Collections.emptyList();
+
+        getEntityManager().flush();
+        Set<Long> ids = new HashSet<Long>();
+        for (T entity : written) {
+            ids.add(entity.getId());
+        }
+
+        index.takeTracked(ids);
+        return new ArrayList<Long>(ids);
+    }
+
+    /**
+     * Function refreshes text index entries of the entities. It is called after
+     * transaction which modifies entities is committed
+     * @param ids - identifiers of the modified entities
+     */
+    protected void refreshTextIndex(Collection<Long> ids)
+    {
+        TextIndex index = getTextIndex();
+        if (index == null || ids.isEmpty())
+            return;
+
+        try {
+            index.refresh(getEntityManager(), ids);
+        }
+        catch (RuntimeException ex) {
+            Logger.getLogger(AbstractFacade.class.getName()).log(Level.WARNING, "Text index is invalidated", ex);
+            index.invalidate();
+        }
+    }
+
+    /**
+     * Function moves attribute terms which could be served by projection to the separate list
+     * @param terms - filter terms (in, out)
+     * @return projected terms, empty list if projection is not used
+     */
+    protected List<FilterTerm> extractProjectedTerms (List<FilterTerm> terms)
+    {
+        List<FilterTerm> projected = new ArrayList<FilterTerm>();
+        for (FilterTerm term : terms) {
+            if (term.getKind() == FilterTerm.Kind.ATTRIBUTE)
+                projected.add(term);
+        }
+
+        if (projected.isEmpty())
+            return projected;
+
+        AttributeProjection projection = getReadyProjection();
+        if (projection == null || !projection.covers(projected))
+            return new ArrayList<FilterTerm>();
+
+        terms.removeAll(projected);
+        return projected;
+    }
+
+    /**
+     * Function moves terms of extended filter which could be served by projection to the separate list.
+     * Attribute filter is projected only if all its terms are covered and strategy is not forced
+     * @param attrTerms - attribute filter terms (in, out)
+     * @param terms - simple filter terms (in, out)
+     * @param joinColumn - column of base object in attribute object
+     * @param strategy - desired attribute filter strategy
+     * @return projected terms
+     */
+    protected List<FilterTerm> getProjectedTerms (List<FilterTerm> attrTerms, List<FilterTerm> terms, String joinColumn, AttributeFilterStrategy strategy)
+    {
+        List<FilterTerm> projected = new ArrayList<FilterTerm>();
+        AttributeProjection projection = getAttributeProjection();
+        if (strategy == AttributeFilterStrategy.AUTO && projection != null && projection.getJoinColumn().equals(joinColumn))
+            projected.addAll(extractProjectedTerms(attrTerms));
+
+        projected.addAll(extractProjectedTerms(terms));
+        return projected;
+    }
+
+    /**
+     * Function adds projection predicates to the query plan. Values of projected terms
+     * must be added to the plan after all other values
+     * @param plan - query plan
+     * @param projected - projected terms, see {@link #extractProjectedTerms(List)}
+     */
+    protected void addProjectionFilter (QueryPlan plan, List<FilterTerm> projected)
+    {
+        if (!projected.isEmpty())
+            plan.addCustomizer(getAttributeProjection().getCustomizer(projected));
+    }
+
+    /**
+     * Function drops all cached data of the entity class, it is called when modified entities
+     * are not known e.g. after bulk statements, see {@link #invalidateCaches(Collection)}
+     */
+    protected void invalidateCaches()
+    {
+        invalidateCaches(null);
+    }
+
+    /**
+     * Function drops cached data of the entity class. It must be called after any modification
+     * of the entities made by this facade. If the modification is made in the transaction of the
+     * caller, caches are dropped at once and once more when the transaction is committed, so
+     * entries which concurrent readers load from the old rows before commit do not survive it
+     * @param written - written or removed entities, null if they are not known
+     */
+    protected void invalidateCaches(final Collection<? extends T> written)
+    {
+        /*
+         * Read-only unit could lag behind, so request reads its own writes from the primary
+         */
+        ReadRouting.forcePrimary();
+        Runnable eviction = new Runnable() {
+            @Override
+            public void run()
+            {
+                evictCaches(written);
+            }
+        };
+
+        eviction.run();
+        runAfterCommit(eviction);
+    }
+
+    /**
+     * Function drops cached data of the entity class, see {@link #invalidateCaches(Collection)}.
+     * Subclasses override it to drop the other caches which depend on the entities
+     * @param written - written or removed entities, null if they are not known
+     */
+    protected void evictCaches(Collection<? extends T> written)
+    {
+        getCountCache().invalidate();
+        getChildrenCache().invalidate();
+    }
+
+    /**
+     * Function runs action when the current transaction is committed
+     * @param action - action to run
+     * @return false if there is no transaction, action is not run in this case
+     */
+    protected static boolean runAfterCommit(final Runnable action)
+    {
+        TransactionSynchronizationRegistry registry = getRegistry();
+        if (registry == null || registry.getTransactionKey() == null)
+            return false;
+
+        registry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion()
+            {
+            }
+
+            @Override
+            public void afterCompletion(int status)
+            {
+                if (status == Status.STATUS_COMMITTED)
+                    action.run();
+            }
+        });
+        return true;
+    }
+
+    private static TransactionSynchronizationRegistry getRegistry()
+    {
+        try {
+            return (TransactionSynchronizationRegistry) new InitialContext().lookup(REGISTRY_JNDI_NAME);
+        }
+        catch (NamingException ex) {
+            Logger.getLogger(AbstractFacade.class.getName()).log(Level.FINE, null, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Function retrieves count cache of the entity class
+     * @return count cache
+     */
+    protected BoundedCache<String, Integer> getCountCache()
+    {
+        BoundedCache<String, Integer> cache = countCaches.get(entityClass);
+        if (cache == null) {
+            countCaches.putIfAbsent(entityClass, new BoundedCache<String, Integer>(COUNT_CACHE_SIZE, COUNT_CACHE_TTL));
+            cache = countCaches.get(entityClass);
+        }
+
+        return cache;
+    }
+
+    /**
+     * Function retrieves children cache of the entity class
+     * @return children cache
+     */
+    protected BoundedCache<Long, List<Long>> getChildrenCache()
+    {
+        BoundedCache<Long, List<Long>> cache = childrenCaches.get(entityClass);
+        if (cache == null) {
+            childrenCaches.putIfAbsent(entityClass, new BoundedCache<Long, List<Long>>(CHILDREN_CACHE_SIZE, CHILDREN_CACHE_TTL));
+            cache = childrenCaches.get(entityClass);
+        }
+
+        return cache;
+    }
+
+    /**
+     * Retrieves number of children lists which were taken from cache
+     * @return children cache hits
+     */
+    public long getChildrenCacheHits()
+    {
+        return getChildrenCache().getHits();
+    }
+
+    /**
+     * Retrieves number of children lists which were selected from database
+     * @return children cache misses
+     */
+    public long getChildrenCacheMisses()
+    {
+        return getChildrenCache().getMisses();
+    }
+
+    /**
+     * Retrieves number of counts which were taken from cache
+     * @return count cache hits
+     */
+    public long getCountCacheHits()
+    {
+        return getCountCache().getHits();
+    }
+
+    /**
+     * Retrieves number of counts which were calculated by database
+     * @return count cache misses
+     */
+    public long getCountCacheMisses()
+    {
+        return getCountCache().getMisses();
+    }
+
+    /**
+     * Function creates normalized string representation of the filters. Filters which
+     * differ only by order of columns have the same signature
+     * @param filters - map of filters
+     * @return filters signature
+     */
+    protected String getFilterSignature(Map<String, ?> filters)
+    {
+        if (filters == null || filters.isEmpty())
+            return "";
+
+        List<String> columns = new ArrayList<String>(filters.keySet());
+        Collections.sort(columns);
+
+        StringBuilder sb = new StringBuilder();
+        for (String column : columns) {
+            sb.append(column.replace("wrappedObject.", ""))
+              .append('=')
+              .append(getValueSignature(filters.get(column)))
+              .append(';');
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Function creates normalized string representation of the attributes filter
+     * @param attributesFilter - attributes filter
+     * @return attributes filter signature
+     */
+    protected String getFilterSignature(List<?> attributesFilter)
+    {
+        if (attributesFilter == null || attributesFilter.isEmpty())
+            return "";
+
+        List<String> items = new ArrayList<String>(attributesFilter.size());
+        for (Object a : attributesFilter) {
+            if (!(a instanceof AbstractAttribute))
+                continue;
+
+            AbstractAttribute attr = (AbstractAttribute)a;
+            items.add(attr.getName() + ':' + attr.getDataType() + '=' + getValueSignature(attr.getAsObject()));
+        }
+
+        Collections.sort(items);
+
+        StringBuilder sb = new StringBuilder();
+        for (String item : items) {
+            sb.append(item).append(';');
+        }
+
+        return sb.toString();
+    }
+
+    private static String getValueSignature(Object value)
+    {
+        if (value == null)
+            return "null";
+
+        if (value instanceof BaseEntity)
+            return value.getClass().getName() + '#' + ((BaseEntity)value).getId();
+
+        if (value instanceof Date)
+            return "date:" + ((Date)value).getTime();
+
+        return value.getClass().getName() + ':' + value;
+    }
+
+    /**
+     * Function find entity by primary key
+     * @param id - primary key object
+     * @return found entity
+     */
+    public T find(Object id)
+    {
+        return getReadEntityManager().find(entityClass, id);
+    }
+
+    /**
+     * Function find all entities
+     * @return list of entities
+     */
+    public List<T> findAll()
+    {
+        EntityManager em = getReadEntityManager();
+        CriteriaQuery<T> cq = em.getCriteriaBuilder().createQuery(entityClass);
+        cq.select(cq.from(entityClass));
+        Query q = em.createQuery(cq);
+        if (em != getEntityManager())
+            q.setHint(QueryHints.READ_ONLY, HintValues.TRUE);
+
+        return q.getResultList();
+    }
+
+    /**
+     * Function retrieves list of entities from database. It uses sorting, filtering and paging to do this.
+     * @param first - first row number
+     * @param pageSize - page size
+     * @param sortField - field to sort by
+     * @param descend - flag indicates sort direction
+     * @param filters - map of filters
+     * @return list of entities
+     */
+    public List<T> findFilteredRange(int first, int pageSize, String sortField, boolean descend, Map<String, Object> filters)
+    {
+        return findFilteredRange(first, pageSize, sortField, descend, filters, null);
+    }
+
+    /**
+     * Function retrieves list of entities from database together with relations described by fetch plan
+     * @param first - first row number
+     * @param pageSize - page size
+     * @param sortField - field to sort by
+     * @param descend - flag indicates sort direction
+     * @param filters - map of filters
+     * @param fetch - relations to load with the page or null
+     * @return list of entities
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> findFilteredRange(int first, int pageSize, String sortField, boolean descend, Map<String, Object> filters, FetchPlan fetch)
+    {
+        Query q = createFilteredQuery(getReadEntityManager(), null, sortField, descend, filters, fetch);
+        q.setMaxResults(pageSize);
+        q.setFirstResult(first);
+        return q.getResultList();
+    }
+
+    /**
+     * Function retrieves list of entities in the container thread, see
+     * {@link #findFilteredRange(int, int, String, boolean, Map, FetchPlan)}.
+     * Method is asynchronous only when called through the EJB reference
+     * @param first - first row number
+     * @param pageSize - page size
+     * @param sortField - field to sort by
+     * @param descend - flag indicates sort direction
+     * @param filters - map of filters
+     * @param fetch - relations to load with the page or null
+     * @return future list of entities
+     */
+    @Asynchronous
+    public Future<List<T>> findFilteredRangeAsync(int first, int pageSize, String sortField, boolean descend, Map<String, Object> filters, FetchPlan fetch)
+    {
+        return new AsyncResult<List<T>>(findFilteredRange(first, pageSize, sortField, descend, filters, fetch));
+    }
+
+    /**
+     * Function retrieves page of entities placed after the row described by key (keyset pagination).
+     * Database does not walk through the previous rows so deep pages cost the same as the first one.
+     * @param after - key of the last row of the previous page, see {@link #getSeekKey(BaseEntity, String)}
+     * @param pageSize - page size
+     * @param sortField - field to sort by, it must be the same as was used to create key
+     * @param descend - flag indicates sort direction
+     * @param filters - map of filters
+     * @return list of entities
+     */
+    public List<T> findFilteredRange(SeekKey after, int pageSize, String sortField, boolean descend, Map<String, Object> filters)
+    {
+        return findFilteredRange(after, pageSize, sortField, descend, filters, null);
+    }
+
+    /**
+     * Function retrieves page of entities placed after the row described by key together with
+     * relations described by fetch plan
+     * @param after - key of the last row of the previous page, see {@link #getSeekKey(BaseEntity, String)}
+     * @param pageSize - page size
+     * @param sortField - field to sort by, it must be the same as was used to create key
+     * @param descend - flag indicates sort direction
+     * @param filters - map of filters
+     * @param fetch - relations to load with the page or null
+     * @return list of entities
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> findFilteredRange(SeekKey after, int pageSize, String sortField, boolean descend, Map<String, Object> filters, FetchPlan fetch)
+    {
+        checkSeekKey(after, sortField);
+
+        Query q = createFilteredQuery(getReadEntityManager(), after, sortField, descend, filters, fetch);
+        q.setMaxResults(pageSize);
+        return q.getResultList();
+    }
+
+    /**
+     * Function streams all filtered and sorted entities to the handler. Entities are read by
+     * scrollable cursor, JDBC driver fetches them by <code>fetchSize</code> rows and persistence
+     * context is cleared after each fetch, so memory usage does not depend on the count of rows.
+     * Entities are read only, they must not be changed by handler
+     * @param sortField - field to sort by
+     * @param descend - flag indicates sort direction
+     * @param filters - map of filters
+     * @param fetchSize - count of rows fetched by one round trip
+     * @param handler - callback which receives entities
+     * @return count of entities passed to the handler
+     */
+    @SuppressWarnings("unchecked")
+    public int findFilteredStream(String sortField, boolean descend, Map<String, Object> filters, int fetchSize, RowHandler<? super T> handler)
+    {
+        if (fetchSize <= 0)
+            throw (new IllegalArgumentException("Fetch size must be positive: " + fetchSize));
+
+        Query q = createFilteredQuery(getEntityManager(), null, sortField, descend, filters, null);
+        q.setHint(QueryHints.SCROLLABLE_CURSOR, HintValues.TRUE);
+        q.setHint(QueryHints.JDBC_FETCH_SIZE, fetchSize);
+        q.setHint(QueryHints.READ_ONLY, HintValues.TRUE);
+
+        int count = 0;
+        ScrollableCursor cursor = (ScrollableCursor) q.getSingleResult();
+        try {
+            while (cursor.hasNext()) {
+                T entity = (T) cursor.next();
+                count++;
+                if (!handler.handle(entity))
+                    break;
+
+                /*
+                 * Release rows of the processed fetch
+                 */
+                if (count % fetchSize == 0) {
+                    cursor.clear();
+                    getEntityManager().clear();
+                }
+            }
+        }
+        catch (RuntimeException ex) {
+            throw ex;
+        }
+        catch (Exception ex) {
+            throw (new EJBException(ex));
+        }
+        finally {
+            cursor.close();
+        }
+
+        return count;
+    }
+
+    /**
+     * Function checks if key of the previous page matches sort field
+     * @param after - key of the last row of the previous page
+     * @param sortField - field to sort by
+     */
+    protected void checkSeekKey(SeekKey after, String sortField)
+    {
+        String attribute = getSortAttribute(sortField);
+        if (!isSeekable(sortField) || (attribute == null ? after.getSortField() != null : !attribute.equals(after.getSortField())))
+            throw (new IllegalArgumentException("Key " + after + " does not match sort field " + sortField));
+    }
+
+    /**
+     * Function creates query plan for this entity class
+     * @param kind - kind of the query (select, count etc.)
+     * @param shape - query shape
+     * @return query plan
+     */
+    protected QueryPlan createPlan(String kind, String shape)
+    {
+        return new QueryPlan(entityClass.getName() + '|' + kind + '|' + shape);
+    }
+
+    /**
+     * Function creates query plan for the entity manager chosen by {@link #getReadEntityManager()}.
+     * Queries of the read-only unit are compiled separately and return read-only objects
+     * which are not tracked for changes
+     * @param em - entity manager which executes query
+     * @param kind - kind of the query (select, count etc.)
+     * @param shape - query shape
+     * @return query plan
+     */
+    protected QueryPlan createPlan(EntityManager em, String kind, String shape)
+    {
+        if (em == getEntityManager())
+            return createPlan(kind, shape);
+
+        QueryPlan plan = createPlan(kind, NamingConstants.READ_ONLY_UNIT + '|' + shape);
+        plan.addHint(QueryHints.READ_ONLY, HintValues.TRUE);
+        return plan;
+    }
+
+    /**
+     * Function creates query to select filtered and sorted entities. Criteria query is built
+     * only when compiled query of the same shape is not found
+     * @param em - entity manager which executes query
+     * @param after - key of the last row of the previous page or null if offset is used
+     * @param sortField - field to sort by
+     * @param descend - flag indicates sort direction
+     * @param filters - map of filters
+     * @param fetch - relations to load with the page or null
+     * @return query
+     */
+    private Query createFilteredQuery(EntityManager em, SeekKey after, String sortField, boolean descend, Map<String, Object> filters, FetchPlan fetch)
+    {
+        List<FilterTerm> terms = compileFilters(filters);
+        return createFilteredQuery(em, terms, extractProjectedTerms(terms), after, sortField, descend, fetch);
+    }
+
+    /**
+     * Function creates query to select sorted entities filtered by compiled terms
+     * @param em - entity manager which executes query
+     * @param terms - filter terms, see {@link #compileFilters(Map)}
+     * @param projected - projected terms, see {@link #extractProjectedTerms(List)}
+     * @param after - key of the last row of the previous page or null if offset is used
+     * @param sortField - field to sort by
+     * @param descend - flag indicates sort direction
+     * @param fetch - relations to load with the page or null
+     * @return query
+     */
+    private Query createFilteredQuery(EntityManager em, List<FilterTerm> terms, List<FilterTerm> projected, SeekKey after, String sortField, boolean descend, FetchPlan fetch)
+    {
+        QueryPlan plan = createPlan(em, "select", getShape(terms) + '|' + getShape(projected) + '|' + getSortShape(sortField, descend) + '|' + getSeekShape(after) + '|' + FetchPlan.getShape(fetch));
+        addValues(plan, terms);
+        addSeekValues(plan, after);
+        addValues(plan, projected);
+
+        Query q = plan.createQuery(em);
+        if (q != null)
+            return q;
+
+        CriteriaBuilder builder = em.getCriteriaBuilder();
+        CriteriaQuery<T> cq = builder.createQuery(entityClass);
+        Root<T> from = cq.from(entityClass);
+        cq.select(from);
+
+        setFilteredWhere(cq, builder, from, terms, after, descend, plan);
+        setOrderBy(cq, builder, from, sortField, descend, plan);
+        addProjectionFilter(plan, projected);
+        if (fetch != null)
+            fetch.apply(plan);
+
+        return plan.createQuery(em, cq);
+    }
+
+    /**
+     * Function sets where clause of filtered query. The same predicates are used
+     * by page and count queries
+     * @param cq - criteria query
+     * @param builder - criteria query builder
+     * @param from - root object
+     * @param terms - filter terms
+     * @param after - key of the last row of the previous page or null
+     * @param descend - flag indicates sort direction
+     * @param plan - query plan used to create parameters
+     */
+    @SuppressWarnings("rawtypes")
+    private void setFilteredWhere(CriteriaQuery cq, CriteriaBuilder builder, Root<T> from, List<FilterTerm> terms, SeekKey after, boolean descend, QueryPlan plan)
+    {
+        List<Predicate> predicates = new ArrayList<Predicate>();
+        addSimpleFilter (cq, builder, from, terms, plan, predicates);
+
+        if (after != null)
+            predicates.add(getSeekPredicate(builder, from, after, descend, plan));
+
+        if (!predicates.isEmpty())
+            cq.where(predicates.toArray(new Predicate[predicates.size()]));
+    }
+
+    /**
+     * Function retrieves page of filtered entities together with count of all filtered entities
+     * in one call. Filters are compiled once and both statements are built from the same terms.
+     * Count statement is not executed when the count is cached or the page is the last one,
+     * in this case total count is calculated from the page position.
+     * @param first - first row number
+     * @param after - key of the last row of the previous page or null to use offset
+     * @param pageSize - page size
+     * @param sortField - field to sort by
+     * @param descend - flag indicates sort direction
+     * @param filters - map of filters
+     * @return page of entities
+     */
+    public FilteredPage<T> findFilteredPage(int first, SeekKey after, int pageSize, String sortField, boolean descend, Map<String, Object> filters)
+    {
+        return findFilteredPage(first, after, pageSize, sortField, descend, filters, null);
+    }
+
+    /**
+     * Function retrieves page of filtered entities together with count of all filtered entities
+     * and relations described by fetch plan
+     * @param first - first row number
+     * @param after - key of the last row of the previous page or null to use offset
+     * @param pageSize - page size
+     * @param sortField - field to sort by
+     * @param descend - flag indicates sort direction
+     * @param filters - map of filters
+     * @param fetch - relations to load with the page or null
+     * @return page of entities
+     */
+    @SuppressWarnings("unchecked")
+    public FilteredPage<T> findFilteredPage(int first, SeekKey after, int pageSize, String sortField, boolean descend, Map<String, Object> filters, FetchPlan fetch)
+    {
+        if (after != null)
+            checkSeekKey(after, sortField);
+
+        EntityManager em = getReadEntityManager();
+        List<FilterTerm> terms = compileFilters(filters);
+        List<FilterTerm> projected = extractProjectedTerms(terms);
+
+        Query q = createFilteredQuery(em, terms, projected, after, sortField, descend, fetch);
+        if (after == null)
+            q.setFirstResult(first);
+        q.setMaxResults(pageSize);
+        List<T> rows = q.getResultList();
+
+        int total;
+        if ((!rows.isEmpty() && rows.size() < pageSize) || (first == 0 && rows.isEmpty()))
+            total = first + rows.size();
+        else
+            total = countPage(em, filters, terms, projected);
+
+        SeekKey nextKey = rows.isEmpty() ? null : getSeekKey(rows.get(rows.size() - 1), sortField);
+        return new FilteredPage<T>(rows, total, nextKey);
+    }
+
+    /**
+     * Function retrieves page of filtered rows in projection mode together with count of all
+     * filtered rows. See {@link #findProjectedRange(int, SeekKey, int, String, boolean, Map, List)}
+     * @param first - first row number
+     * @param after - key of the last row of the previous page or null to use offset
+     * @param pageSize - page size
+     * @param sortField - field to sort by
+     * @param descend - flag indicates sort direction
+     * @param filters - map of filters
+     * @param paths - paths to select
+     * @return page of rows
+     */
+    public FilteredPage<ProjectedRow> findProjectedPage(int first, SeekKey after, int pageSize, String sortField, boolean descend, Map<String, Object> filters, List<String> paths)
+    {
+        List<FilterTerm> terms = compileFilters(filters);
+        List<FilterTerm> projected = extractProjectedTerms(terms);
+        List<ProjectedRow> rows = findProjectedRange(first, after, pageSize, sortField, descend, terms, projected, paths);
+
+        int total;
+        if ((!rows.isEmpty() && rows.size() < pageSize) || (first == 0 && rows.isEmpty()))
+            total = first + rows.size();
+        else
+            total = countPage(getEntityManager(), filters, terms, projected);
+
+        SeekKey nextKey = rows.isEmpty() ? null : getSeekKey(rows.get(rows.size() - 1), sortField);
+        return new FilteredPage<ProjectedRow>(rows, total, nextKey);
+    }
+
+    /**
+     * Function retrieves page of filtered rows in projection mode. Only listed paths are selected
+     * by one tuple query, external attributes of the page rows are selected by one additional query.
+     * Rows are not managed by persistence context and do not hold entities, so they are cheap to
+     * load and to keep in the view state. Paths could be:
+     * <ul>
+     * <li>entity attributes, e.g. <code>name</code>
+     * <li>attributes of the related entity (single join only), e.g. <code>model.name</code>
+     * <li>external attributes, e.g. <code>attributes['Price']</code>
+     * </ul>
+     * Paths which do not point to basic attributes are ignored, identifier is always selected
+     * @param first - first row number, it is ignored when key is set
+     * @param after - key of the last row of the previous page or null to use offset
+     * @param pageSize - page size
+     * @param sortField - field to sort by
+     * @param descend - flag indicates sort direction
+     * @param filters - map of filters
+     * @param paths - paths to select
+     * @return list of rows
+     */
+    public List<ProjectedRow> findProjectedRange(int first, SeekKey after, int pageSize, String sortField, boolean descend, Map<String, Object> filters, List<String> paths)
+    {
+        List<FilterTerm> terms = compileFilters(filters);
+        return findProjectedRange(first, after, pageSize, sortField, descend, terms, extractProjectedTerms(terms), paths);
+    }
+
+    /**
+     * Function retrieves page of rows in projection mode filtered by compiled terms
+     * @param first - first row number, it is ignored when key is set
+     * @param after - key of the last row of the previous page or null to use offset
+     * @param pageSize - page size
+     * @param sortField - field to sort by
+     * @param descend - flag indicates sort direction
+     * @param terms - filter terms, see {@link #compileFilters(Map)}
+     * @param projected - projected terms, see {@link #extractProjectedTerms(List)}
+     * @param paths - paths to select
+     * @return list of rows
+     */
+    @SuppressWarnings("unchecked")
+    private List<ProjectedRow> findProjectedRange(int first, SeekKey after, int pageSize, String sortField, boolean descend, List<FilterTerm> terms, List<FilterTerm> projected, List<String> paths)
     {
-        Subquery<A> subquery = cq.subquery(attributesClass);
-        Root fromAttr = subquery.from(attributesClass);
+        if (after != null)
+            checkSeekKey(after, sortField);
 
-        subquery.select(fromAttr.get(joinColumn).get(NamingConstants.ID));
-        subquery.groupBy(fromAttr.get(joinColumn).get(NamingConstants.ID));
-        subquery.having(builder.equal(builder.count(fromAttr.get(joinColumn).get(NamingConstants.ID)), attributesFilter.size()));
+        List<String> columns = new ArrayList<String>();
+        List<String> attrNames = new ArrayList<String>();
+        for (String path : paths) {
+            path = path.replace("wrappedObject.", "").trim();
+            if (path.startsWith(NamingConstants.ATTRIBUTES + "[")) {
+                String attrName = path.substring(path.indexOf('[')+2, path.indexOf(']')-1);
+                if (!attrNames.contains(attrName))
+                    attrNames.add(attrName);
+            }
+            else if (!columns.contains(path) && !NamingConstants.ID.equals(path) && isBasicPath(path)) {
+                columns.add(path);
+            }
+        }
 
-        Predicate wherePredicates = null;
+        QueryPlan plan = createPlan("project", getShape(terms) + '|' + getShape(projected) + '|' + getSortShape(sortField, descend) + '|' + getSeekShape(after) + "|cols:" + columns);
+        addValues(plan, terms);
+        addSeekValues(plan, after);
+        addValues(plan, projected);
 
-        for (Object a : attributesFilter) {
-            if (!(a instanceof AbstractAttribute))
-                continue;
+        Query q = plan.createQuery(getEntityManager());
+        if (q == null) {
+            CriteriaBuilder builder = getEntityManager().getCriteriaBuilder();
+            CriteriaQuery<Object[]> cq = builder.createQuery(Object[].class);
+            Root<T> from = cq.from(entityClass);
 
-            AbstractAttribute attr = (AbstractAttribute)a;
-            Predicate pp = null;
-            switch (attr.getDataType()) {
-                case STRING:
-                    pp = builder.and (
-                            builder.equal(fromAttr.get(NamingConstants.NAME), attr.getName()),
-                            builder.equal(
-                                    fromAttr.get(NamingConstants.STRING_VALUE), 
-                                    attr.getStringValue())
-                        );
-                    break;
-                    
-                case NUMBER:
-                    pp = builder.and (
-                            builder.equal(fromAttr.get(NamingConstants.NAME), attr.getName()),
-                            builder.equal(
-                                    fromAttr.get(NamingConstants.NUMBER_VALUE), 
-                                    attr.getNumberValue())
-                        );
-                    break;
-                    
-                case DATE:
-                    pp = builder.and (
-                            builder.equal(fromAttr.get(NamingConstants.NAME), attr.getName()),
-                            builder.equal(
-                                    fromAttr.get(NamingConstants.DATE_VALUE),
-                                    attr.getDateValue())
-                        );
-                    break;
+            setFilteredWhere(cq, builder, from, terms, after, descend, plan);
+            setOrderBy(cq, builder, from, sortField, descend, plan);
+
+            List<Selection<?>> selections = new ArrayList<Selection<?>>();
+            selections.add(from.get(NamingConstants.ID));
+            for (String column : columns) {
+                selections.add(getProjectedPath(from, column));
             }
-            
-            if (pp == null) 
-                continue;
 
-            if (wherePredicates == null)
-                wherePredicates = pp;
-            else
-                wherePredicates = builder.or(wherePredicates, pp);
+            cq.multiselect(selections);
+
+            addProjectionFilter(plan, projected);
+            q = plan.createQuery(getEntityManager(), cq);
         }
-        
-        subquery.where(wherePredicates);
-        preList.add(builder.in(from.get(NamingConstants.ID)).value(subquery));
+
+        if (after == null)
+            q.setFirstResult(first);
+        q.setMaxResults(pageSize);
+
+        List<ProjectedRow> rows = new ArrayList<ProjectedRow>();
+        Map<Long, ProjectedRow> rowsById = new HashMap<Long, ProjectedRow>();
+        for (Object[] tuple : (List<Object[]>) q.getResultList()) {
+            ProjectedRow row = new ProjectedRow((Long) tuple[0]);
+            for (int i = 0; i < columns.size(); i++) {
+                row.setValue(columns.get(i), tuple[i+1]);
+            }
+
+            rows.add(row);
+            rowsById.put(row.getId(), row);
+        }
+
+        if (!rows.isEmpty() && !attrNames.isEmpty())
+            addProjectedAttributes(rowsById, attrNames);
+
+        return rows;
     }
 
     /**
-     * Function used to create new entity on <T> type
-     * @param entity - entity to create
+     * Function checks if path points to basic attribute of the entity or of the related entity
+     * @param path - path relative to the entity
+     * @return true if path could be selected in projection mode
      */
-    public void create(T entity)
+    protected boolean isBasicPath (String path)
     {
+        String[] fields = path.split("\\.");
+        if (fields.length > 2)
+            return false;
+
         try {
-            boolean isOwnTran = EJBUtils.beginTransaction(getUserTransaction());
-            getEntityManager().persist(entity);
-            EJBUtils.commit(getUserTransaction(), isOwnTran);
+            Attribute<?, ?> attr = getEntityManager().getMetamodel().entity(entityClass).getAttribute(fields[0]);
+            if (fields.length == 2) {
+                if (attr.getPersistentAttributeType() != Attribute.PersistentAttributeType.MANY_TO_ONE
+                        && attr.getPersistentAttributeType() != Attribute.PersistentAttributeType.ONE_TO_ONE)
+                    return false;
+
+                attr = getEntityManager().getMetamodel().entity(attr.getJavaType()).getAttribute(fields[1]);
+            }
+
+            return attr.getPersistentAttributeType() == Attribute.PersistentAttributeType.BASIC;
         }
-        catch (Exception ex) {
-            throw (new EJBException(ex));
+        catch (IllegalArgumentException ex) {
+            return false;
         }
     }
 
     /**
-     * Function used to merge entity
-     * @param entity - entity to merge
+     * Function creates path of the selected column. Joins created by sorting are reused
+     * @param from - root object
+     * @param column - path relative to the entity
+     * @return path
      */
-    public void merge(T entity)
+    @SuppressWarnings("rawtypes")
+    protected Path<?> getProjectedPath (Root<T> from, String column)
     {
-        try {
-            boolean isOwnTran = EJBUtils.beginTransaction(getUserTransaction());
-            getEntityManager().merge(entity);
-            EJBUtils.commit(getUserTransaction(), isOwnTran);
-        }
-        catch (Exception ex) {
-            throw (new EJBException(ex));
+        if (column.indexOf('.') == -1)
+            return from.get(column);
+
+        String[] fields = column.split("\\.");
+        Join relation = null;
+        for (Join<T, ?> join : from.getJoins()) {
+            if (join.getAttribute().getName().equals(fields[0]) && join.getJoinType() == JoinType.LEFT) {
+                relation = join;
+                break;
+            }
         }
+
+        if (relation == null)
+            relation = from.join(fields[0], JoinType.LEFT);
+
+        return relation.get(fields[1]);
     }
 
     /**
-     * Function removes entity
-     * @param entity - entity to remove
+     * Function loads external attributes of the projected rows by one query. Attributes
+     * are created as new objects, they are not managed by persistence context
+     * @param rows - projected rows by identifier
+     * @param names - names of the attributes to load
      */
-    public void remove(T entity)
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    protected void addProjectedAttributes (Map<Long, ProjectedRow> rows, List<String> names)
     {
+        CriteriaBuilder builder = getEntityManager().getCriteriaBuilder();
+        CriteriaQuery<Object[]> cq = builder.createQuery(Object[].class);
+        Root fromAttr = cq.from(attributesClass);
+        Path parentId = fromAttr.get(NamingConstants.PARENT).get(NamingConstants.ID);
+        Path name = fromAttr.get(NamingConstants.NAME);
+        cq.multiselect(
+                parentId,
+                name,
+                fromAttr.get(NamingConstants.DATA_TYPE),
+                fromAttr.get(NamingConstants.STRING_VALUE),
+                fromAttr.get(NamingConstants.NUMBER_VALUE),
+                fromAttr.get(NamingConstants.DATE_VALUE));
+
+        CriteriaBuilder.In parentIn = builder.in(parentId);
+        for (Long id : rows.keySet()) {
+            parentIn.value(id);
+        }
+
+        CriteriaBuilder.In nameIn = builder.in(name);
+        for (String attrName : names) {
+            nameIn.value(attrName);
+        }
+
+        cq.where(parentIn, nameIn);
+
         try {
-            boolean isOwnTran = EJBUtils.beginTransaction(getUserTransaction());
-            getEntityManager().remove(getEntityManager().merge(entity));
-            EJBUtils.commit(getUserTransaction(), isOwnTran);
+            for (Object[] tuple : getEntityManager().createQuery(cq).getResultList()) {
+                A attribute = attributesClass.newInstance();
+                attribute.setName((String) tuple[1]);
+                DataType dataType = (DataType) tuple[2];
+                if (dataType == DataType.STRING)
+                    attribute.setStringValue((String) tuple[3]);
+                else if (dataType == DataType.NUMBER)
+                    attribute.setNumberValue((Number) tuple[4]);
+                else if (dataType == DataType.DATE)
+                    attribute.setDateValue((Date) tuple[5]);
+                else
+                    attribute.setDataType(dataType);
+
+                rows.get((Long) tuple[0]).addAttribute(attribute);
+            }
         }
-        catch (Exception ex) {
+        catch (InstantiationException ex) {
+            throw (new EJBException(ex));
+        }
+        catch (IllegalAccessException ex) {
             throw (new EJBException(ex));
         }
     }
 
     /**
-     * Function find entity by primary key
-     * @param id - primary key object
-     * @return found entity
+     * Function retrieves count of rows for entities. Result set was pre-filtered using map of filters
+     * @param filters - map of filters
+     * @return count rows
      */
-    public T find(Object id)
+    public int countFiltered(Map<String, ?> filters)
     {
-        return getEntityManager().find(entityClass, id);
+        Integer count = getCountCache().get(getCountKey(filters));
+        if (count != null)
+            return count;
+
+        List<FilterTerm> terms = compileFilters(filters);
+        return countFiltered(getReadEntityManager(), getCountKey(filters), terms, extractProjectedTerms(terms));
     }
 
     /**
-     * Function find all entities
-     * @return list of entities
+     * Function retrieves count of all filtered rows of the page from the cache or by
+     * count statement built from the same terms as page query
+     * @param em - entity manager which executes query
+     * @param filters - map of filters
+     * @param terms - filter terms
+     * @param projected - projected terms
+     * @return count rows
      */
-    public List<T> findAll()
+    private int countPage(EntityManager em, Map<String, ?> filters, List<FilterTerm> terms, List<FilterTerm> projected)
     {
-        CriteriaQuery<T> cq = getEntityManager().getCriteriaBuilder().createQuery(entityClass);
-        cq.select(cq.from(entityClass));
-        return getEntityManager().createQuery(cq).getResultList();
+        String key = getCountKey(filters);
+        Integer count = getCountCache().get(key);
+        return count != null ? count : countFiltered(em, key, terms, projected);
     }
 
     /**
-     * Function retrieves list of entities from database. It uses sorting, filtering and paging to do this.
-     * @param first - first row number
-     * @param pageSize - page size
-     * @param sortField - field to sort by
-     * @param descend - flag indicates sort direction
+     * Function creates key of the count cache for the map of filters
      * @param filters - map of filters
-     * @return list of entities
+     * @return key
      */
-    @SuppressWarnings("unchecked")
-    public List<T> findFilteredRange(int first, int pageSize, String sortField, boolean descend, Map<String, Object> filters)
+    private String getCountKey(Map<String, ?> filters)
     {
-        CriteriaBuilder builder = getEntityManager().getCriteriaBuilder();
-        CriteriaQuery<T> cq = builder.createQuery(entityClass);
-        Root<T> from = cq.from(entityClass);
-        cq.select(from);
-
-        if (filters != null && !filters.isEmpty()) {
-            List<Predicate> predicates = new ArrayList<Predicate>();
-            addSimpleFilter (cq, builder, from, filters, predicates);
-            cq.where(predicates.toArray(new Predicate[predicates.size()]));
-        }
-
-        if (sortField != null && !sortField.isEmpty())
-            setOrderBy(cq, builder, from, sortField, descend);
-
-        Query q = getEntityManager().createQuery(cq);
-        q.setMaxResults(pageSize);
-        q.setFirstResult(first);
-        return q.getResultList();
+        return "S|" + getFilterSignature(filters);
     }
 
     /**
-     * Function retrieves count of rows for entities. Result set was pre-filtered using map of filters
-     * @param filters - map of filters
+     * Function executes count statement for compiled terms and stores result in the count cache,
+     * caller must check the cache before
+     * @param em - entity manager which executes query
+     * @param key - key of the count cache, see {@link #getCountKey(Map)}
+     * @param terms - filter terms, see {@link #compileFilters(Map)}
+     * @param projected - projected terms, see {@link #extractProjectedTerms(List)}
      * @return count rows
      */
     @SuppressWarnings({ "rawtypes", "unchecked" })
-    public int countFiltered(Map<String, ?> filters)
+    private int countFiltered(EntityManager em, String key, List<FilterTerm> terms, List<FilterTerm> projected)
     {
-        CriteriaBuilder builder = getEntityManager().getCriteriaBuilder();
-        CriteriaQuery cq = builder.createQuery();
-        Root<T> from = cq.from(entityClass);
-        cq.select(builder.count(from));
+        BoundedCache<String, Integer> cache = getCountCache();
+        long generation = cache.getGeneration();
+        QueryPlan plan = createPlan(em, "count", getShape(terms) + '|' + getShape(projected));
+        addValues(plan, terms);
+        addValues(plan, projected);
 
-        if (filters != null && !filters.isEmpty()) {
-            List<Predicate> predicates = new ArrayList<Predicate>();
-            addSimpleFilter (cq, builder, from, filters, predicates);
-            cq.where(predicates.toArray(new Predicate[predicates.size()]));
+        Query q = plan.createQuery(em);
+        if (q == null) {
+            CriteriaBuilder builder = em.getCriteriaBuilder();
+            CriteriaQuery cq = builder.createQuery();
+            Root<T> from = cq.from(entityClass);
+            cq.select(builder.count(from));
+            setFilteredWhere(cq, builder, from, terms, null, false, plan);
+            addProjectionFilter(plan, projected);
+            q = plan.createQuery(em, cq);
         }
 
-        Query q = getEntityManager().createQuery(cq);
-        return ((Long) q.getSingleResult()).intValue();
+        int count = ((Long) q.getSingleResult()).intValue();
+        cache.put(key, count, generation);
+        return count;
     }
 
     /**
@@ -507,6 +2688,17 @@ public abstract class AbstractFacade<T extends BaseEntity, A extends AbstractAtt
         return countFiltered(null);
     }
 
+    /**
+     * Function counts entities in the container thread, so caller could run other queries
+     * meanwhile. Method is asynchronous only when called through the EJB reference
+     * @return future count of entities
+     */
+    @Asynchronous
+    public Future<Integer> countAsync()
+    {
+        return new AsyncResult<Integer>(count());
+    }
+
     /**
      * Refresh entity. Reload it from database and overwrite all changes made on it if exists
      * @param entity - entity to refresh
@@ -557,37 +2749,100 @@ public abstract class AbstractFacade<T extends BaseEntity, A extends AbstractAtt
                                           List attributesFilter,
                                           String joinColumn)
     {
-        CriteriaBuilder builder = getEntityManager().getCriteriaBuilder();
+        return findExtendedFilteredRange(first, pageSize, sortField, descend, filters, attributesFilter, joinColumn, AttributeFilterStrategy.AUTO);
+    }
 
-        CriteriaQuery<T> cq = builder.createQuery(entityClass);
-        Root<T> fromEntity = cq.from(entityClass);
-        cq.select(fromEntity);
-        
-        List<Predicate> predicates = new ArrayList<Predicate>();
-        /*
-        * Add Subquery predicate
-        */
-        addAttributeFilter(cq, builder, fromEntity, attributesFilter, joinColumn, predicates);
+    /**
+     * Function find range of entities filtered by simple filters and external attributes using
+     * desired strategy of the attribute filtration
+     * @param first - first row number
+     * @param pageSize - page size
+     * @param sortField - field to sort with
+     * @param descend - filter direction
+     * @param filters - simple filters list
+     * @param attributesFilter - attributes metadata with names and values which will be used to make additional filter
+     * @param joinColumn - column used to join between attribute and container class
+     * @param strategy - attribute filter strategy
+     * @return list of selected entities
+     */
+    public List<T> findExtendedFilteredRange (int first, int pageSize, 
+                                          String sortField, boolean descend, 
+                                          Map<String, Object> filters,
+                                          List attributesFilter,
+                                          String joinColumn,
+                                          AttributeFilterStrategy strategy)
+    {
+        return findExtendedFilteredRange(first, pageSize, sortField, descend, filters, attributesFilter, joinColumn, strategy, null);
+    }
+
+    /**
+     * Function find range of entities filtered by simple filters and external attributes together
+     * with relations described by fetch plan
+     * @param first - first row number
+     * @param pageSize - page size
+     * @param sortField - field to sort with
+     * @param descend - filter direction
+     * @param filters - simple filters list
+     * @param attributesFilter - attributes metadata with names and values which will be used to make additional filter
+     * @param joinColumn - column used to join between attribute and container class
+     * @param strategy - attribute filter strategy
+     * @param fetch - relations to load with the page or null
+     * @return list of selected entities
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> findExtendedFilteredRange (int first, int pageSize, 
+                                          String sortField, boolean descend, 
+                                          Map<String, Object> filters,
+                                          List attributesFilter,
+                                          String joinColumn,
+                                          AttributeFilterStrategy strategy,
+                                          FetchPlan fetch)
+    {
+        List<FilterTerm> attrTerms = compileAttributesFilter(attributesFilter);
+        List<FilterTerm> terms = compileFilters(filters);
+        List<FilterTerm> projected = getProjectedTerms(attrTerms, terms, joinColumn, strategy);
+        strategy = chooseAttributeFilterStrategy(attrTerms, strategy);
+        QueryPlan plan = createPlan("xselect", joinColumn + '|' + strategy + '|' + getShape(attrTerms) + '|' + getShape(terms) + '|' + getShape(projected) + '|' + getSortShape(sortField, descend) + '|' + FetchPlan.getShape(fetch));
+        addValues(plan, attrTerms);
+        addValues(plan, terms);
+        addValues(plan, projected);
+
+        Query q = plan.createQuery(getEntityManager());
+        if (q == null) {
+            CriteriaBuilder builder = getEntityManager().getCriteriaBuilder();
+
+            CriteriaQuery<T> cq = builder.createQuery(entityClass);
+            Root<T> fromEntity = cq.from(entityClass);
+            cq.select(fromEntity);
+
+            List<Predicate> predicates = new ArrayList<Predicate>();
+            /*
+            * Add Subquery predicate
+            */
+            addAttributeFilter(cq, builder, fromEntity, attrTerms, joinColumn, strategy, plan, predicates);
 
-        if (filters != null && !filters.isEmpty()) {
             /*
             * Add other filters
             */
-            addSimpleFilter (cq, builder, fromEntity, filters, predicates);
-        }
+            addSimpleFilter (cq, builder, fromEntity, terms, plan, predicates);
 
-        /*
-         * Set where clause for query
-         */
-        cq.where(predicates.toArray(new Predicate[predicates.size()]));
-         
-        /*
-         * Set sorting clause
-         */
-        if (sortField != null && !sortField.isEmpty())
-            setOrderBy(cq, builder, fromEntity, sortField, descend);
+            /*
+             * Set where clause for query
+             */
+            if (!predicates.isEmpty())
+                cq.where(predicates.toArray(new Predicate[predicates.size()]));
+
+            /*
+             * Set sorting clause
+             */
+            setOrderBy(cq, builder, fromEntity, sortField, descend, plan);
+            addProjectionFilter(plan, projected);
+            if (fetch != null)
+                fetch.apply(plan);
+
+            q = plan.createQuery(getEntityManager(), cq);
+        }
 
-        Query q = getEntityManager().createQuery(cq);
         q.setMaxResults(pageSize);
         q.setFirstResult(first);
         return q.getResultList();
@@ -602,58 +2857,250 @@ public abstract class AbstractFacade<T extends BaseEntity, A extends AbstractAtt
      */
     public int countExtendedFiltered(Map<String, Object> filters, List attributesFilter, String joinColumn)
     {
-        CriteriaBuilder builder = getEntityManager().getCriteriaBuilder();
-        CriteriaQuery cq = builder.createQuery();
-        Root<T> from = cq.from(entityClass);
-        cq.select(builder.count(from));
+        return countExtendedFiltered(filters, attributesFilter, joinColumn, AttributeFilterStrategy.AUTO);
+    }
 
-        /*
-        * Add Subquery predicate
-        */
-        List<Predicate> predicates = new ArrayList<Predicate>();
-        addAttributeFilter(cq, builder, from, attributesFilter, joinColumn, predicates);
-        
-        /*
-         * Set where clause for query
-         */
-        if (filters != null && !filters.isEmpty()) {
-            addSimpleFilter (cq, builder, from, filters, predicates);
+    /**
+     * Calculates count of the entities using desired strategy of the attribute filtration
+     * @param filters - simple filter
+     * @param attributesFilter - extendsed filter by external attributes
+     * @param joinColumn - column used to join between attribute and container class
+     * @param strategy - attribute filter strategy
+     * @return count of filtered entities
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public int countExtendedFiltered(Map<String, Object> filters, List attributesFilter, String joinColumn, AttributeFilterStrategy strategy)
+    {
+        BoundedCache<String, Integer> cache = getCountCache();
+        String key = "E|" + joinColumn + '|' + getFilterSignature(filters) + '|' + getFilterSignature(attributesFilter);
+        Integer count = cache.get(key);
+        if (count != null)
+            return count;
+
+        long generation = cache.getGeneration();
+        List<FilterTerm> attrTerms = compileAttributesFilter(attributesFilter);
+        List<FilterTerm> terms = compileFilters(filters);
+        List<FilterTerm> projected = getProjectedTerms(attrTerms, terms, joinColumn, strategy);
+        strategy = chooseAttributeFilterStrategy(attrTerms, strategy);
+        QueryPlan plan = createPlan("xcount", joinColumn + '|' + strategy + '|' + getShape(attrTerms) + '|' + getShape(terms) + '|' + getShape(projected));
+        addValues(plan, attrTerms);
+        addValues(plan, terms);
+        addValues(plan, projected);
+
+        Query q = plan.createQuery(getEntityManager());
+        if (q == null) {
+            CriteriaBuilder builder = getEntityManager().getCriteriaBuilder();
+            CriteriaQuery cq = builder.createQuery();
+            Root<T> from = cq.from(entityClass);
+            cq.select(builder.count(from));
+
+            /*
+            * Add Subquery predicate
+            */
+            List<Predicate> predicates = new ArrayList<Predicate>();
+            addAttributeFilter(cq, builder, from, attrTerms, joinColumn, strategy, plan, predicates);
+            addSimpleFilter (cq, builder, from, terms, plan, predicates);
+
+            /*
+             * Set where clause for query
+             */
+            if (!predicates.isEmpty())
+                cq.where(predicates.toArray(new Predicate[predicates.size()]));
+
+            addProjectionFilter(plan, projected);
+            q = plan.createQuery(getEntityManager(), cq);
         }
-        
-        cq.where(predicates.toArray(new Predicate[predicates.size()]));
 
-        Query q = getEntityManager().createQuery(cq);
-        return ((Long) q.getSingleResult()).intValue();
+        count = ((Long) q.getSingleResult()).intValue();
+        cache.put(key, count, generation);
+        return count;
     }
 
     /**
      * get children entities by parent entity
-     * @param parent - parent entity
+     * @param parent - parent entity, null to get root entities
      * @return children
      */
+    @SuppressWarnings("unchecked")
     public List<T> findChildren(T parent)
     {
-        CriteriaQuery<T> cq = getEntityManager().getCriteriaBuilder().createQuery(entityClass);
-        Root<T> from = cq.from(entityClass);
-        cq.select(from);
-        cq.where(getEntityManager().getCriteriaBuilder().equal(from.get(NamingConstants.PARENT), parent));
-        return getEntityManager().createQuery(cq).getResultList();
+        /*
+         * Cache holds identifiers only, entities are taken from the second level cache
+         * of the primary unit. Read-only unit has no shared cache, there every find is a query
+         */
+        BoundedCache<Long, List<Long>> cache = getChildrenCache();
+        Long key = parent != null ? parent.getId() : ROOT_KEY;
+        List<Long> ids = cache.get(key);
+        if (ids != null) {
+            List<T> children = new ArrayList<T>(ids.size());
+            for (Long id : ids) {
+                T child = getEntityManager().find(entityClass, id);
+                if (child == null) {
+                    children = null;
+                    break;
+                }
+
+                children.add(child);
+            }
+
+            if (children != null)
+                return children;
+        }
+
+        long generation = cache.getGeneration();
+        EntityManager em = getReadEntityManager();
+        QueryPlan plan = createPlan(em, "children", parent == null ? "root" : "parent");
+        if (parent != null)
+            plan.addValue(parent);
+
+        Query q = plan.createQuery(em);
+        if (q == null) {
+            CriteriaBuilder builder = em.getCriteriaBuilder();
+            CriteriaQuery<T> cq = builder.createQuery(entityClass);
+            Root<T> from = cq.from(entityClass);
+            cq.select(from);
+            cq.where(getParentPredicate(builder, from, parent, plan));
+            q = plan.createQuery(em, cq);
+        }
+
+        List<T> children = q.getResultList();
+        ids = new ArrayList<Long>(children.size());
+        for (T child : children) {
+            ids.add(child.getId());
+        }
+
+        cache.put(key, Collections.unmodifiableList(ids), generation);
+        return children;
+    }
+
+    /**
+     * Function retrieves children entities in the container thread, see {@link #findChildren(BaseEntity)}.
+     * Method is asynchronous only when called through the EJB reference
+     * @param parent - parent entity, null to get root entities
+     * @return future children
+     */
+    @Asynchronous
+    public Future<List<T>> findChildrenAsync(T parent)
+    {
+        return new AsyncResult<List<T>>(findChildren(parent));
+    }
+    
+    /**
+     * Function loads one window of the children ordered by identifier. Next window
+     * starts after the last loaded child, so wide nodes are read by primary key index
+     * without offset scanning
+     * @param parent - parent entity, null to get root entities
+     * @param after - identifier of the last child of the previous window or null for the first window
+     * @param pageSize - maximum count of children
+     * @return children
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> findChildren(T parent, Long after, int pageSize)
+    {
+        EntityManager em = getReadEntityManager();
+        QueryPlan plan = createPlan(em, "childrenPage", (parent == null ? "root" : "parent") + (after == null ? "" : "|after"));
+        if (parent != null)
+            plan.addValue(parent);
+
+        if (after != null)
+            plan.addValue(after);
+
+        Query q = plan.createQuery(em);
+        if (q == null) {
+            CriteriaBuilder builder = em.getCriteriaBuilder();
+            CriteriaQuery<T> cq = builder.createQuery(entityClass);
+            Root<T> from = cq.from(entityClass);
+            Path<Long> id = from.get(NamingConstants.ID);
+            Predicate where = getParentPredicate(builder, from, parent, plan);
+            if (after != null)
+                where = builder.and(where, builder.greaterThan(id, plan.parameter(builder, Long.class)));
+
+            cq.select(from);
+            cq.where(where);
+            cq.orderBy(builder.asc(id));
+            q = plan.createQuery(em, cq);
+        }
+
+        q.setMaxResults(pageSize);
+        return q.getResultList();
     }
     
     /**
      * Retrieve count children
-     * @param parent- parent entity
+     * @param parent- parent entity, null to count root entities
      * @return children count
      */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
     public int countChildren(T parent)
     {
-        CriteriaQuery cq = getEntityManager().getCriteriaBuilder().createQuery(entityClass);
-        Root<T> from = cq.from(entityClass);
-        cq.select(getEntityManager().getCriteriaBuilder().count(from));
-        cq.where(getEntityManager().getCriteriaBuilder().equal(from.get(NamingConstants.PARENT), parent));
-        Query q = getEntityManager().createQuery(cq);
+        QueryPlan plan = createPlan("countChildren", parent == null ? "root" : "parent");
+        if (parent != null)
+            plan.addValue(parent);
+
+        Query q = plan.createQuery(getEntityManager());
+        if (q == null) {
+            CriteriaBuilder builder = getEntityManager().getCriteriaBuilder();
+            CriteriaQuery cq = builder.createQuery();
+            Root<T> from = cq.from(entityClass);
+            cq.select(builder.count(from));
+            cq.where(getParentPredicate(builder, from, parent, plan));
+            q = plan.createQuery(getEntityManager(), cq);
+        }
+
         return ((Long) q.getSingleResult()).intValue();
     }
+
+    /**
+     * Retrieve children count of several parents by one grouped query
+     * @param parents - parent entities
+     * @return children count by parent identifier, parents without children have zero count
+     */
+    public Map<Long, Integer> countChildren(Collection<T> parents)
+    {
+        Map<Long, Integer> counts = new HashMap<Long, Integer>();
+        List<Long> ids = new ArrayList<Long>(parents.size());
+        for (T parent : parents) {
+            if (parent != null && counts.put(parent.getId(), 0) == null)
+                ids.add(parent.getId());
+        }
+
+        /*
+         * Long lists are split to keep IN clause in the database limits
+         */
+        CriteriaBuilder builder = getEntityManager().getCriteriaBuilder();
+        for (int i = 0; i < ids.size(); i += MAX_BULK_IDS) {
+            List<Long> chunk = ids.subList(i, Math.min(i + MAX_BULK_IDS, ids.size()));
+            CriteriaQuery<Object[]> cq = builder.createQuery(Object[].class);
+            Root<T> from = cq.from(entityClass);
+            Path<Long> parentId = from.get(NamingConstants.PARENT).get(NamingConstants.ID);
+            cq.multiselect(parentId, builder.count(from));
+            cq.where(parentId.in(chunk));
+            cq.groupBy(parentId);
+
+            for (Object[] row : getEntityManager().createQuery(cq).getResultList()) {
+                counts.put((Long) row[0], ((Long) row[1]).intValue());
+            }
+        }
+
+        return counts;
+    }
+
+    /**
+     * Function creates predicate which selects children of the parent
+     * @param builder - criteria query builder
+     * @param from - root object
+     * @param parent - parent entity or null to select root entities
+     * @param plan - query plan used to create parameters
+     * @return predicate
+     */
+    protected Predicate getParentPredicate (CriteriaBuilder builder, Root<T> from, T parent, QueryPlan plan)
+    {
+        Path<T> parentPath = from.get(NamingConstants.PARENT);
+        if (parent == null)
+            return builder.isNull(parentPath);
+
+        return builder.equal(parentPath, plan.parameter(builder, entityClass));
+    }
     
     public boolean beginTransaction () throws SystemException, NotSupportedException
     {
@@ -0,0 +1,56 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2011 ASementsov.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jsf2jpa.ejbs;
+
+/**
+ * Strategies of the filtration by external attributes (entity-attribute-value tables).
+ *
+ * <br/>$LastChangedRevision:$
+ * <br/>$LastChangedDate:$
+ *
+ * @author ASementsov
+ */
+public enum AttributeFilterStrategy
+{
+    /**
+     * Strategy is chosen by facade using attribute statistics
+     */
+    AUTO,
+    /**
+     * One subquery with all (name, value) pairs joined by OR, grouped by entity
+     * and filtered by <code>HAVING COUNT = n</code>. Reads every matching attribute row
+     */
+    GROUP_BY,
+    /**
+     * Correlated <code>EXISTS</code> subquery per attribute, most selective attribute goes first.
+     * Good when no attribute is selective, database could stop at the first failed check
+     */
+    EXISTS,
+    /**
+     * Chain of <code>IN</code> subqueries which intersects entity identifiers. The innermost
+     * subquery filters by the most selective attribute, every next subquery checks only
+     * entities found by the previous one
+     */
+    INTERSECT
+}
@@ -0,0 +1,706 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2011 ASementsov.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jsf2jpa.ejbs;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.persistence.EntityManager;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+import org.eclipse.persistence.descriptors.ClassDescriptor;
+import org.eclipse.persistence.expressions.Expression;
+import org.eclipse.persistence.expressions.ExpressionBuilder;
+import org.eclipse.persistence.expressions.ExpressionOperator;
+import org.eclipse.persistence.internal.helper.ClassConstants;
+import org.eclipse.persistence.internal.helper.DatabaseField;
+import org.eclipse.persistence.jpa.JpaEntityManager;
+import org.eclipse.persistence.mappings.DatabaseMapping;
+import org.eclipse.persistence.mappings.OneToOneMapping;
+import org.eclipse.persistence.queries.DatabaseQuery;
+import org.eclipse.persistence.queries.ObjectLevelReadQuery;
+import org.eclipse.persistence.sessions.Session;
+import org.jsf2jpa.entities.AbstractAttribute;
+import org.jsf2jpa.entities.DataType;
+import org.jsf2jps.utils.NamingConstants;
+
+/**
+ * Class maintains pivoted projection of the external attributes. Projection is a wide table
+ * with one row per entity and one column per attribute name, e.g. for cars
+ * <code>
+ * CAR_ATTR_PV (PARENT_ID, A_PRICE_..., A_WEIGHT_..., ...)
+ * </code>
+ * Columns are discovered from attribute data and added when a new attribute name appears,
+ * every column is indexed. Facade refreshes rows of the modified entities in the same transaction,
+ * so filters by attributes could use single table predicates instead of subqueries on the
+ * attribute table. Rows are refreshed whenever projection table exists, even if this application
+ * instance has not built the projection, so instances which use it never see stale rows.
+ * <p>
+ * Columns are added by DDL in the writer's transaction. Queries use a new column only after
+ * this transaction is committed, if it is rolled back (DDL is transactional in Derby) the column
+ * does not exist and is added again by the next writer.
+ * <p>
+ * Projection is optional, it is used only when system property {@link #ENABLED_PROPERTY} is <code>true</code>.
+ *
+ * <br/>$LastChangedRevision:$
+ * <br/>$LastChangedDate:$
+ *
+ * @author ASementsov
+ */
+public class AttributeProjection
+{
+    /**
+     * Subversion revision number it will be changed automatically when commited
+     */
+    private static final String REV_NUMBER = "$Revision:$";
+
+    /**
+     * System property which enables attribute projections
+     */
+    public static final String  ENABLED_PROPERTY = "org.jsf2jpa.attributeProjection";
+    public static final String  PARENT_COLUMN = "PARENT_ID";
+    private static final String COLUMN_PREFIX = "A_";
+    private static final int    MAX_NAME_LENGTH = 18;
+    private static final int    STRING_LENGTH = 255;
+    private static final String REGISTRY_JNDI_NAME = "java:comp/TransactionSynchronizationRegistry";
+    /**
+     * Selector of the operator which selects projection column of the entity, it is not
+     * used by database platforms
+     */
+    private static final int    SORT_KEY_SELECTOR = 0x5056;
+
+    private final Class<?>                      entityClass;
+    private final Class<? extends AbstractAttribute> attributesClass;
+    private final String                        tableName;
+    private final String                        joinColumn;
+    /**
+     * Committed projection columns by attribute name, they could be used by queries
+     */
+    private final ConcurrentMap<String, String>     columns = new ConcurrentHashMap<String, String>();
+    private final ConcurrentMap<String, DataType>   types = new ConcurrentHashMap<String, DataType>();
+    private volatile boolean                    ready;
+    /**
+     * Projection table was found in database, it is never dropped by application
+     */
+    private volatile boolean                    tableExists;
+
+    /*
+     * Attribute table fields, they are resolved from EclipseLink descriptor
+     */
+    private String                              attributeTable;
+    private String                              parentField;
+    private String                              nameField;
+    private String                              typeField;
+    private Map<DataType, String>               valueFields;
+
+    /**
+     * Constructor
+     * @param entityClass - entity class
+     * @param attributesClass - entity attributes class
+     * @param joinColumn - column of base object in attribute object
+     * @param tableName - name of the projection table
+     */
+    public AttributeProjection(Class<?> entityClass, Class<? extends AbstractAttribute> attributesClass, String joinColumn, String tableName)
+    {
+        this.entityClass = entityClass;
+        this.attributesClass = attributesClass;
+        this.joinColumn = joinColumn;
+        this.tableName = tableName.toUpperCase();
+    }
+
+    /**
+     * Function checks if attribute projections are enabled
+     * @return true if projections are enabled
+     */
+    public static boolean isEnabled()
+    {
+        return Boolean.getBoolean(ENABLED_PROPERTY);
+    }
+
+    /**
+     * Function checks if projection was built by this application instance and the build was committed
+     * @return true if projection could be used
+     */
+    public boolean isReady()
+    {
+        return ready;
+    }
+
+    public String getTableName()
+    {
+        return tableName;
+    }
+
+    public String getJoinColumn()
+    {
+        return joinColumn;
+    }
+
+    /**
+     * Function retrieves projection column of the attribute
+     * @param attribute - attribute name
+     * @return column name or null if there is no such column
+     */
+    public String getColumn(String attribute)
+    {
+        return columns.get(attribute);
+    }
+
+    /**
+     * Function retrieves type of the projection column
+     * @param attribute - attribute name
+     * @return data type or null if there is no such column
+     */
+    public DataType getDataType(String attribute)
+    {
+        return types.get(attribute);
+    }
+
+    /**
+     * Function checks if all filter terms could be served by projection
+     * @param terms - attribute filter terms
+     * @return true if projection has columns of the same type for all terms
+     */
+    public boolean covers(List<FilterTerm> terms)
+    {
+        for (FilterTerm term : terms) {
+            if (term.getKind() != FilterTerm.Kind.ATTRIBUTE || term.getDataType() != types.get(term.getPath()))
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Function creates projection column name from attribute name. Name contains
+     * hash of the attribute name so different attributes never share a column
+     * @param attribute - attribute name
+     * @return column name
+     */
+    public static String getColumnName(String attribute)
+    {
+        String name = attribute.toUpperCase().replaceAll("[^A-Z0-9]", "_");
+        if (name.length() > MAX_NAME_LENGTH)
+            name = name.substring(0, MAX_NAME_LENGTH);
+
+        return COLUMN_PREFIX + name + '_' + String.format("%08X", attribute.hashCode());
+    }
+
+    /**
+     * Function creates projection table if it does not exist, adds missing columns and
+     * refills all rows. It must be called inside of the transaction
+     * @param em - entity manager
+     */
+    public synchronized void rebuild(EntityManager em)
+    {
+        try {
+            Connection con = em.unwrap(Connection.class);
+            resolveFields(em);
+            createTable(con);
+            Map<String, DataType> attributes = findAttributes(con, null);
+            addColumns(con, attributes);
+
+            execute(con, "DELETE FROM " + tableName, null);
+            fill(con, attributes, null);
+            afterCommit(attributes, true);
+        }
+        catch (SQLException ex) {
+            throw (new IllegalStateException("Unable to build projection " + tableName, ex));
+        }
+    }
+
+    /**
+     * Function refreshes projection rows of entities. It must be called inside of the transaction
+     * after attributes were flushed
+     * @param em - entity manager
+     * @param ids - identifiers of the modified entities
+     */
+    public synchronized void refresh(EntityManager em, Collection<Long> ids)
+    {
+        if (ids.isEmpty())
+            return;
+
+        try {
+            Connection con = em.unwrap(Connection.class);
+            boolean known = tableExists;
+            if (!hasTable(con))
+                return;
+
+            resolveFields(em);
+            Map<String, DataType> attributes = findAttributes(con, ids);
+            boolean added = addColumns(con, attributes);
+
+            /*
+             * Row is filled by attributes of the entity, other columns stay null
+             */
+            execute(con, "DELETE FROM " + tableName + " WHERE " + PARENT_COLUMN + " IN (" + placeholders(ids.size()) + ")", new ArrayList<Object>(ids));
+            fill(con, attributes, ids);
+            if (added || !known)
+                afterCommit(attributes, false);
+        }
+        catch (SQLException ex) {
+            /*
+             * Projection is not consistent any more, facade will rebuild it
+             */
+            ready = false;
+            throw (new IllegalStateException("Unable to refresh projection " + tableName, ex));
+        }
+    }
+
+    /**
+     * Function removes projection rows of entities which do not have attributes any more,
+     * e.g. after bulk delete. It must be called inside of the transaction
+     * @param em - entity manager
+     */
+    public synchronized void purge(EntityManager em)
+    {
+        try {
+            Connection con = em.unwrap(Connection.class);
+            if (!hasTable(con))
+                return;
+
+            resolveFields(em);
+            execute(con, "DELETE FROM " + tableName + " WHERE " + PARENT_COLUMN + " NOT IN (SELECT " + parentField + " FROM " + attributeTable + ")", null);
+        }
+        catch (SQLException ex) {
+            ready = false;
+            throw (new IllegalStateException("Unable to purge projection " + tableName, ex));
+        }
+    }
+
+    /**
+     * Function creates customizer which adds projection predicates to the query
+     * @param terms - attribute filter terms, see {@link #covers(List)}
+     * @return query customizer
+     */
+    public QueryPlan.Customizer getCustomizer(final List<FilterTerm> terms)
+    {
+        return new QueryPlan.Customizer() {
+            @Override
+            public void customize(EntityManager em, DatabaseQuery query, QueryPlan plan)
+            {
+                addPredicates(em, (ObjectLevelReadQuery) query, plan, terms);
+            }
+        };
+    }
+
+    /**
+     * Function creates customizer which replaces attribute sort keys by projection columns.
+     * Column is selected by scalar subquery on the primary key of the projection table, so
+     * entities without projection row are kept and sorted as nulls
+     * @param keys - sort keys: position in the order by list, attribute name and descending flag
+     * @return query customizer
+     */
+    public QueryPlan.Customizer getOrderCustomizer(final List<Object[]> keys)
+    {
+        return new QueryPlan.Customizer() {
+            @Override
+            public void customize(EntityManager em, DatabaseQuery query, QueryPlan plan)
+            {
+                addOrdering(em, (ObjectLevelReadQuery) query, keys);
+            }
+        };
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private void addOrdering(EntityManager em, ObjectLevelReadQuery query, List<Object[]> keys)
+    {
+        Session session = em.unwrap(JpaEntityManager.class).getServerSession();
+        DatabaseField id = session.getDescriptor(entityClass).getPrimaryKeyFields().get(0);
+        ExpressionBuilder eb = query.getExpressionBuilder();
+
+        List<Expression> orders = new ArrayList<Expression>(query.getOrderByExpressions());
+        for (Object[] key : keys) {
+            ExpressionOperator operator = new ExpressionOperator();
+            operator.setType(ExpressionOperator.FunctionOperator);
+            operator.setSelector(SORT_KEY_SELECTOR);
+            Vector strings = new Vector();
+            strings.add("(SELECT " + columns.get((String) key[1]) + " FROM " + tableName + " WHERE " + PARENT_COLUMN + " = ");
+            strings.add(")");
+            operator.printsAs(strings);
+            operator.bePrefix();
+            operator.setNodeClass(ClassConstants.FunctionExpression_Class);
+
+            Expression value = eb.getField(id).performOperator(operator, new Vector());
+            orders.set((Integer) key[0], (Boolean) key[2] ? value.descending() : value.ascending());
+        }
+
+        query.setOrderByExpressions(orders);
+    }
+
+    /**
+     * Function adds join with projection table and predicates by projection columns
+     * @param em - entity manager
+     * @param query - EclipseLink query
+     * @param plan - query plan used to create parameters
+     * @param terms - attribute filter terms
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private void addPredicates(EntityManager em, ObjectLevelReadQuery query, QueryPlan plan, List<FilterTerm> terms)
+    {
+        Session session = em.unwrap(JpaEntityManager.class).getServerSession();
+        DatabaseField id = session.getDescriptor(entityClass).getPrimaryKeyFields().get(0);
+
+        ExpressionBuilder eb = query.getExpressionBuilder();
+        Expression table = eb.getTable(tableName);
+        Expression where = table.getField(PARENT_COLUMN).equal(eb.getField(id));
+
+        for (FilterTerm term : terms) {
+            Expression field = table.getField(columns.get(term.getPath()));
+            Object[] values = term.getValues();
+            Expression[] params = new Expression[values.length];
+            for (int i = 0; i < values.length; i++) {
+                String name = plan.parameterName();
+                query.addArgument(name, values[i] != null ? values[i].getClass() : Object.class);
+                params[i] = eb.getParameter(name);
+            }
+
+            switch (term.getOperator()) {
+                case IS_NULL:
+                    where = where.and(field.isNull());
+                    break;
+
+                case LIKE:
+                    where = where.and(field.toLowerCase().like(params[0], eb.value(String.valueOf(FilterExpression.LIKE_ESCAPE))));
+                    break;
+
+                case LESS_EQUAL:
+                    where = where.and(field.lessThanEqual(params[0]));
+                    break;
+
+                case GREATER_EQUAL:
+                    where = where.and(field.greaterThanEqual(params[0]));
+                    break;
+
+                case BETWEEN:
+                    where = where.and(field.between(params[0], params[1]));
+                    break;
+
+                case IN:
+                    Vector in = new Vector();
+                    for (Expression param : params) {
+                        in.add(param);
+                    }
+                    where = where.and(field.in(in));
+                    break;
+
+                default:
+                    where = where.and(field.equal(params[0]));
+                    break;
+            }
+        }
+
+        query.setSelectionCriteria(query.getSelectionCriteria() == null ? where : query.getSelectionCriteria().and(where));
+    }
+
+    /**
+     * Function resolves names of the attribute table fields
+     * @param em - entity manager
+     */
+    private void resolveFields(EntityManager em)
+    {
+        if (attributeTable != null)
+            return;
+
+        Session session = em.unwrap(JpaEntityManager.class).getServerSession();
+        ClassDescriptor descriptor = session.getDescriptor(attributesClass);
+        DatabaseMapping parent = descriptor.getMappingForAttributeName(joinColumn);
+
+        parentField = ((OneToOneMapping) parent).getForeignKeyFields().get(0).getName();
+        nameField = descriptor.getMappingForAttributeName(NamingConstants.NAME).getField().getName();
+        typeField = descriptor.getMappingForAttributeName(NamingConstants.DATA_TYPE).getField().getName();
+
+        valueFields = new LinkedHashMap<DataType, String>();
+        valueFields.put(DataType.STRING, descriptor.getMappingForAttributeName(NamingConstants.STRING_VALUE).getField().getName());
+        valueFields.put(DataType.NUMBER, descriptor.getMappingForAttributeName(NamingConstants.NUMBER_VALUE).getField().getName());
+        valueFields.put(DataType.DATE, descriptor.getMappingForAttributeName(NamingConstants.DATE_VALUE).getField().getName());
+        attributeTable = descriptor.getTableName();
+    }
+
+    private void createTable(Connection con) throws SQLException
+    {
+        if (!hasTable(con))
+            execute(con, "CREATE TABLE " + tableName + " (" + PARENT_COLUMN + " BIGINT NOT NULL PRIMARY KEY)", null);
+    }
+
+    /**
+     * Function checks if projection table exists, it could be built by other application instance
+     * @param con - connection
+     * @return true if table exists
+     */
+    private boolean hasTable(Connection con) throws SQLException
+    {
+        if (tableExists)
+            return true;
+
+        DatabaseMetaData md = con.getMetaData();
+        ResultSet rs = md.getTables(null, null, tableName, null);
+        try {
+            /*
+             * Table created by the current transaction is not remembered, it could be rolled back
+             */
+            return rs.next();
+        }
+        finally {
+            rs.close();
+        }
+    }
+
+    /**
+     * Function finds attribute names and types
+     * @param con - connection
+     * @param ids - identifiers of entities or null to find all attributes
+     * @return attribute types by name
+     */
+    private Map<String, DataType> findAttributes(Connection con, Collection<Long> ids) throws SQLException
+    {
+        String sql = "SELECT DISTINCT " + nameField + ", " + typeField + " FROM " + attributeTable;
+        if (ids != null)
+            sql += " WHERE " + parentField + " IN (" + placeholders(ids.size()) + ")";
+
+        Map<String, DataType> found = new LinkedHashMap<String, DataType>();
+        PreparedStatement ps = con.prepareStatement(sql);
+        try {
+            bind(ps, ids != null ? new ArrayList<Object>(ids) : null);
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                String type = rs.getString(2);
+                if (rs.getString(1) != null && type != null && !found.containsKey(rs.getString(1)))
+                    found.put(rs.getString(1), DataType.valueOf(type));
+            }
+        }
+        finally {
+            ps.close();
+        }
+
+        return found;
+    }
+
+    /**
+     * Function adds indexed columns for attributes which are not in projection table yet.
+     * Type of the existing column is kept
+     * @param con - connection
+     * @param attributes - attribute types by name (in, out)
+     * @return true if some attributes are not registered yet
+     */
+    private boolean addColumns(Connection con, Map<String, DataType> attributes) throws SQLException
+    {
+        Set<String> existing = null;
+
+        for (Map.Entry<String, DataType> attr : attributes.entrySet()) {
+            DataType type = types.get(attr.getKey());
+            if (type != null) {
+                attr.setValue(type);
+                continue;
+            }
+
+            if (existing == null)
+                existing = getExistingColumns(con);
+
+            String column = getColumnName(attr.getKey());
+            if (!existing.contains(column)) {
+                execute(con, "ALTER TABLE " + tableName + " ADD COLUMN " + column + ' ' + getColumnType(attr.getValue()), null);
+                execute(con, "CREATE INDEX " + tableName + '_' + column + " ON " + tableName + " (" + column + ')', null);
+                existing.add(column);
+            }
+        }
+
+        return existing != null;
+    }
+
+    /**
+     * Function registers projection columns when the current transaction is committed,
+     * so queries never use a column which was rolled back. Without transaction registry
+     * (e.g. resource local unit) columns are registered at once
+     * @param attributes - attribute types by name
+     * @param built - true if projection was rebuilt by the transaction
+     */
+    private void afterCommit(final Map<String, DataType> attributes, final boolean built)
+    {
+        TransactionSynchronizationRegistry registry = getRegistry();
+        if (registry == null || registry.getTransactionKey() == null) {
+            register(attributes, built);
+            return;
+        }
+
+        registry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion()
+            {
+            }
+
+            @Override
+            public void afterCompletion(int status)
+            {
+                if (status == Status.STATUS_COMMITTED)
+                    register(attributes, built);
+            }
+        });
+    }
+
+    private void register(Map<String, DataType> attributes, boolean built)
+    {
+        for (Map.Entry<String, DataType> attr : attributes.entrySet()) {
+            types.putIfAbsent(attr.getKey(), attr.getValue());
+            columns.putIfAbsent(attr.getKey(), getColumnName(attr.getKey()));
+        }
+
+        tableExists = true;
+        if (built)
+            ready = true;
+    }
+
+    private static TransactionSynchronizationRegistry getRegistry()
+    {
+        try {
+            return (TransactionSynchronizationRegistry) new InitialContext().lookup(REGISTRY_JNDI_NAME);
+        }
+        catch (NamingException ex) {
+            Logger.getLogger(AttributeProjection.class.getName()).log(Level.FINE, null, ex);
+            return null;
+        }
+    }
+
+    private Set<String> getExistingColumns(Connection con) throws SQLException
+    {
+        Set<String> existing = new HashSet<String>();
+        ResultSet rs = con.getMetaData().getColumns(null, null, tableName, null);
+        try {
+            while (rs.next()) {
+                existing.add(rs.getString("COLUMN_NAME").toUpperCase());
+            }
+        }
+        finally {
+            rs.close();
+        }
+
+        return existing;
+    }
+
+    private static String getColumnType(DataType dataType)
+    {
+        switch (dataType) {
+            case NUMBER:
+                return "DECIMAL(" + AbstractAttribute.NUMBER_PRECISION + ',' + AbstractAttribute.NUMBER_SCALE + ')';
+
+            case DATE:
+                return "TIMESTAMP";
+
+            default:
+                return "VARCHAR(" + STRING_LENGTH + ')';
+        }
+    }
+
+    /**
+     * Function inserts pivoted rows
+     * @param con - connection
+     * @param attributes - types of the filled attribute columns by attribute name
+     * @param ids - identifiers of entities or null to fill all rows
+     */
+    private void fill(Connection con, Map<String, DataType> attributes, Collection<Long> ids) throws SQLException
+    {
+        StringBuilder insert = new StringBuilder("INSERT INTO ").append(tableName).append(" (").append(PARENT_COLUMN);
+        StringBuilder select = new StringBuilder(" SELECT ").append(parentField);
+        List<Object> params = new ArrayList<Object>();
+
+        for (Map.Entry<String, DataType> attr : attributes.entrySet()) {
+            insert.append(", ").append(getColumnName(attr.getKey()));
+            select.append(", MAX(CASE WHEN ").append(nameField).append(" = ? THEN ")
+                  .append(valueFields.get(attr.getValue())).append(" ELSE NULL END)");
+            params.add(attr.getKey());
+        }
+
+        select.append(" FROM ").append(attributeTable);
+        if (ids != null) {
+            select.append(" WHERE ").append(parentField).append(" IN (").append(placeholders(ids.size())).append(')');
+            params.addAll(ids);
+        }
+
+        select.append(" GROUP BY ").append(parentField);
+        execute(con, insert.append(')').append(select).toString(), params);
+    }
+
+    private static void execute(Connection con, String sql, List<Object> params) throws SQLException
+    {
+        Logger.getLogger(AttributeProjection.class.getName()).log(Level.FINE, sql);
+
+        if (params == null) {
+            Statement st = con.createStatement();
+            try {
+                st.executeUpdate(sql);
+            }
+            finally {
+                st.close();
+            }
+        }
+        else {
+            PreparedStatement ps = con.prepareStatement(sql);
+            try {
+                bind(ps, params);
+                ps.executeUpdate();
+            }
+            finally {
+                ps.close();
+            }
+        }
+    }
+
+    private static void bind(PreparedStatement ps, List<Object> params) throws SQLException
+    {
+        if (params == null)
+            return;
+
+        for (int i = 0; i < params.size(); i++) {
+            ps.setObject(i + 1, params.get(i));
+        }
+    }
+
+    private static String placeholders(int count)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(i == 0 ? "?" : ", ?");
+        }
+
+        return sb.toString();
+    }
+}
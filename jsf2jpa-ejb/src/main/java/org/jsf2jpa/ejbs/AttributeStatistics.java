@@ -0,0 +1,155 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2011 ASementsov.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jsf2jpa.ejbs;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.jsf2jpa.entities.DataType;
+
+/**
+ * Class keeps statistics of the external attributes used to estimate selectivity of
+ * attribute filters. Statistics contain number of rows, number of distinct values
+ * and value type for every attribute name.
+ *
+ * <br/>$LastChangedRevision:$
+ * <br/>$LastChangedDate:$
+ *
+ * @author ASementsov
+ */
+public class AttributeStatistics implements Serializable
+{
+    /**
+     * Subversion revision number it will be changed automatically when commited
+     */
+    private static final String REV_NUMBER = "$Revision:$";
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Part of the rows estimated to be selected by range and like conditions
+     */
+    private static final int    RANGE_FACTOR = 3;
+
+    private final Map<String, long[]>   attributes = new HashMap<String, long[]>();
+    private final Map<String, DataType> types = new HashMap<String, DataType>();
+
+    /**
+     * Function adds statistics of one attribute. If attribute has values of several types
+     * statistics are summed and the type with most rows is used
+     * @param name - attribute name
+     * @param dataType - type of the attribute values
+     * @param rows - number of attribute rows
+     * @param distinct - number of distinct attribute values
+     */
+    public void add(String name, DataType dataType, long rows, long distinct)
+    {
+        long[] stat = attributes.get(name);
+        if (stat == null) {
+            attributes.put(name, new long[] {rows, Math.max(distinct, 1)});
+            types.put(name, dataType);
+        }
+        else {
+            if (rows > stat[0])
+                types.put(name, dataType);
+
+            stat[0] += rows;
+            stat[1] += distinct;
+        }
+    }
+
+    /**
+     * Function retrieves type of the attribute values
+     * @param name - attribute name
+     * @return data type or null if attribute is unknown
+     */
+    public DataType getDataType(String name)
+    {
+        return types.get(name);
+    }
+
+    /**
+     * Function retrieves number of attribute rows
+     * @param name - attribute name
+     * @return number of rows or 0 if attribute is unknown
+     */
+    public long getRows(String name)
+    {
+        long[] stat = attributes.get(name);
+        return stat != null ? stat[0] : 0;
+    }
+
+    /**
+     * Function retrieves number of distinct attribute values
+     * @param name - attribute name
+     * @return number of distinct values or 0 if attribute is unknown
+     */
+    public long getDistinct(String name)
+    {
+        long[] stat = attributes.get(name);
+        return stat != null ? stat[1] : 0;
+    }
+
+    public Map<String, long[]> getAttributes()
+    {
+        return Collections.unmodifiableMap(attributes);
+    }
+
+    /**
+     * Function estimates number of attribute rows selected by filter term
+     * @param term - attribute filter term
+     * @return estimated number of rows
+     */
+    public long estimate(FilterTerm term)
+    {
+        long[] stat = attributes.get(term.getPath());
+        if (stat == null)
+            return 0;
+
+        switch (term.getOperator()) {
+            case EQUAL:
+                return Math.max(stat[0] / stat[1], 1);
+
+            case IN:
+                return Math.min(Math.max(stat[0] * term.getValues().length / stat[1], 1), stat[0]);
+
+            case IS_NULL:
+                return stat[0];
+
+            default:
+                return Math.max(stat[0] / RANGE_FACTOR, 1);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, long[]> entry : attributes.entrySet()) {
+            sb.append(entry.getKey()).append('=').append(entry.getValue()[0]).append('/').append(entry.getValue()[1]).append(' ');
+        }
+
+        return sb.toString().trim();
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2011 ASementsov.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jsf2jpa.ejbs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+import org.jsf2jpa.entities.AuditAction;
+import org.jsf2jpa.entities.AuditRecord;
+import org.jsf2jpa.entities.BaseEntity;
+
+/**
+ * Class implements in-memory part of the audit journal. Records of the transaction are
+ * collected until it is committed and then put to the bounded queue, {@link AuditJournalWriter}
+ * takes them from the queue and writes by batches in its own transactions. So journal does not
+ * add any statements to the audited transaction.
+ * <p>
+ * Records are queued after commit of the audited transaction, so producer never waits for the
+ * writer: when queue is full the record is dropped and counted, see {@link #getDropped()}.
+ * Records of the writer transaction which is rolled back are queued again.
+ *
+ * <br/>$LastChangedRevision:$
+ * <br/>$LastChangedDate:$
+ *
+ * @author ASementsov
+ */
+public class AuditJournal
+{
+    /**
+     * Subversion revision number it will be changed automatically when commited
+     */
+    private static final String REV_NUMBER = "$Revision:$";
+    public static final int     QUEUE_CAPACITY = 10000;
+    /**
+     * Count of records written by one flush of the persistence context
+     */
+    public static final int     BATCH_SIZE = 100;
+    /**
+     * Dropped records are logged once per this count
+     */
+    private static final long   DROP_LOG_INTERVAL = 1000;
+    private static final String REGISTRY_JNDI_NAME = "java:comp/TransactionSynchronizationRegistry";
+
+    private static final BlockingQueue<AuditRecord> queue = new ArrayBlockingQueue<AuditRecord>(QUEUE_CAPACITY);
+    private static final AtomicBoolean  flushRequested = new AtomicBoolean();
+    private static final AtomicLong     dropped = new AtomicLong();
+
+    /**
+     * Function records change of the entity. Record is queued when current transaction is committed
+     * and discarded when it is rolled back
+     * @param entity - changed entity
+     * @param action - kind of the change
+     */
+    @SuppressWarnings("unchecked")
+    public static void record(BaseEntity entity, AuditAction action)
+    {
+        AuditRecord record = new AuditRecord(entity, action);
+        TransactionSynchronizationRegistry registry = getRegistry();
+        if (registry == null || registry.getTransactionKey() == null) {
+            offer(record);
+            return;
+        }
+
+        List<AuditRecord> pending = (List<AuditRecord>) registry.getResource(AuditJournal.class);
+        if (pending == null) {
+            final List<AuditRecord> records = new ArrayList<AuditRecord>();
+            registry.putResource(AuditJournal.class, records);
+            registry.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion()
+                {
+                }
+
+                @Override
+                public void afterCompletion(int status)
+                {
+                    if (status == Status.STATUS_COMMITTED) {
+                        for (AuditRecord r : records) {
+                            offer(r);
+                        }
+                    }
+                }
+            });
+            pending = records;
+        }
+
+        pending.add(record);
+    }
+
+    /**
+     * Function puts record to the queue, writer is woken up when full batch is collected
+     * @param record - audit record
+     */
+    private static void offer(AuditRecord record)
+    {
+        if (!queue.offer(record)) {
+            long count = dropped.incrementAndGet();
+            if (count % DROP_LOG_INTERVAL == 1) {
+                Logger.getLogger(AuditJournal.class.getName()).log(Level.WARNING, "Audit queue is full, record of {0} {1} is dropped, {2} records dropped so far",
+                        new Object[] {record.getEntityClass(), record.getEntityId(), count});
+            }
+        }
+
+        if (queue.size() >= BATCH_SIZE && flushRequested.compareAndSet(false, true)) {
+            AuditJournalWriter writer = getWriter();
+            if (writer != null)
+                writer.flushAsync();
+            else
+                flushRequested.set(false);
+        }
+    }
+
+    /**
+     * Function queues again records which were taken by writer but not written
+     * @param records - records of the rolled back writer transaction
+     */
+    static void requeue(List<AuditRecord> records)
+    {
+        for (AuditRecord record : records) {
+            /*
+             * Identifier was assigned by the rolled back persist, record is persisted as the new one
+             */
+            record.setId(null);
+            offer(record);
+        }
+    }
+
+    /**
+     * Function takes queued records
+     * @param records - list to add records to (out)
+     * @param max - maximum count of records
+     * @return count of taken records
+     */
+    static int drain(List<AuditRecord> records, int max)
+    {
+        flushRequested.set(false);
+        return queue.drainTo(records, max);
+    }
+
+    /**
+     * Function retrieves count of queued records
+     * @return count of records waiting for writer
+     */
+    public static int getQueued()
+    {
+        return queue.size();
+    }
+
+    /**
+     * Function retrieves count of records dropped because queue was full
+     * @return count of dropped records
+     */
+    public static long getDropped()
+    {
+        return dropped.get();
+    }
+
+    private static TransactionSynchronizationRegistry getRegistry()
+    {
+        try {
+            return (TransactionSynchronizationRegistry) new InitialContext().lookup(REGISTRY_JNDI_NAME);
+        }
+        catch (NamingException ex) {
+            Logger.getLogger(AuditJournal.class.getName()).log(Level.WARNING, null, ex);
+            return null;
+        }
+    }
+
+    private static AuditJournalWriter getWriter()
+    {
+        try {
+            return (AuditJournalWriter) new InitialContext().lookup(AuditJournalWriter.JNDI_NAME);
+        }
+        catch (NamingException ex) {
+            Logger.getLogger(AuditJournal.class.getName()).log(Level.WARNING, null, ex);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2011 ASementsov.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jsf2jpa.ejbs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.Asynchronous;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+import org.jsf2jpa.entities.AuditRecord;
+import org.jsf2jps.utils.NamingConstants;
+
+/**
+ * Class writes records of the audit journal queued by {@link AuditJournal}. Records are
+ * written by JDBC batches in the transaction of the writer when full batch is queued and
+ * every second by timer. Container lock of the bean is read lock, only one flush drains the queue
+ * at once and calls made while queue is drained return immediately instead of waiting for it.
+ * Records taken by the flush are queued again if its transaction is rolled back
+ *
+ * <br/>$LastChangedRevision:$
+ * <br/>$LastChangedDate:$
+ *
+ * @author ASementsov
+ */
+@Singleton
+@Startup
+@Lock(LockType.READ)
+public class AuditJournalWriter
+{
+    /**
+     * Subversion revision number it will be changed automatically when commited
+     */
+    private static final String REV_NUMBER = "$Revision:$";
+    /**
+     * Portable JNDI name of this bean used by {@link AuditJournal}
+     */
+    public static final String JNDI_NAME = "java:module/AuditJournalWriter";
+
+    /**
+     * Entity manager
+     */
+    @PersistenceContext(unitName = NamingConstants.PERSICTENCE_UNIT)
+    private EntityManager em;
+    @Resource
+    private TransactionSynchronizationRegistry registry;
+    /**
+     * Lock of the queue drain. It is released when records are flushed to database, but before
+     * the container commits transaction of the flush, so transactions of the consecutive flushes
+     * could overlap and records of the later flush could be committed first. Every record is
+     * drained once, so it is never written twice
+     */
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    /**
+     * Function writes queued records when full batch is collected
+     */
+    @Asynchronous
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void flushAsync()
+    {
+        flush(false);
+    }
+
+    /**
+     * Function writes records queued since the last flush
+     */
+    @Schedule(hour = "*", minute = "*", second = "*", persistent = false)
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void onTimer()
+    {
+        flush(false);
+    }
+
+    /**
+     * Queue is written before application is stopped
+     */
+    @PreDestroy
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void close()
+    {
+        flush(true);
+    }
+
+    /**
+     * Function writes all queued records, persistence context is flushed and cleared after each batch.
+     * Lock guards only the drain, see {@link #flushLock}
+     * @param wait - true to wait for the running flush, false to return if flush is running
+     * @return count of written records
+     */
+    private int flush(boolean wait)
+    {
+        if (wait)
+            flushLock.lock();
+        else if (!flushLock.tryLock())
+            return 0;
+
+        long start = System.currentTimeMillis();
+        int count = 0;
+        try {
+            final List<AuditRecord> taken = new ArrayList<AuditRecord>();
+            registry.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion()
+                {
+                }
+
+                @Override
+                public void afterCompletion(int status)
+                {
+                    if (status != Status.STATUS_COMMITTED && !taken.isEmpty()) {
+                        Logger.getLogger(AuditJournalWriter.class.getName()).log(Level.WARNING, "{0} audit records are not written and queued again", taken.size());
+                        AuditJournal.requeue(taken);
+                    }
+                }
+            });
+
+            List<AuditRecord> batch = new ArrayList<AuditRecord>(AuditJournal.BATCH_SIZE);
+            while (AuditJournal.drain(batch, AuditJournal.BATCH_SIZE) > 0) {
+                taken.addAll(batch);
+                for (AuditRecord record : batch) {
+                    em.persist(record);
+                }
+
+                em.flush();
+                em.clear();
+                count += batch.size();
+                batch.clear();
+
+                /*
+                 * Writer stops after one queue of records so timer does not hold transaction for ever
+                 */
+                if (count >= AuditJournal.QUEUE_CAPACITY)
+                    break;
+            }
+        }
+        finally {
+            flushLock.unlock();
+        }
+
+        if (count > 0) {
+            Logger.getLogger(AuditJournalWriter.class.getName()).log(Level.FINE, "{0} audit records written in {1} ms",
+                    new Object[] {count, System.currentTimeMillis() - start});
+        }
+
+        return count;
+    }
+}
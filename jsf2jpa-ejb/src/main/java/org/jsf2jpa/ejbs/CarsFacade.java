@@ -23,12 +23,17 @@
  */
 package org.jsf2jpa.ejbs;
 
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Random;
 import javax.annotation.Resource;
 import javax.ejb.EJBException;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionManagement;
 import javax.ejb.TransactionManagementType;
+import javax.persistence.Cache;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.transaction.UserTransaction;
@@ -36,7 +41,9 @@ import org.jsf2jpa.entities.Car;
 import org.jsf2jpa.entities.CarAttribute;
 import org.jsf2jpa.entities.CarModel;
 import org.jsf2jpa.entities.Manufacturer;
+import org.jsf2jps.utils.CacheMonitor;
 import org.jsf2jps.utils.NamingConstants;
+import org.jsf2jps.utils.ReadRouting;
 
 /**
  * Class implements CarsFacade functions
@@ -48,12 +55,17 @@ import org.jsf2jps.utils.NamingConstants;
  */
 @Stateless
 @TransactionManagement(TransactionManagementType.BEAN)
+@PersistenceContext(name = NamingConstants.READ_ONLY_REF, unitName = NamingConstants.READ_ONLY_UNIT)
 public class CarsFacade extends AbstractFacade<Car, CarAttribute>
 {
     /**
      * Subversion revision number it will be changed automatically when commited
      */
     private static final String REV_NUMBER = "$Revision:$";
+    /**
+     * Relations which are shown in the table of cars
+     */
+    public static final FetchPlan TABLE_FETCH = new FetchPlan(NamingConstants.ATTRIBUTES, "model", "model.manufacturer");
     /**
      * User transaction manager
      */
@@ -64,6 +76,11 @@ public class CarsFacade extends AbstractFacade<Car, CarAttribute>
      */
     @PersistenceContext(unitName = NamingConstants.PERSICTENCE_UNIT)
     private EntityManager em;
+    /**
+     * Entity manager of the read-only unit, it is looked up when routing is enabled,
+     * see {@link ReadRouting}
+     */
+    private EntityManager readEm;
 
     @Override
     protected EntityManager getEntityManager()
@@ -76,7 +93,117 @@ public class CarsFacade extends AbstractFacade<Car, CarAttribute>
     {
         return userTx;
     }
+
+    @Override
+    protected EntityManager getReadOnlyEntityManager()
+    {
+        if (readEm == null && ReadRouting.isEnabled())
+            readEm = ReadRouting.lookupEntityManager();
+
+        return readEm;
+    }
+
+    /**
+     * Pivoted projection of the car attributes
+     */
+    private static final AttributeProjection projection =
+            new AttributeProjection(Car.class, CarAttribute.class, NamingConstants.PARENT, "CAR_ATTR_PV");
+
+    @Override
+    protected AttributeProjection getAttributeProjection()
+    {
+        return projection;
+    }
+
+    /**
+     * Index of the car texts
+     */
+    private static final TextIndex textIndex =
+            new TextIndex(Car.class, CarAttribute.class, NamingConstants.PARENT);
+
+    @Override
+    protected TextIndex getTextIndex()
+    {
+        return textIndex;
+    }
     
+    /**
+     * Function drops manufacturers and car models from the second level cache.
+     * It must be called after reference data was changed
+     */
+    public void evictReferenceData()
+    {
+        Cache cache = getEntityManager().getEntityManagerFactory().getCache();
+        cache.evict(Manufacturer.class);
+        cache.evict(CarModel.class);
+    }
+
+    /**
+     * Car models hold list of cars, so models of the changed cars are evicted. All models
+     * are evicted when changed cars are not known
+     */
+    @Override
+    protected void evictCaches(Collection<? extends Car> written)
+    {
+        super.evictCaches(written);
+        Cache cache = getEntityManager().getEntityManagerFactory().getCache();
+        if (written == null) {
+            cache.evict(CarModel.class);
+            return;
+        }
+
+        for (Car car : written) {
+            if (car.getModel() != null && car.getModel().getId() != null)
+                cache.evict(CarModel.class, car.getModel().getId());
+        }
+    }
+
+    /**
+     * Car which is moved to another model is removed from the car list of the previous
+     * model, so the previous model is evicted too
+     */
+    @Override
+    protected Car write(Car entity, boolean merge)
+    {
+        Car stored = merge && entity.getId() != null ? em.find(Car.class, entity.getId()) : null;
+        final Long oldModel = stored != null && stored.getModel() != null ? stored.getModel().getId() : null;
+
+        Car managed = super.write(entity, merge);
+        if (oldModel != null && (managed.getModel() == null || !oldModel.equals(managed.getModel().getId()))) {
+            final Cache cache = getEntityManager().getEntityManagerFactory().getCache();
+            Runnable eviction = new Runnable() {
+                @Override
+                public void run()
+                {
+                    cache.evict(CarModel.class, oldModel);
+                }
+            };
+
+            eviction.run();
+            runAfterCommit(eviction);
+        }
+
+        return managed;
+    }
+
+    /**
+     * Retrieves number of manufacturers and car models taken from second level cache
+     * @return reference data cache hits
+     */
+    public long getReferenceCacheHits()
+    {
+        return CacheMonitor.getHits(Manufacturer.class) + CacheMonitor.getHits(CarModel.class);
+    }
+
+    /**
+     * Retrieves number of manufacturers and car models loaded from database
+     * @return reference data cache misses
+     */
+    public long getReferenceCacheMisses()
+    {
+        return CacheMonitor.getLoads(Manufacturer.class) + CacheMonitor.getLoads(CarModel.class);
+    }
+
     private Manufacturer createManufacture (String name)
     {
         Manufacturer mf = new Manufacturer();
@@ -133,38 +260,58 @@ public class CarsFacade extends AbstractFacade<Car, CarAttribute>
          * Create initial data
          */
         Manufacturer mf = createManufacture("Opel");
+        List<CarModel> models = new ArrayList<CarModel>();
         for (String model : MODELS) {
-            CarModel m = createModel(mf, model);
+            models.add(createModel(mf, model));
+        }
+
+        boolean flag = false;
+
+        try {
+            flag = beginTransaction();
+            getEntityManager().persist(mf);
+            commitTransaction(flag);
+        }
+        catch (Exception ex) {
+            throw (new EJBException(ex));
+        }
+        finally {
+            evictReferenceData();
+        }
 
+        /*
+         * Cars are written in batches together with their attributes
+         */
+        List<Car> carList = new ArrayList<Car>();
+        Random rnd = new Random();
+        for (CarModel m : models) {
             /*
              * Five cars for each model
              */
             for (int i=0;i<5;i++) {
-                Car car = createCar(model, m);
+                Car car = createCar(m.getName(), m);
 
                 /*
                  * attributes for each car
                  */
-                Random rnd = new Random();
                 for (String attr : ATTRIBUTES) {
                     CarAttribute a = new CarAttribute();
                     a.setName(attr);
-                    a.setStringValue(String.valueOf(rnd.nextInt(99999)));
+                    a.setNumberValue(BigDecimal.valueOf(rnd.nextInt(99999)));
                     a.setParent(car);
                     car.getAttributes().add (a);
                 }
+
+                carList.add(car);
             }
         }
-        
-        boolean flag = false;
 
-        try {
-            flag = beginTransaction();
-            getEntityManager().persist(mf);
-            commitTransaction(flag);
-        }
-        catch (Exception ex) {
-            throw (new EJBException(ex));
-        }
+        createAll(carList);
+
+        if (AttributeProjection.isEnabled())
+            rebuildAttributeProjection();
+
+        if (TextIndex.isEnabled())
+            rebuildTextIndex();
     }
 }
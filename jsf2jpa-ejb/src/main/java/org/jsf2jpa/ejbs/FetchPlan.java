@@ -0,0 +1,104 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2011 ASementsov.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jsf2jpa.ejbs;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.eclipse.persistence.config.BatchFetchType;
+import org.eclipse.persistence.config.QueryHints;
+
+/**
+ * Class describes relations which must be loaded together with the page of entities.
+ * Every relation is loaded by one additional query with <code>IN</code> list of the page
+ * identifiers, e.g. page of 10 cars with attributes, models and manufacturers costs 4 statements
+ * instead of 1 + 10 * 3.
+ * <p>
+ * Paths are relative to the entity, e.g. <code>attributes</code> or <code>model.manufacturer</code>.
+ *
+ * <br/>$LastChangedRevision:$
+ * <br/>$LastChangedDate:$
+ *
+ * @author ASementsov
+ */
+public class FetchPlan implements Serializable
+{
+    /**
+     * Subversion revision number it will be changed automatically when commited
+     */
+    private static final String REV_NUMBER = "$Revision:$";
+    private static final long serialVersionUID = 1L;
+    /**
+     * Alias is required by hint syntax but it is ignored by EclipseLink
+     */
+    private static final String ALIAS = "e.";
+
+    private final List<String>  paths;
+
+    /**
+     * Constructor
+     * @param paths - paths of relations to load
+     */
+    public FetchPlan(String... paths)
+    {
+        this.paths = Collections.unmodifiableList(Arrays.asList(paths));
+    }
+
+    public List<String> getPaths()
+    {
+        return paths;
+    }
+
+    /**
+     * Function adds batch fetch hints to the query plan
+     * @param plan - query plan
+     */
+    public void apply(QueryPlan plan)
+    {
+        if (paths.isEmpty())
+            return;
+
+        plan.addHint(QueryHints.BATCH_TYPE, BatchFetchType.IN);
+        for (String path : paths) {
+            plan.addHint(QueryHints.BATCH, ALIAS + path);
+        }
+    }
+
+    /**
+     * Function retrieves part of the query shape which describes fetch plan
+     * @param fetch - fetch plan or null
+     * @return fetch shape
+     */
+    public static String getShape(FetchPlan fetch)
+    {
+        return fetch == null ? "" : fetch.paths.toString();
+    }
+
+    @Override
+    public String toString()
+    {
+        return getShape(this);
+    }
+}
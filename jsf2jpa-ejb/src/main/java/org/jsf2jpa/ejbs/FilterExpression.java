@@ -0,0 +1,430 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2011 ASementsov.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jsf2jpa.ejbs;
+
+import java.math.BigDecimal;
+import java.text.ParseException;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jsf2jps.utils.BoundedCache;
+import org.jsf2jps.utils.EJBUtils;
+
+/**
+ * Class implements compiler of the column filter language. Filter string typed by user
+ * is compiled into the comparison operator and the typed values once, compiled filters
+ * are cached by text and column type.
+ * <p>
+ * Filter language:
+ * <ul>
+ * <li><code>10..20</code> - range, bounds are included, any bound could be omitted (<code>10..</code>, <code>..20</code>)
+ * <li><code>(a,b,c)</code> - list of values, separator inside of the value is quoted (<code>("Smith, J", Doe)</code>)
+ * or escaped (<code>(Smith\, J, Doe)</code>). Separator outside of the parentheses is a part of the string
+ * value, in the other values it is allowed only if quoted
+ * <li><code>&lt;10</code>, <code>&gt;10</code>, <code>&lt;=10</code>, <code>&gt;=10</code> - comparison, bounds are included
+ * <li><code>=abc</code> - exact match
+ * <li><code>abc*</code>, <code>*abc*</code> - prefix and contains match, <code>%</code> could be used as well
+ * <li><code>abc</code> - match using default mode of the column
+ * </ul>
+ * Wildcards are the only special characters of the match, <code>_</code> and the other characters
+ * are matched literally (like patterns are escaped by {@link #LIKE_ESCAPE}).
+ * <ul>
+ * </ul>
+ * Numbers are written with <code>.</code> as decimal separator regardless of the server locale,
+ * grouping separator is allowed only in quoted values (<code>"1,000"</code>). Booleans are
+ * <code>true</code> or <code>false</code>, any other value and empty operands are rejected.
+ * Dates are written as <code>yyyy-MM-dd</code>, <code>yyyy-MM-dd HH:mm</code> or <code>yyyy-MM-dd HH:mm:ss</code>.
+ * A date without time means the whole day, e.g. <code>2011-05-04</code> matches any time of this day.
+ *
+ * <br/>$LastChangedRevision:$
+ * <br/>$LastChangedDate:$
+ *
+ * @author ASementsov
+ */
+public final class FilterExpression
+{
+    /**
+     * Subversion revision number it will be changed automatically when commited
+     */
+    private static final String REV_NUMBER = "$Revision:$";
+
+    /**
+     * How string without operators is matched
+     */
+    public enum MatchMode
+    {
+        EXACT,
+        PREFIX,
+        CONTAINS
+    }
+
+    public static final String RANGE = "..";
+    public static final char   LIST_SEPARATOR = ',';
+    public static final char   QUOTE = '"';
+    public static final char   ESCAPE = '\\';
+    public static final char   WILDCARD = '*';
+    public static final char   LIKE_WILDCARD = '%';
+    /**
+     * Single character wildcard of the like pattern, it is always escaped
+     */
+    public static final char   LIKE_ANY_CHAR = '_';
+    /**
+     * Escape character of the like patterns, predicates which use LIKE values must declare it
+     */
+    public static final char   LIKE_ESCAPE = '\\';
+    public static final char   LIST_START = '(';
+    public static final char   LIST_END = ')';
+
+    private static final String[] DATE_PATTERNS = {"yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd HH:mm", "yyyy-MM-dd"};
+    /**
+     * Maximum number of compiled filters
+     */
+    private static final int    EXPRESSION_CACHE_SIZE = 1024;
+    private static final BoundedCache<String, FilterExpression> expressions =
+            new BoundedCache<String, FilterExpression>(EXPRESSION_CACHE_SIZE, 0);
+
+    private final FilterTerm.Operator   operator;
+    private final Object[]              values;
+
+    private FilterExpression(FilterTerm.Operator operator, Object... values)
+    {
+        this.operator = operator;
+        this.values = values;
+    }
+
+    public FilterTerm.Operator getOperator()
+    {
+        return operator;
+    }
+
+    /**
+     * Function retrieves values of the filter. Compiled filter is shared by cache, so mutable
+     * values (dates) are copied
+     * @return copy of the values
+     */
+    public Object[] getValues()
+    {
+        Object[] copy = values.clone();
+        for (int i = 0; i < copy.length; i++) {
+            if (copy[i] instanceof Date)
+                copy[i] = ((Date) copy[i]).clone();
+        }
+
+        return copy;
+    }
+
+    /**
+     * Function compiles filter string
+     * @param text - filter typed by user
+     * @param type - type of the filtered column
+     * @param mode - match mode used for strings without operators
+     * @return compiled filter or null if filter is empty or could not be parsed
+     */
+    public static FilterExpression compile(String text, Class<?> type, MatchMode mode)
+    {
+        if (text == null || text.trim().isEmpty())
+            return null;
+
+        String key = mode + "|" + type.getName() + '|' + text;
+        FilterExpression expr = expressions.get(key);
+        if (expr != null)
+            return expr;
+
+        long generation = expressions.getGeneration();
+        try {
+            expr = parse(text.trim(), type, mode);
+        }
+        catch (ParseException ex) {
+            Logger.getLogger(FilterExpression.class.getName()).log(Level.WARNING, "Unable to parse filter " + text, ex);
+            return null;
+        }
+        catch (IllegalArgumentException ex) {
+            Logger.getLogger(FilterExpression.class.getName()).log(Level.WARNING, "Unable to parse filter " + text, ex);
+            return null;
+        }
+
+        if (expr != null)
+            expressions.put(key, expr, generation);
+
+        return expr;
+    }
+
+    private static FilterExpression parse(String text, Class<?> type, MatchMode mode) throws ParseException
+    {
+        if (type.equals(String.class)) {
+            if (text.indexOf(LIKE_WILDCARD) != -1)
+                return new FilterExpression(FilterTerm.Operator.LIKE, toLikePattern(text, LIKE_WILDCARD).toLowerCase());
+
+            if (text.charAt(0) == '=')
+                return new FilterExpression(FilterTerm.Operator.EQUAL, checkOperand(text.substring(1)));
+
+            if (text.indexOf(WILDCARD) != -1)
+                return new FilterExpression(FilterTerm.Operator.LIKE, toLikePattern(text, WILDCARD).toLowerCase());
+        }
+
+        if (text.length() > 1 && text.charAt(0) == LIST_START && text.charAt(text.length() - 1) == LIST_END) {
+            List<String> items = splitList(text.substring(1, text.length() - 1), true);
+            Object[] values = new Object[items.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = convert(checkOperand(items.get(i)), type, false);
+            }
+
+            return new FilterExpression(FilterTerm.Operator.IN, values);
+        }
+
+        int range = text.indexOf(RANGE);
+        if (range != -1) {
+            String lower = text.substring(0, range).trim();
+            String upper = text.substring(range + RANGE.length()).trim();
+
+            if (lower.isEmpty() && upper.isEmpty())
+                return null;
+            if (lower.isEmpty())
+                return new FilterExpression(FilterTerm.Operator.LESS_EQUAL, convert(upper, type, true));
+            if (upper.isEmpty())
+                return new FilterExpression(FilterTerm.Operator.GREATER_EQUAL, convert(lower, type, false));
+
+            return new FilterExpression(FilterTerm.Operator.BETWEEN, convert(lower, type, false), convert(upper, type, true));
+        }
+
+        /*
+         * Unquoted separator is a part of the string, in the other values it could be
+         * a forgotten list, so it is rejected instead of being read as a grouping separator
+         */
+        if (!type.equals(String.class) && splitList(text, true).size() > 1)
+            throw (new IllegalArgumentException("List must be enclosed in parentheses: " + text));
+
+        text = checkOperand(splitList(text, false).get(0));
+
+        if (text.startsWith("<")) {
+            String value = checkOperand(text.substring(text.startsWith("<=") ? 2 : 1).trim());
+            return new FilterExpression(FilterTerm.Operator.LESS_EQUAL, convert(value, type, true));
+        }
+
+        if (text.startsWith(">")) {
+            String value = checkOperand(text.substring(text.startsWith(">=") ? 2 : 1).trim());
+            return new FilterExpression(FilterTerm.Operator.GREATER_EQUAL, convert(value, type, false));
+        }
+
+        if (text.charAt(0) == '=') {
+            text = checkOperand(text.substring(1).trim());
+        }
+        else if (type.equals(String.class) && mode != MatchMode.EXACT) {
+            String pattern = escapeLike(text).toLowerCase() + LIKE_WILDCARD;
+            return new FilterExpression(FilterTerm.Operator.LIKE, mode == MatchMode.CONTAINS ? LIKE_WILDCARD + pattern : pattern);
+        }
+
+        if (Date.class.isAssignableFrom(type) && !hasTime(text)) {
+            /*
+             * Date without time matches the whole day
+             */
+            return new FilterExpression(FilterTerm.Operator.BETWEEN, convert(text, type, false), convert(text, type, true));
+        }
+
+        return new FilterExpression(FilterTerm.Operator.EQUAL, convert(text, type, false));
+    }
+
+    /**
+     * Function splits list of values by separators which are not quoted or escaped.
+     * Quotes and escape characters are removed from the values
+     * @param text - filter text
+     * @param split - false to keep separators in the value
+     * @return trimmed values, single value if text is not a list
+     */
+    private static List<String> splitList(String text, boolean split)
+    {
+        List<String> items = new ArrayList<String>();
+        StringBuilder item = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == ESCAPE && i + 1 < text.length()) {
+                item.append(text.charAt(++i));
+            }
+            else if (c == QUOTE) {
+                quoted = !quoted;
+            }
+            else if (c == LIST_SEPARATOR && !quoted && split) {
+                items.add(item.toString().trim());
+                item.setLength(0);
+            }
+            else {
+                item.append(c);
+            }
+        }
+
+        if (quoted)
+            throw (new IllegalArgumentException("Unbalanced quote in " + text));
+
+        items.add(item.toString().trim());
+        return items;
+    }
+
+    /**
+     * Function converts filter with wildcards to the like pattern, all other characters
+     * are matched literally
+     * @param text - filter text
+     * @param wildcard - wildcard used by the filter
+     * @return like pattern
+     */
+    private static String toLikePattern(String text, char wildcard)
+    {
+        StringBuilder pattern = new StringBuilder();
+        int start = 0;
+        for (int end = text.indexOf(wildcard); end != -1; end = text.indexOf(wildcard, start)) {
+            pattern.append(escapeLike(text.substring(start, end))).append(LIKE_WILDCARD);
+            start = end + 1;
+        }
+
+        return pattern.append(escapeLike(text.substring(start))).toString();
+    }
+
+    /**
+     * Function escapes special characters of the like pattern
+     * @param value - literal value
+     * @return value which matches itself in the like pattern
+     */
+    public static String escapeLike(String value)
+    {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == LIKE_ESCAPE || c == LIKE_WILDCARD || c == LIKE_ANY_CHAR)
+                escaped.append(LIKE_ESCAPE);
+
+            escaped.append(c);
+        }
+
+        return escaped.toString();
+    }
+
+    /**
+     * Function checks that operand of the operator is not empty
+     * @param value - operand
+     * @return operand
+     */
+    private static String checkOperand(String value)
+    {
+        if (value.trim().isEmpty())
+            throw (new IllegalArgumentException("Empty operand"));
+
+        return value;
+    }
+
+    /**
+     * Function converts value to the column type
+     * @param value - value string
+     * @param type - column type
+     * @param upper - flag indicates that value is the upper bound, date without time is moved to the end of the day
+     * @return converted value
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static Object convert(String value, Class<?> type, boolean upper) throws ParseException
+    {
+        if (Number.class.isAssignableFrom(type)) {
+            /*
+             * Separator could be left in the value only if it was quoted, so it is a grouping separator
+             */
+            try {
+                return EJBUtils.convertNumber(new BigDecimal(value.replace(String.valueOf(LIST_SEPARATOR), "")), type);
+            }
+            catch (NumberFormatException ex) {
+                throw (new ParseException(value, 0));
+            }
+        }
+
+        if (Date.class.isAssignableFrom(type))
+            return parseDate(value, upper);
+
+        if (type.isEnum())
+            return Enum.valueOf((Class<Enum>) type, value);
+
+        if (type.equals(Boolean.class) || type.equals(boolean.class)) {
+            if (!"true".equalsIgnoreCase(value) && !"false".equalsIgnoreCase(value))
+                throw (new IllegalArgumentException("Invalid boolean " + value));
+
+            return Boolean.valueOf(value);
+        }
+
+        return value;
+    }
+
+    private static Date parseDate(String value, boolean upper) throws ParseException
+    {
+        for (String pattern : DATE_PATTERNS) {
+            ParsePosition pos = new ParsePosition(0);
+            SimpleDateFormat format = new SimpleDateFormat(pattern);
+            format.setLenient(false);
+            Date date = format.parse(value, pos);
+            if (date == null || pos.getIndex() != value.length())
+                continue;
+
+            if (upper && !hasTime(value)) {
+                Calendar calendar = Calendar.getInstance();
+                calendar.setTime(date);
+                calendar.add(Calendar.DAY_OF_MONTH, 1);
+                calendar.add(Calendar.MILLISECOND, -1);
+                date = calendar.getTime();
+            }
+
+            return date;
+        }
+
+        throw (new ParseException(value, 0));
+    }
+
+    private static boolean hasTime(String value)
+    {
+        return value.indexOf(':') != -1;
+    }
+
+    /**
+     * Retrieves number of filters taken from cache
+     * @return cache hits
+     */
+    public static long getHits()
+    {
+        return expressions.getHits();
+    }
+
+    /**
+     * Retrieves number of compiled filters
+     * @return cache misses
+     */
+    public static long getMisses()
+    {
+        return expressions.getMisses();
+    }
+
+    @Override
+    public String toString()
+    {
+        return operator + "/" + values.length;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2011 ASementsov.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jsf2jpa.ejbs;
+
+import java.io.Serializable;
+import org.jsf2jpa.entities.DataType;
+
+/**
+ * Class describes one filter condition prepared for query building. Condition consists of
+ * the shape (kind of the column, column path and operator) and of the values. Shape defines
+ * structure of the SQL statement, values are bound to the statement parameters.
+ *
+ * <br/>$LastChangedRevision:$
+ * <br/>$LastChangedDate:$
+ *
+ * @author ASementsov
+ */
+public class FilterTerm implements Serializable
+{
+    /**
+     * Subversion revision number it will be changed automatically when commited
+     */
+    private static final String REV_NUMBER = "$Revision:$";
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Kind of the filtered column
+     */
+    public enum Kind
+    {
+        /**
+         * Basic attribute of the entity, e.g. <code>name</code>
+         */
+        PROPERTY,
+        /**
+         * Identifier of the related entity, e.g. <code>model.id</code>
+         */
+        RELATION_ID,
+        /**
+         * Attribute of the related entity, e.g. <code>model.name</code>
+         */
+        RELATION_PROPERTY,
+        /**
+         * External attribute, e.g. <code>attributes['Price']</code>
+         */
+        ATTRIBUTE
+    }
+
+    /**
+     * Comparison operator
+     */
+    public enum Operator
+    {
+        EQUAL,
+        IS_NULL,
+        LIKE,
+        LESS_EQUAL,
+        GREATER_EQUAL,
+        /**
+         * Range with both bounds included, two values
+         */
+        BETWEEN,
+        /**
+         * List of values, number of values is a part of the shape
+         */
+        IN
+    }
+
+    private final Kind          kind;
+    /**
+     * Column path without wrapped object prefix or attribute name for external attributes
+     */
+    private final String        path;
+    private final Operator      operator;
+    /**
+     * Type of the external attribute value
+     */
+    private final DataType      dataType;
+    private final Object[]      values;
+
+    /**
+     * Constructor
+     * @param kind - kind of the column
+     * @param path - column path or attribute name
+     * @param operator - comparison operator
+     * @param dataType - type of the external attribute value, null for entity columns
+     * @param values - values to compare with
+     */
+    public FilterTerm(Kind kind, String path, Operator operator, DataType dataType, Object... values)
+    {
+        this.kind = kind;
+        this.path = path;
+        this.operator = operator;
+        this.dataType = dataType;
+        this.values = values;
+    }
+
+    public Kind getKind()
+    {
+        return kind;
+    }
+
+    public String getPath()
+    {
+        return path;
+    }
+
+    public Operator getOperator()
+    {
+        return operator;
+    }
+
+    public DataType getDataType()
+    {
+        return dataType;
+    }
+
+    public Object[] getValues()
+    {
+        return values;
+    }
+
+    /**
+     * Function retrieves shape of the condition. Conditions with the same shape produce
+     * the same SQL statement and differ only by parameter values
+     * @return condition shape
+     */
+    public String getShape()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(kind).append(':').append(path).append(':').append(operator);
+        if (dataType != null)
+            sb.append(':').append(dataType);
+
+        return sb.append('/').append(values.length).toString();
+    }
+
+    @Override
+    public String toString()
+    {
+        return getShape();
+    }
+}
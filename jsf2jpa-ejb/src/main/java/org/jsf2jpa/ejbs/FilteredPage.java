@@ -0,0 +1,85 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2011 ASementsov.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jsf2jpa.ejbs;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Class holds one page of filtered entities together with total count of filtered entities
+ *
+ * <br/>$LastChangedRevision:$
+ * <br/>$LastChangedDate:$
+ *
+ * @author ASementsov
+ */
+public class FilteredPage<T> implements Serializable
+{
+    /**
+     * Subversion revision number it will be changed automatically when commited
+     */
+    private static final String REV_NUMBER = "$Revision:$";
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Entities of the page
+     */
+    private final List<T>       rows;
+    /**
+     * Count of all entities which match filters
+     */
+    private final int           total;
+    /**
+     * Key of the last row, used to load next page with keyset pagination
+     */
+    private final SeekKey       nextKey;
+
+    /**
+     * Constructor
+     * @param rows - entities of the page
+     * @param total - count of all filtered entities
+     * @param nextKey - key of the last row or null
+     */
+    public FilteredPage(List<T> rows, int total, SeekKey nextKey)
+    {
+        this.rows = rows;
+        this.total = total;
+        this.nextKey = nextKey;
+    }
+
+    public List<T> getRows()
+    {
+        return rows;
+    }
+
+    public int getTotal()
+    {
+        return total;
+    }
+
+    public SeekKey getNextKey()
+    {
+        return nextKey;
+    }
+}
@@ -24,7 +24,10 @@
 package org.jsf2jpa.ejbs;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import javax.annotation.Resource;
 import javax.ejb.EJBException;
@@ -32,11 +35,24 @@ import javax.ejb.Stateless;
 import javax.ejb.TransactionManagement;
 import javax.ejb.TransactionManagementType;
 import javax.persistence.EntityManager;
+import javax.persistence.Persistence;
 import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.From;
+import javax.persistence.criteria.JoinType;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
 import javax.transaction.UserTransaction;
 import org.jsf2jpa.entities.Hierarhy;
 import org.jsf2jpa.entities.HierarhyAttribute;
+import org.jsf2jps.utils.BoundedCache;
+import org.jsf2jps.utils.EJBUtils;
 import org.jsf2jps.utils.NamingConstants;
+import org.jsf2jps.utils.ReadRouting;
 
 /**
  * Class implements HierarhyFacade functions
@@ -48,12 +64,41 @@ import org.jsf2jps.utils.NamingConstants;
  */
 @Stateless
 @TransactionManagement(TransactionManagementType.BEAN)
+@PersistenceContext(name = NamingConstants.READ_ONLY_REF, unitName = NamingConstants.READ_ONLY_UNIT)
 public class HierarhyFacade extends AbstractFacade<Hierarhy, HierarhyAttribute>
 {
     /**
      * Subversion revision number it will be changed automatically when commited
      */
     private static final String REV_NUMBER = "$Revision:$";
+    /**
+     * Relations which are shown in the table of hierarhy nodes
+     */
+    public static final FetchPlan TABLE_FETCH = new FetchPlan(NamingConstants.ATTRIBUTES);
+    /**
+     * Maximum number of levels loaded by one subtree query
+     */
+    public static final int MAX_SUBTREE_DEPTH = 5;
+    /**
+     * Statement moves descendants of the node to the new path prefix
+     */
+    private static final String MOVE_SUBTREE =
+            "UPDATE Hierarhy h SET h.path = CONCAT(:prefix, SUBSTRING(h.path, :start)), h.depth = h.depth + :delta WHERE h.path LIKE :subtree";
+    /**
+     * Query retrieves length of the longest path in the subtree
+     */
+    private static final String MAX_SUBTREE_PATH =
+            "SELECT MAX(LENGTH(h.path)) FROM Hierarhy h WHERE h.path LIKE :subtree";
+    /**
+     * Query retrieves nodes without path whose parent has path already, i.e. the next
+     * level of the path rebuild
+     */
+    private static final String UNRESOLVED_PATHS =
+            "SELECT h FROM Hierarhy h LEFT JOIN h.parent p WHERE h.path IS NULL AND (p IS NULL OR p.path IS NOT NULL)";
+    /**
+     * Maximum number of nodes updated by one transaction of the path rebuild
+     */
+    private static final int PATH_BATCH_SIZE = 500;
     /**
      * User transaction manager
      */
@@ -64,6 +109,11 @@ public class HierarhyFacade extends AbstractFacade<Hierarhy, HierarhyAttribute>
      */
     @PersistenceContext(unitName = NamingConstants.PERSICTENCE_UNIT)
     private EntityManager em;
+    /**
+     * Entity manager of the read-only unit, it is looked up when routing is enabled,
+     * see {@link ReadRouting}
+     */
+    private EntityManager readEm;
 
     @Override
     protected EntityManager getEntityManager()
@@ -76,11 +126,380 @@ public class HierarhyFacade extends AbstractFacade<Hierarhy, HierarhyAttribute>
     {
         return userTx;
     }
+
+    @Override
+    protected EntityManager getReadOnlyEntityManager()
+    {
+        if (readEm == null && ReadRouting.isEnabled())
+            readEm = ReadRouting.lookupEntityManager();
+
+        return readEm;
+    }
+
+    /**
+     * Pivoted projection of the hierarhy attributes
+     */
+    private static final AttributeProjection projection =
+            new AttributeProjection(Hierarhy.class, HierarhyAttribute.class, NamingConstants.PARENT, "HIER_ATTR_PV");
+
+    @Override
+    protected AttributeProjection getAttributeProjection()
+    {
+        return projection;
+    }
+
+    /**
+     * Index of the hierarhy texts
+     */
+    private static final TextIndex textIndex =
+            new TextIndex(Hierarhy.class, HierarhyAttribute.class, NamingConstants.PARENT);
+
+    @Override
+    protected TextIndex getTextIndex()
+    {
+        return textIndex;
+    }
     
     public HierarhyFacade()
     {
         super(Hierarhy.class, HierarhyAttribute.class);
     }
+
+    /**
+     * Function loads subtree of the node by one query. Nodes are joined with their ancestors
+     * (Derby does not support recursive queries), so each level adds one self join.
+     * One extra level is selected to know which nodes of the last level are leaves.
+     * Loaded children lists are stored in the children cache as well
+     * @param parent - parent node, null to load subtree of the root nodes
+     * @param depth - number of levels to load, from 1 to {@link #MAX_SUBTREE_DEPTH}
+     * @return children by parent identifier (null key for root nodes). Map contains entries for
+     * the parent and for all loaded nodes whose children are known, leaf nodes have empty lists
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public Map<Long, List<Hierarhy>> findSubtree(Hierarhy parent, int depth)
+    {
+        if (depth < 1 || depth > MAX_SUBTREE_DEPTH)
+            throw (new IllegalArgumentException("Subtree depth must be from 1 to " + MAX_SUBTREE_DEPTH + ": " + depth));
+
+        BoundedCache<Long, List<Long>> cache = getChildrenCache();
+        long generation = cache.getGeneration();
+        QueryPlan plan = createPlan("subtree", (parent == null ? "root" : "parent") + '|' + depth);
+        if (parent != null)
+            plan.addValue(parent);
+
+        Query q = plan.createQuery(getEntityManager());
+        if (q == null) {
+            CriteriaBuilder builder = getEntityManager().getCriteriaBuilder();
+            CriteriaQuery<Hierarhy> cq = builder.createQuery(Hierarhy.class);
+            Root<Hierarhy> from = cq.from(Hierarhy.class);
+            cq.select(from);
+
+            /*
+             * Node of level N is selected when its ancestor N-1 levels up is the child of parent
+             */
+            Expression<Hierarhy> parentParam = parent != null ? plan.parameter(builder, Hierarhy.class) : null;
+            List<Predicate> levels = new ArrayList<Predicate>();
+            From<?, Hierarhy> ancestor = from;
+            for (int level = 1; level <= depth + 1; level++) {
+                if (level > 1)
+                    ancestor = ancestor.join(NamingConstants.PARENT, JoinType.LEFT);
+
+                Path<Hierarhy> ancestorParent = ancestor.get(NamingConstants.PARENT);
+                if (parent != null)
+                    levels.add(builder.equal(ancestorParent, parentParam));
+                else if (level == 1)
+                    levels.add(builder.isNull(ancestorParent));
+                else
+                    levels.add(builder.and(builder.isNotNull(ancestor.get(NamingConstants.ID)), builder.isNull(ancestorParent)));
+            }
+
+            cq.where(builder.or(levels.toArray(new Predicate[levels.size()])));
+            cq.orderBy(builder.asc(from.get(NamingConstants.ID)));
+            q = plan.createQuery(getEntityManager(), cq);
+        }
+
+        Map<Long, List<Hierarhy>> loaded = new HashMap<Long, List<Hierarhy>>();
+        for (Hierarhy node : (List<Hierarhy>) q.getResultList()) {
+            Long key = node.getParent() != null ? node.getParent().getId() : null;
+            List<Hierarhy> children = loaded.get(key);
+            if (children == null) {
+                children = new ArrayList<Hierarhy>();
+                loaded.put(key, children);
+            }
+
+            children.add(node);
+        }
+
+        /*
+         * Children lists are complete for the parent and for nodes of the first depth levels
+         */
+        Map<Long, List<Hierarhy>> subtree = new HashMap<Long, List<Hierarhy>>();
+        List<Long> level = new ArrayList<Long>();
+        level.add(parent != null ? parent.getId() : null);
+        for (int i = 0; i <= depth && !level.isEmpty(); i++) {
+            List<Long> next = new ArrayList<Long>();
+            for (Long id : level) {
+                List<Hierarhy> children = loaded.get(id);
+                if (children == null)
+                    children = new ArrayList<Hierarhy>();
+
+                subtree.put(id, children);
+
+                List<Long> ids = new ArrayList<Long>(children.size());
+                for (Hierarhy child : children) {
+                    ids.add(child.getId());
+                }
+
+                cache.put(id != null ? id : ROOT_KEY, Collections.unmodifiableList(ids), generation);
+                next.addAll(ids);
+            }
+
+            level = next;
+        }
+
+        return subtree;
+    }
+
+    /**
+     * Function keeps materialized path of the written nodes. Path of the new node and of its
+     * loaded children is set from the parent, when existing node is moved to another parent
+     * paths of all its descendants are changed by one bulk update. Move of the node to its own
+     * subtree is rejected before anything is written
+     * @param entity - node to write
+     * @param merge - true to merge node, false to persist it
+     * @return managed node
+     */
+    @Override
+    protected Hierarhy write(Hierarhy entity, boolean merge)
+    {
+        Hierarhy stored = merge && entity.getId() != null ? em.find(Hierarhy.class, entity.getId()) : null;
+        String oldPrefix = stored != null && stored.getPath() != null ? stored.getSubtreePath() : null;
+        int oldDepth = stored != null ? stored.getDepth() : 0;
+
+        if (oldPrefix != null && entity.getParent() != null && entity.getParent().getId() != null) {
+            Hierarhy newParent = em.find(Hierarhy.class, entity.getParent().getId());
+            if (newParent != null && newParent.getSubtreePath().startsWith(oldPrefix))
+                throw (new IllegalArgumentException("Node " + entity.getId() + " could not be moved to its own subtree"));
+        }
+
+        /*
+         * Identifiers are assigned on persist, so paths are set after that
+         */
+        Hierarhy managed = super.write(entity, merge);
+        setPaths(managed);
+
+        if (oldPrefix != null && !oldPrefix.equals(managed.getSubtreePath())) {
+            checkMovedPaths(oldPrefix, managed.getSubtreePath());
+            em.createQuery(MOVE_SUBTREE)
+                    .setParameter("prefix", managed.getSubtreePath())
+                    .setParameter("start", oldPrefix.length() + 1)
+                    .setParameter("delta", managed.getDepth() - oldDepth)
+                    .setParameter("subtree", oldPrefix + '%')
+                    .executeUpdate();
+        }
+
+        return managed;
+    }
+
+    /**
+     * Parent and path could not be changed by bulk update because paths of the
+     * descendants would not be changed
+     */
+    @Override
+    protected boolean isBulkUpdatable(String name)
+    {
+        return super.isBulkUpdatable(name) && !NamingConstants.PARENT.equals(name)
+                && !NamingConstants.PATH.equals(name) && !NamingConstants.DEPTH.equals(name);
+    }
+
+    /**
+     * Function sets materialized path of the node from its parent and of the loaded children
+     * @param node - hierarhy node
+     */
+    private static void setPaths(Hierarhy node)
+    {
+        setPath(node);
+
+        if (Persistence.getPersistenceUtil().isLoaded(node, NamingConstants.CHILDREN)) {
+            for (Hierarhy child : node.getChildren()) {
+                setPaths(child);
+            }
+        }
+    }
+
+    /**
+     * Function sets materialized path and level of the node from its parent
+     * @param node - hierarhy node
+     * @throws IllegalArgumentException if path does not fit into the path column
+     */
+    private static void setPath(Hierarhy node)
+    {
+        Hierarhy parent = node.getParent();
+        String path = parent != null ? parent.getSubtreePath() : Hierarhy.PATH_SEPARATOR;
+        if (path.length() > Hierarhy.MAX_PATH_LENGTH)
+            throw (new IllegalArgumentException("Path of the node " + node.getId() + " is longer than " + Hierarhy.MAX_PATH_LENGTH));
+
+        node.setPath(path);
+        node.setDepth(parent != null ? parent.getDepth() + 1 : 0);
+    }
+
+    /**
+     * Function checks that paths of the descendants fit into the path column after move
+     * @param oldPrefix - subtree path of the node before move
+     * @param newPrefix - subtree path of the node after move
+     * @throws IllegalArgumentException if the longest path does not fit
+     */
+    private void checkMovedPaths(String oldPrefix, String newPrefix)
+    {
+        if (newPrefix.length() <= oldPrefix.length())
+            return;
+
+        Number longest = (Number) em.createQuery(MAX_SUBTREE_PATH)
+                .setParameter("subtree", oldPrefix + '%')
+                .getSingleResult();
+        if (longest != null && longest.intValue() - oldPrefix.length() + newPrefix.length() > Hierarhy.MAX_PATH_LENGTH)
+            throw (new IllegalArgumentException("Paths of the subtree " + oldPrefix + " are longer than " + Hierarhy.MAX_PATH_LENGTH + " after move"));
+    }
+
+    /**
+     * Function sets materialized paths of the nodes which have no path, e.g. rows written before
+     * path columns were added. Paths are set level by level from the roots, every batch is
+     * written in its own transaction, so the rebuild could be interrupted and started again.
+     * Nodes which have path already are not changed
+     * @return number of the updated nodes
+     */
+    public int rebuildPaths()
+    {
+        int count = 0;
+        List<Hierarhy> level;
+        do {
+            boolean isOwnTran = false;
+            try {
+                isOwnTran = EJBUtils.beginTransaction(userTx);
+                level = em.createQuery(UNRESOLVED_PATHS, Hierarhy.class)
+                        .setMaxResults(PATH_BATCH_SIZE)
+                        .getResultList();
+                for (Hierarhy node : level) {
+                    setPath(node);
+                }
+                EJBUtils.commit(userTx, isOwnTran);
+            }
+            catch (Exception ex) {
+                EJBUtils.rollback(userTx, isOwnTran);
+                throw (new EJBException(ex));
+            }
+
+            count += level.size();
+        } while (!level.isEmpty());
+
+        return count;
+    }
+
+    /**
+     * Function creates predicate which selects descendants by the path prefix
+     * @param builder - criteria query builder
+     * @param from - root object
+     * @param plan - query plan, its next value must be the path pattern
+     * @return predicate
+     */
+    private static Predicate getDescendantsPredicate(CriteriaBuilder builder, Root<Hierarhy> from, QueryPlan plan)
+    {
+        return builder.like(from.<String>get(NamingConstants.PATH), plan.parameter(builder, String.class));
+    }
+
+    /**
+     * Function retrieves path pattern which matches all descendants of the node
+     * @param node - hierarhy node, null for the whole tree
+     * @return like pattern
+     */
+    private static String getDescendantsPattern(Hierarhy node)
+    {
+        return (node != null ? node.getSubtreePath() : Hierarhy.PATH_SEPARATOR) + '%';
+    }
+
+    /**
+     * Function loads all descendants of the node by one prefix query on the materialized path
+     * @param node - hierarhy node, null to load the whole tree
+     * @return descendants ordered by level
+     */
+    @SuppressWarnings("unchecked")
+    public List<Hierarhy> findDescendants(Hierarhy node)
+    {
+        QueryPlan plan = createPlan("descendants", "");
+        plan.addValue(getDescendantsPattern(node));
+
+        Query q = plan.createQuery(em);
+        if (q == null) {
+            CriteriaBuilder builder = em.getCriteriaBuilder();
+            CriteriaQuery<Hierarhy> cq = builder.createQuery(Hierarhy.class);
+            Root<Hierarhy> from = cq.from(Hierarhy.class);
+            cq.select(from);
+            cq.where(getDescendantsPredicate(builder, from, plan));
+            cq.orderBy(builder.asc(from.get(NamingConstants.DEPTH)), builder.asc(from.get(NamingConstants.ID)));
+            q = plan.createQuery(em, cq);
+        }
+
+        return q.getResultList();
+    }
+
+    /**
+     * Function counts all descendants of the node
+     * @param node - hierarhy node, null to count the whole tree
+     * @return descendants count
+     */
+    public int countDescendants(Hierarhy node)
+    {
+        QueryPlan plan = createPlan("countDescendants", "");
+        plan.addValue(getDescendantsPattern(node));
+
+        Query q = plan.createQuery(em);
+        if (q == null) {
+            CriteriaBuilder builder = em.getCriteriaBuilder();
+            CriteriaQuery<Long> cq = builder.createQuery(Long.class);
+            Root<Hierarhy> from = cq.from(Hierarhy.class);
+            cq.select(builder.count(from));
+            cq.where(getDescendantsPredicate(builder, from, plan));
+            q = plan.createQuery(em, cq);
+        }
+
+        return ((Long) q.getSingleResult()).intValue();
+    }
+
+    /**
+     * Function loads ancestors of the node by identifiers stored in its path
+     * @param node - hierarhy node
+     * @return ancestors from the root to the parent
+     */
+    @SuppressWarnings("unchecked")
+    public List<Hierarhy> findAncestors(Hierarhy node)
+    {
+        List<Long> ids = node.getAncestorIds();
+        if (ids.isEmpty())
+            return new ArrayList<Hierarhy>();
+
+        QueryPlan plan = createPlan("ancestors", String.valueOf(ids.size()));
+        for (Long id : ids) {
+            plan.addValue(id);
+        }
+
+        Query q = plan.createQuery(em);
+        if (q == null) {
+            CriteriaBuilder builder = em.getCriteriaBuilder();
+            CriteriaQuery<Hierarhy> cq = builder.createQuery(Hierarhy.class);
+            Root<Hierarhy> from = cq.from(Hierarhy.class);
+            CriteriaBuilder.In<Long> in = builder.in(from.<Long>get(NamingConstants.ID));
+            for (int i = 0; i < ids.size(); i++) {
+                in.value(plan.parameter(builder, Long.class));
+            }
+
+            cq.select(from);
+            cq.where(in);
+            cq.orderBy(builder.asc(from.get(NamingConstants.DEPTH)));
+            q = plan.createQuery(em, cq);
+        }
+
+        return q.getResultList();
+    }
     
     public void initData ()
     {
@@ -90,6 +509,15 @@ public class HierarhyFacade extends AbstractFacade<Hierarhy, HierarhyAttribute>
         for (Hierarhy hier : hierarhies) {
             create(hier);
         }
+
+        /*
+         * Children were persisted by cascade, so projection rows and text index are rebuilt at once
+         */
+        if (AttributeProjection.isEnabled())
+            rebuildAttributeProjection();
+
+        if (TextIndex.isEnabled())
+            rebuildTextIndex();
     }
     
     /**
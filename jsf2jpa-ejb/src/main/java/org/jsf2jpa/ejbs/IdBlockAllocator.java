@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2011 ASementsov.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jsf2jpa.ejbs;
+
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Resource;
+import javax.ejb.EJBException;
+import javax.ejb.SessionContext;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import org.jsf2jps.utils.NamingConstants;
+
+/**
+ * Class allocates blocks of identifiers in the sequence table. Every block is allocated in its own
+ * transaction, so sequence row is locked only for the time of one update and allocated block
+ * is never given out twice even if transaction of the caller is rolled back.
+ * <p>
+ * Counter has the same semantic as EclipseLink table sequence (counter holds the last allocated
+ * identifier), so identifiers allocated before continue without gaps or overlaps. Sequence row
+ * is created in the separate transaction when sequence is used first time, so the caller which
+ * loses the race for creation just increments the row created by the other one.
+ *
+ * <br/>$LastChangedRevision:$
+ * <br/>$LastChangedDate:$
+ *
+ * @author ASementsov
+ */
+@Stateless
+public class IdBlockAllocator
+{
+    /**
+     * Subversion revision number it will be changed automatically when commited
+     */
+    private static final String REV_NUMBER = "$Revision:$";
+    /**
+     * Portable JNDI name of this bean used by {@link PooledSequence}
+     */
+    public static final String JNDI_NAME = "java:module/IdBlockAllocator";
+
+
+    /**
+     * Entity manager
+     */
+    @PersistenceContext(unitName = NamingConstants.PERSICTENCE_UNIT)
+    private EntityManager em;
+    @Resource
+    private SessionContext context;
+
+    /**
+     * Function allocates block of identifiers
+     * @param table - sequence table
+     * @param nameField - sequence name column
+     * @param counterField - sequence counter column
+     * @param seqName - sequence name
+     * @param size - count of identifiers in the block
+     * @return first identifier of the block, block contains identifiers from it to <code>first + size - 1</code>
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public long allocate(String table, String nameField, String counterField, String seqName, int size)
+    {
+        if (increment(table, nameField, counterField, seqName, size))
+            return getFirst(table, nameField, counterField, seqName, size);
+
+        /*
+         * Sequence is used first time
+         */
+        try {
+            context.getBusinessObject(IdBlockAllocator.class).create(table, nameField, counterField, seqName);
+        }
+        catch (EJBException ex) {
+            /*
+             * Row was created by concurrent caller
+             */
+            Logger.getLogger(IdBlockAllocator.class.getName()).log(Level.FINE, "Sequence " + seqName + " was created concurrently", ex);
+        }
+
+        if (!increment(table, nameField, counterField, seqName, size))
+            throw (new IllegalStateException("Unable to create sequence " + seqName));
+
+        return getFirst(table, nameField, counterField, seqName, size);
+    }
+
+    /**
+     * Function creates sequence row with zero counter
+     * @param table - sequence table
+     * @param nameField - sequence name column
+     * @param counterField - sequence counter column
+     * @param seqName - sequence name
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void create(String table, String nameField, String counterField, String seqName)
+    {
+        em.createNativeQuery("INSERT INTO " + table + " (" + nameField + ", " + counterField + ") VALUES (?, ?)")
+                .setParameter(1, seqName)
+                .setParameter(2, 0)
+                .executeUpdate();
+    }
+
+    /**
+     * Function increments sequence counter by block size
+     * @return true if sequence row exists
+     */
+    private boolean increment(String table, String nameField, String counterField, String seqName, int size)
+    {
+        return em.createNativeQuery("UPDATE " + table + " SET " + counterField + " = " + counterField + " + ? WHERE " + nameField + " = ?")
+                .setParameter(1, size)
+                .setParameter(2, seqName)
+                .executeUpdate() > 0;
+    }
+
+    /**
+     * Function calculates first identifier of the block allocated by {@link #increment}
+     * @return first identifier of the block
+     */
+    private long getFirst(String table, String nameField, String counterField, String seqName, int size)
+    {
+        List<?> count = em.createNativeQuery("SELECT " + counterField + " FROM " + table + " WHERE " + nameField + " = ?")
+                .setParameter(1, seqName)
+                .getResultList();
+        return ((Number) count.get(0)).longValue() - size + 1;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2011 ASementsov.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jsf2jpa.ejbs;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.ejb.DependsOn;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+
+/**
+ * Class fills materialized paths of the hierarhy nodes which were written before
+ * path columns were added, otherwise subtree queries miss these nodes
+ *
+ * <br/>$LastChangedRevision:$
+ * <br/>$LastChangedDate:$
+ *
+ * @author ASementsov
+ */
+@Singleton
+@DependsOn("SchemaProvisioner")
+@Startup
+public class PathLoader
+{
+    /**
+     * Subversion revision number it will be changed automatically when commited
+     */
+    private static final String REV_NUMBER = "$Revision:$";
+
+    @EJB
+    private HierarhyFacade      hier;
+
+    @PostConstruct
+    public void load()
+    {
+        try {
+            int count = hier.rebuildPaths();
+            if (count > 0) {
+                Logger.getLogger(PathLoader.class.getName()).log(Level.INFO, "Paths of {0} hierarhy nodes were rebuilt", count);
+            }
+        }
+        catch (RuntimeException ex) {
+            /*
+             * Path columns are missing or path is too long, subtree queries miss the nodes without path
+             */
+            Logger.getLogger(PathLoader.class.getName()).log(Level.SEVERE, "Unable to rebuild hierarhy paths", ex);
+        }
+    }
+}
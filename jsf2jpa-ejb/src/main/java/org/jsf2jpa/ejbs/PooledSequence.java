@@ -0,0 +1,200 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2011 ASementsov.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jsf2jpa.ejbs;
+
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import org.eclipse.persistence.internal.databaseaccess.Accessor;
+import org.eclipse.persistence.internal.sessions.AbstractSession;
+import org.eclipse.persistence.sequencing.TableSequence;
+
+/**
+ * Class implements pooled (hi/lo) sequence. Blocks of identifiers are allocated by
+ * {@link IdBlockAllocator} in separate transactions, identifiers of the current block are
+ * handed out by atomic counter without any locks. Lock is taken only to allocate next block
+ * when the current one is exhausted.
+ * <p>
+ * EclipseLink preallocation is switched off for this sequence, it asks the sequence for every
+ * identifier, see {@link #shouldUsePreallocation()}. Sequence is a table sequence, so sequence
+ * table is still created and initialized by schema generation.
+ * <p>
+ * Allocator is looked up in the module namespace, which is not available on the threads
+ * without component context (asynchronous and timer threads of the container, Java SE).
+ * On these threads identifiers are taken one by one by the table sequence in the transaction
+ * of the caller, counter is shared, so both ways never give out the same identifier
+ *
+ * <br/>$LastChangedRevision:$
+ * <br/>$LastChangedDate:$
+ *
+ * @author ASementsov
+ */
+public class PooledSequence extends TableSequence
+{
+    /**
+     * Subversion revision number it will be changed automatically when commited
+     */
+    private static final String REV_NUMBER = "$Revision:$";
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Block of identifiers
+     */
+    private static final class Block
+    {
+        private final AtomicLong    next;
+        private final long          last;
+
+        private Block(long first, int size)
+        {
+            this.next = new AtomicLong(first);
+            this.last = first + size - 1;
+        }
+    }
+
+    private transient volatile Block    block;
+    /**
+     * Block allocator, it is looked up when the first block is allocated
+     */
+    private transient volatile IdBlockAllocator allocator;
+    /**
+     * Flag indicates that fallback to the table sequence was logged
+     */
+    private transient volatile boolean  fallbackLogged;
+
+    /**
+     * Constructor
+     * @param name - sequence name
+     * @param size - count of identifiers allocated at once
+     */
+    public PooledSequence(String name, int size)
+    {
+        super(name, size);
+    }
+
+    @Override
+    public Object getGeneratedValue(Accessor accessor, AbstractSession writeSession, String seqName)
+    {
+        for (;;) {
+            Block current = block;
+            if (current != null) {
+                long id = current.next.getAndIncrement();
+                if (id <= current.last)
+                    return Long.valueOf(id);
+            }
+
+            IdBlockAllocator blockAllocator = getAllocator();
+            if (blockAllocator == null)
+                return super.getGeneratedValue(accessor, writeSession, seqName);
+
+            synchronized (this) {
+                /*
+                 * Other thread could allocate block while this one was waiting
+                 */
+                if (block == current)
+                    block = new Block(allocate(blockAllocator, seqName), getPreallocationSize());
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public Vector getGeneratedVector(Accessor accessor, AbstractSession writeSession, String seqName, int size)
+    {
+        Vector values = new Vector(size);
+        for (int i = 0; i < size; i++) {
+            values.add(getGeneratedValue(accessor, writeSession, seqName));
+        }
+
+        return values;
+    }
+
+    @Override
+    public boolean shouldAcquireValueAfterInsert()
+    {
+        return false;
+    }
+
+    @Override
+    public boolean shouldUsePreallocation()
+    {
+        return false;
+    }
+
+    @Override
+    public boolean shouldUseTransaction()
+    {
+        return false;
+    }
+
+    @Override
+    public void onDisconnect()
+    {
+        block = null;
+        allocator = null;
+        super.onDisconnect();
+    }
+
+    /**
+     * Function allocates next block of identifiers
+     * @param blockAllocator - block allocator
+     * @param seqName - sequence name
+     * @return first identifier of the block
+     */
+    private long allocate(IdBlockAllocator blockAllocator, String seqName)
+    {
+        return blockAllocator.allocate(getTableName(), getNameFieldName(), getCounterFieldName(), seqName, getPreallocationSize());
+    }
+
+    /**
+     * Function looks up block allocator once. Sequence is called by EclipseLink from the facade
+     * which persists entities, so allocator is found in the facade module. Reference to the
+     * stateless bean could be shared by all threads
+     * @return block allocator or null if it is not available on this thread
+     */
+    private IdBlockAllocator getAllocator()
+    {
+        IdBlockAllocator current = allocator;
+        if (current != null)
+            return current;
+
+        try {
+            current = (IdBlockAllocator) new InitialContext().lookup(IdBlockAllocator.JNDI_NAME);
+            allocator = current;
+            return current;
+        }
+        catch (NamingException ex) {
+            if (!fallbackLogged) {
+                fallbackLogged = true;
+                Logger.getLogger(PooledSequence.class.getName()).log(Level.WARNING,
+                        "Identifier allocator is not available, identifiers of " + getName() + " are taken one by one", ex);
+            }
+
+            return null;
+        }
+    }
+}
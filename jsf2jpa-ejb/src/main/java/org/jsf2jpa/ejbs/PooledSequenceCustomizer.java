@@ -0,0 +1,75 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2011 ASementsov.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jsf2jpa.ejbs;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.eclipse.persistence.config.SessionCustomizer;
+import org.eclipse.persistence.sessions.Session;
+
+/**
+ * Class installs {@link PooledSequence} for all entity sequences. Allocation size could be
+ * changed for every sequence by system property <code>org.jsf2jpa.idAllocation.&lt;sequence&gt;</code>,
+ * e.g. <code>-Dorg.jsf2jpa.idAllocation.CAR_ATTR_SEQ=1000</code>
+ *
+ * <br/>$LastChangedRevision:$
+ * <br/>$LastChangedDate:$
+ *
+ * @author ASementsov
+ */
+public class PooledSequenceCustomizer implements SessionCustomizer
+{
+    /**
+     * Subversion revision number it will be changed automatically when commited
+     */
+    private static final String REV_NUMBER = "$Revision:$";
+    public static final String  SIZE_PROPERTY_PREFIX = "org.jsf2jpa.idAllocation.";
+
+    /**
+     * Default allocation sizes by sequence name. Attributes are created several per entity,
+     * reference entities are created rarely
+     */
+    private static final Map<String, Integer> DEFAULT_SIZES = new LinkedHashMap<String, Integer>();
+    static {
+        DEFAULT_SIZES.put("MANUF_SEQ", 10);
+        DEFAULT_SIZES.put("CM_SEQ", 20);
+        DEFAULT_SIZES.put("CAR_SEQ", 100);
+        DEFAULT_SIZES.put("CAR_ATTR_SEQ", 500);
+        DEFAULT_SIZES.put("HIER_SEQ", 100);
+        DEFAULT_SIZES.put("HIER_ATTR_SEQ", 500);
+        DEFAULT_SIZES.put("AUDIT_SEQ", 1000);
+    }
+
+    @Override
+    public void customize(Session session) throws Exception
+    {
+        for (Map.Entry<String, Integer> seq : DEFAULT_SIZES.entrySet()) {
+            int size = Integer.getInteger(SIZE_PROPERTY_PREFIX + seq.getKey(), seq.getValue());
+            if (size <= 0)
+                throw (new IllegalArgumentException("Allocation size of " + seq.getKey() + " must be positive: " + size));
+
+            session.getLogin().addSequence(new PooledSequence(seq.getKey(), size));
+        }
+    }
+}
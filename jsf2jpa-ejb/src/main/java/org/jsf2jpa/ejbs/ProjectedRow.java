@@ -0,0 +1,155 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2011 ASementsov.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jsf2jpa.ejbs;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import org.jsf2jpa.entities.AbstractAttribute;
+import org.jsf2jps.utils.NamingConstants;
+
+/**
+ * Class holds read only row of the projection query. Row contains only selected columns
+ * of the entity and selected external attributes, it is not managed by persistence context.
+ * <p>
+ * Row is a map, so expressions written for entities work for rows as well, e.g.
+ * <code>row.name</code> or <code>row.model.name</code>. Attributes are detached attribute
+ * objects, see {@link #getAttribute(String)}.
+ *
+ * <br/>$LastChangedRevision:$
+ * <br/>$LastChangedDate:$
+ *
+ * @author ASementsov
+ */
+public class ProjectedRow extends AbstractMap<String, Object> implements Serializable
+{
+    /**
+     * Subversion revision number it will be changed automatically when commited
+     */
+    private static final String REV_NUMBER = "$Revision:$";
+    private static final long serialVersionUID = 1L;
+
+    private final Long                              id;
+    private final Map<String, Object>               values = new HashMap<String, Object>();
+    private final Map<String, AbstractAttribute>    attributes = new HashMap<String, AbstractAttribute>();
+
+    /**
+     * Constructor
+     * @param id - entity identifier
+     */
+    public ProjectedRow(Long id)
+    {
+        this.id = id;
+        values.put(NamingConstants.ID, id);
+    }
+
+    public Long getId()
+    {
+        return id;
+    }
+
+    /**
+     * Function retrieves value of the selected path
+     * @param path - path relative to the entity, e.g. <code>name</code> or <code>model.name</code>
+     * @return value or null if path was not selected
+     */
+    @SuppressWarnings("unchecked")
+    public Object getValue(String path)
+    {
+        Object value = values;
+        for (String field : path.split("\\.")) {
+            if (!(value instanceof Map))
+                return null;
+
+            value = ((Map<String, Object>) value).get(field);
+        }
+
+        return value;
+    }
+
+    /**
+     * Function sets value of the path, nested paths are stored as nested maps
+     * @param path - path relative to the entity
+     * @param value - path value
+     */
+    @SuppressWarnings("unchecked")
+    void setValue(String path, Object value)
+    {
+        Map<String, Object> map = values;
+        String[] fields = path.split("\\.");
+        for (int i = 0; i < fields.length - 1; i++) {
+            Object nested = map.get(fields[i]);
+            if (!(nested instanceof Map)) {
+                nested = new HashMap<String, Object>();
+                map.put(fields[i], nested);
+            }
+
+            map = (Map<String, Object>) nested;
+        }
+
+        map.put(fields[fields.length - 1], value);
+    }
+
+    /**
+     * Function retrieves external attribute
+     * @param name - attribute name
+     * @return attribute or null if entity does not have such attribute or it was not selected
+     */
+    public AbstractAttribute getAttribute(String name)
+    {
+        return attributes.get(name);
+    }
+
+    void addAttribute(AbstractAttribute attribute)
+    {
+        attributes.put(attribute.getName(), attribute);
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet()
+    {
+        return Collections.unmodifiableMap(values).entrySet();
+    }
+
+    @Override
+    public Object get(Object key)
+    {
+        return values.get(key);
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        return obj instanceof ProjectedRow && id != null && id.equals(((ProjectedRow) obj).id);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return id != null ? id.hashCode() : 0;
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2011 ASementsov.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jsf2jpa.ejbs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.ParameterExpression;
+import org.eclipse.persistence.internal.sessions.DatabaseRecord;
+import org.eclipse.persistence.jpa.JpaEntityManager;
+import org.eclipse.persistence.jpa.JpaQuery;
+import org.eclipse.persistence.queries.DatabaseQuery;
+import org.jsf2jps.utils.BoundedCache;
+
+/**
+ * Class implements cache of compiled queries. Criteria query is built and translated to SQL
+ * only once for every query shape (set of filtered columns, operators, sort field and direction).
+ * All parameter values are bound to the query, so subsequent requests with the same shape
+ * reuse compiled EclipseLink query and only bind new values.
+ * <p>
+ * Usage:
+ * <code>
+ * QueryPlan plan = new QueryPlan(shape);
+ * plan.addValue(...);
+ * Query q = plan.createQuery(em);
+ * if (q == null) {
+ *     ... build criteria query using plan.parameter(...) in the same order as values were added
+ *     q = plan.createQuery(em, cq);
+ * }
+ * </code>
+ *
+ * <br/>$LastChangedRevision:$
+ * <br/>$LastChangedDate:$
+ *
+ * @author ASementsov
+ */
+public class QueryPlan
+{
+    /**
+     * Customizer changes EclipseLink query built from criteria query before it is compiled.
+     * It is used to add conditions which could not be expressed by criteria API
+     */
+    public interface Customizer
+    {
+        /**
+         * Function changes query
+         * @param em - entity manager
+         * @param query - EclipseLink query built from criteria query
+         * @param plan - query plan, parameters must be created by {@link QueryPlan#parameterName()}
+         */
+        void customize(EntityManager em, DatabaseQuery query, QueryPlan plan);
+    }
+
+    /**
+     * Subversion revision number it will be changed automatically when commited
+     */
+    private static final String REV_NUMBER = "$Revision:$";
+    /**
+     * Maximum number of compiled queries
+     */
+    private static final int    PLAN_CACHE_SIZE = 256;
+    private static final String PARAMETER_PREFIX = "p";
+    /**
+     * Compiled queries by shape. Compiled queries are never expired because
+     * query translation does not depend on data
+     */
+    private static final BoundedCache<String, DatabaseQuery> plans =
+            new BoundedCache<String, DatabaseQuery>(PLAN_CACHE_SIZE, 0);
+
+    private final String        shape;
+    private final List<Object>  values = new ArrayList<Object>();
+    private final List<Customizer> customizers = new ArrayList<Customizer>();
+    private final List<Object[]> hints = new ArrayList<Object[]>();
+    private int                 parameters;
+
+    /**
+     * Constructor
+     * @param shape - query shape, it must contain everything what changes SQL statement except parameter values
+     */
+    public QueryPlan(String shape)
+    {
+        this.shape = shape;
+    }
+
+    public String getShape()
+    {
+        return shape;
+    }
+
+    /**
+     * Function adds value of the next parameter
+     * @param value - parameter value
+     */
+    public void addValue(Object value)
+    {
+        values.add(value);
+    }
+
+    /**
+     * Function creates next parameter of the criteria query. Parameters must be created in the same order as
+     * values were added
+     * @param builder - criteria builder
+     * @param type - parameter type
+     * @return parameter expression
+     */
+    public <X> ParameterExpression<X> parameter(CriteriaBuilder builder, Class<X> type)
+    {
+        return builder.parameter(type, parameterName());
+    }
+
+    /**
+     * Retrieves parameter values in the order of parameters
+     * @return parameter values
+     */
+    public List<Object> getValues()
+    {
+        return Collections.unmodifiableList(values);
+    }
+
+    /**
+     * Function creates name of the parameter
+     * @param index - parameter index
+     * @return parameter name
+     */
+    public static String getParameterName(int index)
+    {
+        return PARAMETER_PREFIX + index;
+    }
+
+    /**
+     * Function creates name of the next parameter
+     * @return parameter name
+     */
+    public String parameterName()
+    {
+        return getParameterName(parameters++);
+    }
+
+    /**
+     * Function adds query hint which is applied when query is compiled. The same hint
+     * could be added several times, e.g. batch fetch of several relations
+     * @param name - hint name
+     * @param value - hint value
+     */
+    public void addHint(String name, Object value)
+    {
+        hints.add(new Object[] {name, value});
+    }
+
+    /**
+     * Function adds customizer which is called when query is compiled. Customizers are called
+     * after criteria query is built, so their parameter values must be added last
+     * @param customizer - query customizer
+     */
+    public void addCustomizer(Customizer customizer)
+    {
+        customizers.add(customizer);
+    }
+
+    /**
+     * Function creates query from the compiled query of the same shape
+     * @param em - entity manager
+     * @return query with bound parameters or null if this shape was not compiled yet
+     */
+    public Query createQuery(EntityManager em)
+    {
+        DatabaseQuery compiled = plans.get(shape);
+        if (compiled == null)
+            return null;
+
+        /*
+         * Clone keeps prepared SQL but allows to change paging without corrupting shared query
+         */
+        Query q = em.unwrap(JpaEntityManager.class).createQuery((DatabaseQuery) compiled.clone());
+        return bind(q);
+    }
+
+    /**
+     * Function compiles criteria query and stores it in the cache
+     * @param em - entity manager
+     * @param cq - criteria query built with parameters of this plan
+     * @return query with bound parameters
+     */
+    public Query createQuery(EntityManager em, CriteriaQuery<?> cq)
+    {
+        long generation = plans.getGeneration();
+        Query q = em.createQuery(cq);
+
+        for (Object[] hint : hints) {
+            q.setHint((String) hint[0], hint[1]);
+        }
+
+        if (!customizers.isEmpty()) {
+            DatabaseQuery query = q.unwrap(JpaQuery.class).getDatabaseQuery();
+            for (Customizer customizer : customizers) {
+                customizer.customize(em, query, this);
+            }
+        }
+
+        try {
+            JpaEntityManager jpaEm = em.unwrap(JpaEntityManager.class);
+            DatabaseQuery compiled = (DatabaseQuery) q.unwrap(JpaQuery.class).getDatabaseQuery().clone();
+            compiled.prepareCall(jpaEm.getServerSession(), new DatabaseRecord());
+            plans.put(shape, compiled, generation);
+        }
+        catch (RuntimeException ex) {
+            /*
+             * Query could be executed without cache
+             */
+            Logger.getLogger(QueryPlan.class.getName()).log(Level.WARNING, "Unable to compile query " + shape, ex);
+        }
+
+        return bind(q);
+    }
+
+    private Query bind(Query q)
+    {
+        for (int i = 0; i < values.size(); i++) {
+            q.setParameter(getParameterName(i), values.get(i));
+        }
+
+        return q;
+    }
+
+    /**
+     * Retrieves number of queries taken from cache
+     * @return cache hits
+     */
+    public static long getHits()
+    {
+        return plans.getHits();
+    }
+
+    /**
+     * Retrieves number of queries which were compiled
+     * @return cache misses
+     */
+    public static long getMisses()
+    {
+        return plans.getMisses();
+    }
+
+    /**
+     * Function drops all compiled queries
+     */
+    public static void clear()
+    {
+        plans.invalidate();
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2011 ASementsov.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jsf2jpa.ejbs;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.metamodel.EntityType;
+import org.eclipse.persistence.descriptors.ClassDescriptor;
+import org.eclipse.persistence.jpa.JpaEntityManager;
+import org.eclipse.persistence.mappings.DatabaseMapping;
+import org.eclipse.persistence.mappings.OneToOneMapping;
+import org.eclipse.persistence.sessions.Session;
+import org.jsf2jpa.entities.TableIndex;
+import org.jsf2jpa.entities.TableIndexes;
+import org.jsf2jps.utils.NamingConstants;
+
+/**
+ * Class creates secondary indexes declared by {@link TableIndexes} on the entities
+ * when application is started. JPA 2.0 has no index annotation and the schema
+ * generated by the provider has only primary keys and constraints, so filtered
+ * queries, tree navigation and sorting scan the whole tables without them.
+ * Index is not created if the table already has index with the same leading columns,
+ * provisioning could be switched off by system property {@link #ENABLED_PROPERTY}
+ * when the schema is managed by DBA. After creation indexes are read from database metadata
+ * again, declared indexes which are not found are reported, see {@link #getMissingIndexes()}.
+ *
+ * <br/>$LastChangedRevision:$
+ * <br/>$LastChangedDate:$
+ *
+ * @author ASementsov
+ */
+@Singleton
+@Startup
+public class SchemaProvisioner
+{
+    /**
+     * Subversion revision number it will be changed automatically when commited
+     */
+    private static final String REV_NUMBER = "$Revision:$";
+    /**
+     * System property which switches off index provisioning
+     */
+    public static final String ENABLED_PROPERTY = "org.jsf2jpa.indexProvisioning";
+
+    @PersistenceContext(unitName = NamingConstants.PERSICTENCE_UNIT)
+    private EntityManager       em;
+    /**
+     * Declared indexes which were not found in database after provisioning
+     */
+    private List<String>        missing = new ArrayList<String>();
+
+    /**
+     * @return true if indexes are provisioned at startup
+     */
+    public static boolean isEnabled()
+    {
+        return !"false".equalsIgnoreCase(System.getProperty(ENABLED_PROPERTY));
+    }
+
+    @PostConstruct
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void provision()
+    {
+        if (!isEnabled())
+            return;
+
+        missing = provision(em);
+        if (!missing.isEmpty()) {
+            Logger.getLogger(SchemaProvisioner.class.getName()).log(Level.SEVERE,
+                    "Declared indexes are missing, filtered queries scan whole tables: {0}", missing);
+        }
+    }
+
+    /**
+     * Function retrieves declared indexes which were not found in database after provisioning.
+     * Indexes which could not be checked because of database error are missing too
+     * @return list of <code>TABLE.INDEX</code> names, empty if all indexes exist
+     */
+    public List<String> getMissingIndexes()
+    {
+        return new ArrayList<String>(missing);
+    }
+
+    /**
+     * Function creates declared indexes of all entities and checks that they exist
+     * @param em - entity manager, it must be joined to transaction
+     * @return list of <code>TABLE.INDEX</code> names of the missing indexes
+     */
+    static List<String> provision(EntityManager em)
+    {
+        Map<String, List<String>> declared = new LinkedHashMap<String, List<String>>();
+        try {
+            Connection con = em.unwrap(Connection.class);
+            Session session = em.unwrap(JpaEntityManager.class).getServerSession();
+
+            for (EntityType<?> type : em.getMetamodel().getEntities()) {
+                TableIndexes indexes = type.getJavaType().getAnnotation(TableIndexes.class);
+                if (indexes == null)
+                    continue;
+
+                ClassDescriptor descriptor = session.getDescriptor(type.getJavaType());
+                String table = descriptor.getTableName();
+                for (TableIndex index : indexes.value()) {
+                    declared.put(table + "." + index.name(), null);
+                }
+
+                Map<String, List<String>> existing = findIndexes(con, table);
+                for (TableIndex index : indexes.value()) {
+                    List<String> columns = resolveColumns(descriptor, index);
+                    declared.put(table + "." + index.name(), columns);
+                    createIndex(con, table, index, columns, existing);
+                }
+
+                /*
+                 * Metadata is read again, so failed or silently ignored statements are found
+                 */
+                existing = findIndexes(con, table);
+                for (TableIndex index : indexes.value()) {
+                    String name = table + "." + index.name();
+                    if (findCovering(existing, declared.get(name)) != null)
+                        declared.remove(name);
+                }
+            }
+        }
+        catch (SQLException ex) {
+            /*
+             * Application works without secondary indexes, only slower
+             */
+            Logger.getLogger(SchemaProvisioner.class.getName()).log(Level.WARNING, "Unable to provision indexes", ex);
+        }
+        catch (RuntimeException ex) {
+            Logger.getLogger(SchemaProvisioner.class.getName()).log(Level.WARNING, "Unable to provision indexes", ex);
+        }
+
+        return new ArrayList<String>(declared.keySet());
+    }
+
+    /**
+     * Function creates index if the table has no index which starts with the same columns
+     * @param con - connection
+     * @param table - table name
+     * @param index - index declaration
+     * @param columns - index columns
+     * @param existing - columns of the existing indexes by index name, created index is added to it
+     */
+    private static void createIndex(Connection con, String table, TableIndex index, List<String> columns, Map<String, List<String>> existing)
+    {
+        Logger log = Logger.getLogger(SchemaProvisioner.class.getName());
+        String covering = findCovering(existing, columns);
+        if (covering != null) {
+            log.log(Level.FINE, "Index {0} of {1} is covered by {2}", new Object[] {index.name(), table, covering});
+            return;
+        }
+
+        StringBuilder sql = new StringBuilder("CREATE INDEX ");
+        sql.append(index.name()).append(" ON ").append(table).append(" (");
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0)
+                sql.append(", ");
+
+            sql.append(columns.get(i));
+        }
+        sql.append(')');
+
+        try {
+            log.log(Level.FINE, sql.toString());
+            Statement st = con.createStatement();
+            try {
+                st.executeUpdate(sql.toString());
+            }
+            finally {
+                st.close();
+            }
+
+            existing.put(index.name().toUpperCase(), columns);
+            log.log(Level.INFO, "Index {0} of {1} is created", new Object[] {index.name(), table});
+        }
+        catch (SQLException ex) {
+            log.log(Level.WARNING, "Unable to create index " + index.name() + " of " + table, ex);
+        }
+    }
+
+    /**
+     * Function finds index which starts with the same columns
+     * @param existing - columns of the existing indexes by index name
+     * @param columns - index columns
+     * @return name of the covering index or null if there is no such index
+     */
+    private static String findCovering(Map<String, List<String>> existing, List<String> columns)
+    {
+        if (columns == null)
+            return null;
+
+        for (Map.Entry<String, List<String>> entry : existing.entrySet()) {
+            List<String> found = entry.getValue();
+            if (found.size() >= columns.size() && found.subList(0, columns.size()).equals(columns))
+                return entry.getKey();
+        }
+
+        return null;
+    }
+
+    /**
+     * Function resolves index columns, single valued relations are replaced
+     * by their foreign key columns
+     * @param descriptor - entity descriptor
+     * @param index - index declaration
+     * @return upper case column names
+     */
+    private static List<String> resolveColumns(ClassDescriptor descriptor, TableIndex index)
+    {
+        List<String> columns = new ArrayList<String>();
+        for (String attribute : index.columns()) {
+            DatabaseMapping mapping = descriptor.getMappingForAttributeName(attribute);
+            if (mapping == null)
+                throw (new IllegalArgumentException("Unknown attribute " + attribute + " of index " + index.name()));
+
+            if (mapping instanceof OneToOneMapping)
+                columns.add(((OneToOneMapping) mapping).getForeignKeyFields().get(0).getName().toUpperCase());
+            else
+                columns.add(mapping.getField().getName().toUpperCase());
+        }
+
+        return columns;
+    }
+
+    /**
+     * Function reads indexes of the table from database metadata
+     * @param con - connection
+     * @param table - table name
+     * @return upper case columns of the indexes in the index order by index name
+     */
+    private static Map<String, List<String>> findIndexes(Connection con, String table) throws SQLException
+    {
+        Map<String, List<String>> indexes = new LinkedHashMap<String, List<String>>();
+        ResultSet rs = con.getMetaData().getIndexInfo(null, null, table.toUpperCase(), false, true);
+        try {
+            while (rs.next()) {
+                String name = rs.getString("INDEX_NAME");
+                String column = rs.getString("COLUMN_NAME");
+                if (name == null || column == null)
+                    continue;
+
+                List<String> columns = indexes.get(name);
+                if (columns == null) {
+                    columns = new ArrayList<String>();
+                    indexes.put(name, columns);
+                }
+
+                /*
+                 * Rows are ordered by ORDINAL_POSITION inside of the index
+                 */
+                columns.add(column.toUpperCase());
+            }
+        }
+        finally {
+            rs.close();
+        }
+
+        return indexes;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2011 ASementsov.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jsf2jpa.ejbs;
+
+import java.io.Serializable;
+
+/**
+ * Class describes position of the row in the sorted result set. It is used by keyset
+ * (seek) pagination: next page is selected by range predicate on the sort field and identifier
+ * instead of skipping all previous rows with offset.
+ *
+ * <br/>$LastChangedRevision:$
+ * <br/>$LastChangedDate:$
+ *
+ * @author ASementsov
+ */
+public class SeekKey implements Serializable
+{
+    /**
+     * Subversion revision number it will be changed automatically when commited
+     */
+    private static final String REV_NUMBER = "$Revision:$";
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Entity attribute used to sort, null if rows are sorted by identifier only
+     */
+    private final String        sortField;
+    /**
+     * Value of the sort attribute in the last row
+     */
+    private final Comparable    sortValue;
+    /**
+     * Identifier of the last row
+     */
+    private final Long          id;
+
+    /**
+     * Constructor
+     * @param sortField - entity attribute used to sort
+     * @param sortValue - value of the sort attribute in the last row
+     * @param id - identifier of the last row
+     */
+    public SeekKey(String sortField, Comparable sortValue, Long id)
+    {
+        this.sortField = sortField;
+        this.sortValue = sortValue;
+        this.id = id;
+    }
+
+    public String getSortField()
+    {
+        return sortField;
+    }
+
+    public Comparable getSortValue()
+    {
+        return sortValue;
+    }
+
+    public Long getId()
+    {
+        return id;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "SeekKey[" + sortField + "=" + sortValue + ", id=" + id + "]";
+    }
+}
@@ -0,0 +1,477 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2011 ASementsov.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jsf2jpa.ejbs;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.persistence.EntityManager;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import javax.transaction.Status;
+import javax.transaction.TransactionSynchronizationRegistry;
+import org.jsf2jpa.entities.AbstractAttribute;
+import org.jsf2jpa.entities.BaseEntity;
+import org.jsf2jpa.entities.DataType;
+import org.jsf2jps.utils.NamingConstants;
+
+/**
+ * Class implements in-memory inverted index of the entity texts: name, description and
+ * values of the string attributes. Every text is split to trigrams, posting list of the
+ * trigram holds identifiers of the entities which text contains it. Contains filter is
+ * resolved by intersection of the posting lists of its trigrams, candidates are checked
+ * against indexed texts, so the result is exact for the indexed data.
+ * <p>
+ * Index restricts filters by the found identifiers, so entities missing in the index are not found.
+ * Index lives in one JVM and sees only writes made through facades of this JVM, it could not tell
+ * if it is stale. So it is optional and used only when system property {@link #ENABLED_PROPERTY}
+ * is <code>true</code>, the property declares that the application runs on one node and the
+ * indexed tables are never changed by other applications or native statements. Otherwise filters
+ * use database predicates only.
+ * <p>
+ * Entity listener tracks identifiers of all entities written by the transaction (including
+ * cascaded children and attributes), facade refreshes their entries after commit. Bulk updates
+ * of the indexed fields make index not ready until it is rebuilt. Changes which could not be
+ * applied while index was rebuilt make the rebuilt index not ready too, so filters use database
+ * until index is known to be complete.
+ *
+ * <br/>$LastChangedRevision:$
+ * <br/>$LastChangedDate:$
+ *
+ * @author ASementsov
+ */
+public class TextIndex
+{
+    /**
+     * Subversion revision number it will be changed automatically when commited
+     */
+    private static final String REV_NUMBER = "$Revision:$";
+    /**
+     * System property which enables text index. It declares that the index is complete:
+     * the only writer of the indexed tables is this JVM and all writes go through facades
+     */
+    public static final String  ENABLED_PROPERTY = "org.jsf2jpa.textIndex.authoritative";
+    /**
+     * Length of the indexed token, shorter filters could not use index
+     */
+    public static final int     GRAM_LENGTH = 3;
+    private static final int    MAX_BULK_IDS = 1000;
+    private static final String ATTRIBUTE_PREFIX = "@";
+    /**
+     * Separator of several values of the same attribute, it is never found in filters
+     */
+    private static final char   VALUE_SEPARATOR = '\u0000';
+    private static final String REGISTRY_JNDI_NAME = "java:comp/TransactionSynchronizationRegistry";
+
+    /**
+     * Texts and posting lists of one indexed field
+     */
+    private static class Field
+    {
+        final Map<Long, String>         texts = new HashMap<Long, String>();
+        final Map<String, Set<Long>>    postings = new HashMap<String, Set<Long>>();
+    }
+
+    private final Class<?>                          entityClass;
+    private final Class<? extends AbstractAttribute> attributesClass;
+    private final String                            joinColumn;
+    private final Map<String, Field>                fields = new HashMap<String, Field>();
+    private final ReadWriteLock                     lock = new ReentrantReadWriteLock();
+    private volatile boolean                        ready;
+    /**
+     * Count of the changes which were not applied to the index
+     */
+    private final AtomicLong                        skipped = new AtomicLong();
+
+    /**
+     * Constructor
+     * @param entityClass - entity class
+     * @param attributesClass - entity attributes class
+     * @param joinColumn - column of base object in attribute object
+     */
+    public TextIndex(Class<?> entityClass, Class<? extends AbstractAttribute> attributesClass, String joinColumn)
+    {
+        this.entityClass = entityClass;
+        this.attributesClass = attributesClass;
+        this.joinColumn = joinColumn;
+    }
+
+    /**
+     * Function checks if text indexes are enabled
+     * @return true if indexes are enabled
+     */
+    public static boolean isEnabled()
+    {
+        return Boolean.getBoolean(ENABLED_PROPERTY);
+    }
+
+    /**
+     * Function checks if index was built and was not invalidated after that
+     * @return true if index could be used
+     */
+    public boolean isReady()
+    {
+        return ready;
+    }
+
+    /**
+     * Function marks index as not ready, e.g. after bulk update of the indexed texts
+     */
+    public void invalidate()
+    {
+        skipped.incrementAndGet();
+        ready = false;
+    }
+
+    /**
+     * Function remembers identifier of the written entity in the current transaction.
+     * Attribute changes are remembered as changes of their owner. It is called by entity
+     * listener, nothing is tracked outside of transaction
+     * @param entity - written entity
+     */
+    @SuppressWarnings("unchecked")
+    public static void track(BaseEntity entity)
+    {
+        if (!isEnabled())
+            return;
+
+        BaseEntity owner = entity instanceof AbstractAttribute ? ((AbstractAttribute) entity).getParent() : entity;
+        if (owner == null || owner.getId() == null)
+            return;
+
+        TransactionSynchronizationRegistry registry = getRegistry();
+        if (registry == null || registry.getTransactionStatus() != Status.STATUS_ACTIVE)
+            return;
+
+        Map<Class<?>, Set<Long>> tracked = (Map<Class<?>, Set<Long>>) registry.getResource(TextIndex.class);
+        if (tracked == null) {
+            tracked = new HashMap<Class<?>, Set<Long>>();
+            registry.putResource(TextIndex.class, tracked);
+        }
+
+        Set<Long> ids = tracked.get(owner.getClass());
+        if (ids == null) {
+            ids = new HashSet<Long>();
+            tracked.put(owner.getClass(), ids);
+        }
+
+        ids.add(owner.getId());
+    }
+
+    /**
+     * Function retrieves identifiers of the indexed entities written in the current transaction
+     * after the previous call. Changes must be flushed before the call
+     * @param ids - identifiers (in, out)
+     */
+    @SuppressWarnings("unchecked")
+    public void takeTracked(Collection<Long> ids)
+    {
+        if (!isEnabled())
+            return;
+
+        TransactionSynchronizationRegistry registry = getRegistry();
+        if (registry == null || registry.getTransactionStatus() != Status.STATUS_ACTIVE)
+            return;
+
+        Map<Class<?>, Set<Long>> tracked = (Map<Class<?>, Set<Long>>) registry.getResource(TextIndex.class);
+        if (tracked == null)
+            return;
+
+        Set<Long> written = tracked.remove(entityClass);
+        if (written != null)
+            ids.addAll(written);
+    }
+
+    /**
+     * Function retrieves name of the indexed field of the filter term
+     * @param term - filter term
+     * @return field name or null if term column is not indexed
+     */
+    public static String getField(FilterTerm term)
+    {
+        switch (term.getKind()) {
+            case PROPERTY:
+                if (NamingConstants.NAME.equals(term.getPath()) || NamingConstants.DESCRIPTION.equals(term.getPath()))
+                    return term.getPath();
+
+                return null;
+
+            case ATTRIBUTE:
+                return term.getDataType() == DataType.STRING ? ATTRIBUTE_PREFIX + term.getPath() : null;
+
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Function rebuilds index from database
+     * @param em - entity manager
+     */
+    public void rebuild(EntityManager em)
+    {
+        long start = System.currentTimeMillis();
+        boolean complete;
+        lock.writeLock().lock();
+        try {
+            ready = false;
+            fields.clear();
+            long stamp = skipped.get();
+            load(em, null);
+
+            /*
+             * Changes committed after load started could be skipped, index stays not ready
+             * and is rebuilt again at the next use
+             */
+            complete = skipped.get() == stamp;
+            ready = complete;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+
+        if (complete) {
+            Logger.getLogger(TextIndex.class.getName()).log(Level.INFO, "Text index of {0} built in {1} ms",
+                    new Object[] {entityClass.getSimpleName(), System.currentTimeMillis() - start});
+        }
+        else {
+            Logger.getLogger(TextIndex.class.getName()).log(Level.INFO, "Text index of {0} was changed while it was built",
+                    entityClass.getSimpleName());
+        }
+    }
+
+    /**
+     * Function reloads index entries of the entities. If index is not ready, change is
+     * only counted, so index being rebuilt is not used until it is rebuilt again
+     * @param em - entity manager
+     * @param ids - identifiers of the modified entities
+     */
+    public void refresh(EntityManager em, Collection<Long> ids)
+    {
+        if (ids.isEmpty())
+            return;
+
+        if (!ready) {
+            skipped.incrementAndGet();
+            return;
+        }
+
+        List<Long> list = new ArrayList<Long>(ids);
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < list.size(); i += MAX_BULK_IDS) {
+                List<Long> chunk = list.subList(i, Math.min(i + MAX_BULK_IDS, list.size()));
+                removeAll(chunk);
+                load(em, chunk);
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Function removes index entries of the entities
+     * @param ids - identifiers of the removed entities
+     */
+    public void remove(Collection<Long> ids)
+    {
+        lock.writeLock().lock();
+        try {
+            removeAll(ids);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Function finds entities which field contains the text
+     * @param field - field name, see {@link #getField(FilterTerm)}
+     * @param text - text to find
+     * @return identifiers of the entities or null if index could not be used for this text
+     */
+    public Set<Long> search(String field, String text)
+    {
+        String value = text.toLowerCase();
+        if (!ready || value.length() < GRAM_LENGTH)
+            return null;
+
+        lock.readLock().lock();
+        try {
+            Field f = fields.get(field);
+            if (f == null)
+                return Collections.emptySet();
+
+            /*
+             * Candidates are taken from the shortest posting list
+             */
+            Set<Long> candidates = null;
+            for (String gram : getGrams(value)) {
+                Set<Long> posting = f.postings.get(gram);
+                if (posting == null)
+                    return Collections.emptySet();
+
+                if (candidates == null || posting.size() < candidates.size())
+                    candidates = posting;
+            }
+
+            Set<Long> ids = new HashSet<Long>();
+            for (Long id : candidates) {
+                if (f.texts.get(id).contains(value))
+                    ids.add(id);
+            }
+
+            return ids;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Function loads texts of the entities and their string attributes
+     * @param em - entity manager
+     * @param ids - entity identifiers or null to load all entities
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private void load(EntityManager em, List<Long> ids)
+    {
+        CriteriaBuilder builder = em.getCriteriaBuilder();
+        CriteriaQuery<Object[]> cq = builder.createQuery(Object[].class);
+        Root from = cq.from(entityClass);
+        cq.multiselect(from.get(NamingConstants.ID), from.get(NamingConstants.NAME), from.get(NamingConstants.DESCRIPTION));
+        if (ids != null)
+            cq.where(from.get(NamingConstants.ID).in(ids));
+
+        for (Object[] row : em.createQuery(cq).getResultList()) {
+            put(NamingConstants.NAME, (Long) row[0], (String) row[1]);
+            put(NamingConstants.DESCRIPTION, (Long) row[0], (String) row[2]);
+        }
+
+        cq = builder.createQuery(Object[].class);
+        Root fromAttr = cq.from(attributesClass);
+        Path<Long> parentId = fromAttr.get(joinColumn).get(NamingConstants.ID);
+        cq.multiselect(parentId, fromAttr.get(NamingConstants.NAME), fromAttr.get(NamingConstants.STRING_VALUE));
+        Predicate where = builder.equal(fromAttr.get(NamingConstants.DATA_TYPE), DataType.STRING);
+        if (ids != null)
+            where = builder.and(where, parentId.in(ids));
+
+        cq.where(where);
+        for (Object[] row : em.createQuery(cq).getResultList()) {
+            put(ATTRIBUTE_PREFIX + row[1], (Long) row[0], (String) row[2]);
+        }
+    }
+
+    /**
+     * Function adds text of the entity to the field index, several values of the same
+     * field are kept together
+     * @param field - field name
+     * @param id - entity identifier
+     * @param text - text
+     */
+    private void put(String field, Long id, String text)
+    {
+        if (text == null || text.isEmpty())
+            return;
+
+        Field f = fields.get(field);
+        if (f == null) {
+            f = new Field();
+            fields.put(field, f);
+        }
+
+        String value = text.toLowerCase();
+        String old = f.texts.get(id);
+        f.texts.put(id, old != null ? old + VALUE_SEPARATOR + value : value);
+
+        for (String gram : getGrams(value)) {
+            Set<Long> posting = f.postings.get(gram);
+            if (posting == null) {
+                posting = new HashSet<Long>();
+                f.postings.put(gram, posting);
+            }
+
+            posting.add(id);
+        }
+    }
+
+    private void removeAll(Collection<Long> ids)
+    {
+        for (Field f : fields.values()) {
+            for (Long id : ids) {
+                String text = f.texts.remove(id);
+                if (text == null)
+                    continue;
+
+                for (String gram : getGrams(text)) {
+                    Set<Long> posting = f.postings.get(gram);
+                    if (posting != null && posting.remove(id) && posting.isEmpty())
+                        f.postings.remove(gram);
+                }
+            }
+        }
+    }
+
+    private static TransactionSynchronizationRegistry getRegistry()
+    {
+        try {
+            return (TransactionSynchronizationRegistry) new InitialContext().lookup(REGISTRY_JNDI_NAME);
+        }
+        catch (NamingException ex) {
+            Logger.getLogger(TextIndex.class.getName()).log(Level.FINE, null, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Function splits text to the set of trigrams
+     * @param text - lower case text
+     * @return trigrams
+     */
+    private static Set<String> getGrams(String text)
+    {
+        Set<String> grams = new HashSet<String>();
+        for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+            grams.add(text.substring(i, i + GRAM_LENGTH));
+        }
+
+        return grams;
+    }
+}
@@ -24,6 +24,7 @@
 package org.jsf2jpa.entities;
 
 import java.io.Serializable;
+import java.math.BigDecimal;
 import java.util.Date;
 import javax.persistence.Column;
 import javax.persistence.DiscriminatorColumn;
@@ -52,14 +53,19 @@ public abstract class AbstractAttribute extends BaseEntity implements Serializab
      * Subversion revision number it will be changed automatically when commited
      */
     private static final String REV_NUMBER = "$Revision:$";
+    /**
+     * Precision and scale of the numeric value column
+     */
+    public static final int NUMBER_PRECISION = 31;
+    public static final int NUMBER_SCALE = 6;
 
     @Column(name="DT_TYPE")
     @Enumerated(EnumType.STRING)
     private DataType        dataType;
     @Column(name="STR_VAL")
     private String          stringValue;
-    @Column(name="NUM_VAL")
-    private Number          numberValue;
+    @Column(name="NUM_VAL", precision=NUMBER_PRECISION, scale=NUMBER_SCALE)
+    private BigDecimal      numberValue;
     @Column(name="DT_VAL")
     @Temporal(TemporalType.TIMESTAMP)
     private Date            dateValue;
@@ -93,7 +99,10 @@ public abstract class AbstractAttribute extends BaseEntity implements Serializab
     public void setNumberValue(Number numberValue)
     {
         setDataType(DataType.NUMBER);
-        this.numberValue = numberValue;
+        if (numberValue == null || numberValue instanceof BigDecimal)
+            this.numberValue = (BigDecimal) numberValue;
+        else
+            this.numberValue = new BigDecimal(numberValue.toString());
     }
 
     public String getStringValue()
@@ -132,4 +141,10 @@ public abstract class AbstractAttribute extends BaseEntity implements Serializab
         else
             return "";
     }
+
+    /**
+     * Function retrieves entity which owns the attribute
+     * @return owner entity
+     */
+    public abstract BaseEntity getParent();
 }
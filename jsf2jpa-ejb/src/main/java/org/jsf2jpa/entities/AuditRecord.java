@@ -0,0 +1,167 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2011 ASementsov.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jsf2jpa.entities;
+
+import java.io.Serializable;
+import java.util.Date;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * Record of the audit journal. Journal is append only, record holds state of the
+ * entity after the change
+ *
+ * <br/>$LastChangedRevision:$
+ * <br/>$LastChangedDate:$
+ *
+ * @author ASementsov
+ */
+@Entity
+@Table(name="AUDIT_LOG")
+@TableIndexes({
+    @TableIndex(name="AUDIT_LOG_ENTITY_IX", columns={"entityClass", "entityId"})
+})
+public class AuditRecord implements Serializable
+{
+    /**
+     * Subversion revision number it will be changed automatically when commited
+     */
+    private static final String REV_NUMBER = "$Revision:$";
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @GeneratedValue(generator="AUDIT_SEQ", strategy=GenerationType.AUTO)
+    private Long                id;
+    @Column(name="ENTITY_CLASS", length=64, nullable=false)
+    private String              entityClass;
+    @Column(name="ENTITY_ID")
+    private Long                entityId;
+    @Enumerated(EnumType.STRING)
+    @Column(name="ACTION", length=8, nullable=false)
+    private AuditAction         action;
+    @Column(name="EVENT_DATE", nullable=false)
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date                eventDate;
+    @Column(name="NAME", length=32)
+    private String              name;
+    @Column(name="DESCR", length=256)
+    private String              description;
+
+    public AuditRecord()
+    {
+    }
+
+    /**
+     * Constructor creates record of the entity change
+     * @param entity - changed entity
+     * @param action - kind of the change
+     */
+    public AuditRecord(BaseEntity entity, AuditAction action)
+    {
+        this.entityClass = entity.getClass().getSimpleName();
+        this.entityId = entity.getId();
+        this.action = action;
+        this.eventDate = new Date();
+        this.name = entity.getName();
+        this.description = entity.getDescription();
+    }
+
+    public Long getId()
+    {
+        return id;
+    }
+
+    public void setId(Long id)
+    {
+        this.id = id;
+    }
+
+    public String getEntityClass()
+    {
+        return entityClass;
+    }
+
+    public void setEntityClass(String entityClass)
+    {
+        this.entityClass = entityClass;
+    }
+
+    public Long getEntityId()
+    {
+        return entityId;
+    }
+
+    public void setEntityId(Long entityId)
+    {
+        this.entityId = entityId;
+    }
+
+    public AuditAction getAction()
+    {
+        return action;
+    }
+
+    public void setAction(AuditAction action)
+    {
+        this.action = action;
+    }
+
+    public Date getEventDate()
+    {
+        return eventDate;
+    }
+
+    public void setEventDate(Date eventDate)
+    {
+        this.eventDate = eventDate;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public void setName(String name)
+    {
+        this.name = name;
+    }
+
+    public String getDescription()
+    {
+        return description;
+    }
+
+    public void setDescription(String description)
+    {
+        this.description = description;
+    }
+}
@@ -44,6 +44,11 @@ import javax.persistence.Table;
  */
 @Entity
 @Table(name="CAR")
+@TableIndexes({
+    @TableIndex(name="CAR_MODEL_IX", columns={"model"}),
+    @TableIndex(name="CAR_NAME_IX", columns={"name", "id"}),
+    @TableIndex(name="CAR_DESCR_IX", columns={"description", "id"})
+})
 public class Car extends BaseEntity
 {
     /**
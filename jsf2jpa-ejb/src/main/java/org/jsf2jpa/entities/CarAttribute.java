@@ -40,6 +40,12 @@ import javax.persistence.Table;
  */
 @Entity
 @Table(name="CAR_ATTR")
+@TableIndexes({
+    @TableIndex(name="CAR_ATTR_VALUE_IX", columns={"parent", "name", "stringValue"}),
+    @TableIndex(name="CAR_ATTR_NAME_IX", columns={"name", "stringValue"}),
+    @TableIndex(name="CAR_ATTR_NUM_IX", columns={"name", "numberValue"}),
+    @TableIndex(name="CAR_ATTR_DATE_IX", columns={"name", "dateValue"})
+})
 public class CarAttribute extends AbstractAttribute
 {
     /**
@@ -67,6 +73,7 @@ public class CarAttribute extends AbstractAttribute
         this.id = id;
     }
 
+    @Override
     public Car getParent()
     {
         return parent;
@@ -35,6 +35,10 @@ import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
+import org.eclipse.persistence.annotations.Cache;
+import org.eclipse.persistence.annotations.CacheType;
+import org.eclipse.persistence.annotations.Customizer;
+import org.jsf2jps.utils.CacheMonitor;
 
 /**
  * Class implements CarModel functions
@@ -46,6 +50,8 @@ import javax.persistence.Table;
  */
 @Entity
 @Table(name="CM")
+@Cache(type=CacheType.CACHE, size=CacheMonitor.REFERENCE_CACHE_SIZE)
+@Customizer(CacheMonitor.class)
 public class CarModel extends BaseEntity implements Serializable
 {
     /**
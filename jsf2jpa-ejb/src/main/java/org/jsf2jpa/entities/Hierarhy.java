@@ -27,6 +27,7 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 import javax.persistence.CascadeType;
+import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
@@ -46,6 +47,12 @@ import javax.persistence.Table;
  */
 @Entity
 @Table(name="HIER")
+@TableIndexes({
+    @TableIndex(name="HIER_PARENT_IX", columns={"parent", "id"}),
+    @TableIndex(name="HIER_PATH_IX", columns={"path"}),
+    @TableIndex(name="HIER_NAME_IX", columns={"name", "id"}),
+    @TableIndex(name="HIER_DESCR_IX", columns={"description", "id"})
+})
 public class Hierarhy extends BaseEntity implements Serializable
 {
     /**
@@ -53,6 +60,11 @@ public class Hierarhy extends BaseEntity implements Serializable
      */
     private static final String REV_NUMBER = "$Revision:$";
     private static final long serialVersionUID = 1L;
+    /**
+     * Separator of the identifiers in the materialized path
+     */
+    public static final String PATH_SEPARATOR = "/";
+    public static final int MAX_PATH_LENGTH = 512;
 
     @Id
     @GeneratedValue(generator="HIER_SEQ", strategy=GenerationType.AUTO)
@@ -64,6 +76,23 @@ public class Hierarhy extends BaseEntity implements Serializable
     private List<Hierarhy>              children = new ArrayList<Hierarhy>();
     @OneToMany(mappedBy = "parent", cascade=CascadeType.ALL)
     private List<HierarhyAttribute>     attributes = new ArrayList<HierarhyAttribute>();
+    /**
+     * Materialized path, identifiers of all ancestors from the root e.g. /1/5/ (/ for root nodes).
+     * Maintained by HierarhyFacade. Table generation does not add columns to the existing table,
+     * so databases created before paths were introduced are migrated by
+     * <pre>
+     * ALTER TABLE HIER ADD COLUMN PATH VARCHAR(512)
+     * ALTER TABLE HIER ADD COLUMN DEPTH INTEGER DEFAULT 0
+     * </pre>
+     * Paths of the existing rows are filled at startup by {@link org.jsf2jpa.ejbs.PathLoader}
+     */
+    @Column(name="PATH", length=MAX_PATH_LENGTH)
+    private String                      path;
+    /**
+     * Level of the node, 0 for root nodes
+     */
+    @Column(name="DEPTH")
+    private int                         depth;
 
     public List<Hierarhy> getChildren()
     {
@@ -97,6 +126,52 @@ public class Hierarhy extends BaseEntity implements Serializable
         this.parent = parent;
     }
 
+    public String getPath()
+    {
+        return path;
+    }
+
+    public void setPath(String path)
+    {
+        this.path = path;
+    }
+
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    public void setDepth(int depth)
+    {
+        this.depth = depth;
+    }
+
+    /**
+     * Function retrieves path prefix of all descendants of this node
+     * @return materialized path of the children
+     */
+    public String getSubtreePath()
+    {
+        return (path != null ? path : PATH_SEPARATOR) + id + PATH_SEPARATOR;
+    }
+
+    /**
+     * Function retrieves identifiers of the ancestors from the root
+     * @return ancestor identifiers
+     */
+    public List<Long> getAncestorIds()
+    {
+        List<Long> ids = new ArrayList<Long>();
+        if (path != null) {
+            for (String id : path.split(PATH_SEPARATOR)) {
+                if (id.length() > 0)
+                    ids.add(Long.valueOf(id));
+            }
+        }
+
+        return ids;
+    }
+
     public List<HierarhyAttribute> getAttributes()
     {
         return attributes;
@@ -41,6 +41,12 @@ import javax.persistence.Table;
  */
 @Entity
 @Table(name="HIER_ATTR")
+@TableIndexes({
+    @TableIndex(name="HIER_ATTR_VALUE_IX", columns={"parent", "name", "stringValue"}),
+    @TableIndex(name="HIER_ATTR_NAME_IX", columns={"name", "stringValue"}),
+    @TableIndex(name="HIER_ATTR_NUM_IX", columns={"name", "numberValue"}),
+    @TableIndex(name="HIER_ATTR_DATE_IX", columns={"name", "dateValue"})
+})
 public class HierarhyAttribute extends AbstractAttribute
 {
     /**
@@ -69,6 +75,7 @@ public class HierarhyAttribute extends AbstractAttribute
         this.id = id;
     }
 
+    @Override
     public Hierarhy getParent()
     {
         return parent;
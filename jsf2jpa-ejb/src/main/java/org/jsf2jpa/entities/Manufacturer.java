@@ -33,6 +33,10 @@ import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
+import org.eclipse.persistence.annotations.Cache;
+import org.eclipse.persistence.annotations.CacheType;
+import org.eclipse.persistence.annotations.Customizer;
+import org.jsf2jps.utils.CacheMonitor;
 
 /**
  * Class implements Manufacturer functions
@@ -44,6 +48,8 @@ import javax.persistence.Table;
  */
 @Entity
 @Table(name="MANUF")
+@Cache(type=CacheType.CACHE, size=CacheMonitor.REFERENCE_CACHE_SIZE)
+@Customizer(CacheMonitor.class)
 public class Manufacturer extends BaseEntity implements Serializable
 {
     /**
@@ -24,10 +24,16 @@
 package org.jsf2jps.utils;
 
 import java.util.Date;
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
 import javax.persistence.PrePersist;
 import javax.persistence.PreRemove;
 import javax.persistence.PreUpdate;
+import org.jsf2jpa.ejbs.AuditJournal;
+import org.jsf2jpa.ejbs.TextIndex;
 import org.jsf2jpa.entities.Audit;
+import org.jsf2jpa.entities.AuditAction;
 import org.jsf2jpa.entities.BaseEntity;
 
 /**
@@ -59,4 +65,29 @@ public class AuditEntityListener
             o.getAudit().setCreateDate(new Date());
         }
     }
+
+    /**
+     * Changes are recorded to the audit journal and text index after they are written,
+     * so identifiers of the new entities are known
+     */
+    @PostPersist
+    private void onCreate (BaseEntity o)
+    {
+        AuditJournal.record(o, AuditAction.CREATE);
+        TextIndex.track(o);
+    }
+
+    @PostUpdate
+    private void onUpdate (BaseEntity o)
+    {
+        AuditJournal.record(o, AuditAction.UPDATE);
+        TextIndex.track(o);
+    }
+
+    @PostRemove
+    private void onRemove (BaseEntity o)
+    {
+        AuditJournal.record(o, AuditAction.REMOVE);
+        TextIndex.track(o);
+    }
 }
@@ -0,0 +1,167 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2011 ASementsov.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jsf2jps.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class implements simple thread safe cache bounded by size and time to live.
+ * Least recently used entries are evicted when cache is full.
+ * Every invalidation increments cache generation. Value calculated before
+ * invalidation is not stored, this prevents cache from keeping stale values
+ * which were calculated concurrently with data modification.
+ *
+ * <br/>$LastChangedRevision:$
+ * <br/>$LastChangedDate:$
+ *
+ * @author ASementsov
+ */
+public class BoundedCache<K, V>
+{
+    /**
+     * Subversion revision number it will be changed automatically when commited
+     */
+    private static final String REV_NUMBER = "$Revision:$";
+
+    /**
+     * Cache entry
+     */
+    private static final class Entry<V>
+    {
+        private final V         value;
+        private final long      expires;
+
+        Entry(V value, long expires)
+        {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    private final int                       maxSize;
+    private final long                      timeToLive;
+    private final LinkedHashMap<K, Entry<V>> entries;
+    private long                            generation;
+    private long                            hits;
+    private long                            misses;
+
+    /**
+     * Constructor
+     * @param maxSize - maximum number of entries
+     * @param timeToLive - entry time to live in milliseconds, zero means that entries never expire
+     */
+    public BoundedCache(final int maxSize, long timeToLive)
+    {
+        this.maxSize = maxSize;
+        this.timeToLive = timeToLive;
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest)
+            {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Function retrieves value from cache
+     * @param key - key
+     * @return cached value or null if value is absent or expired
+     */
+    public synchronized V get(K key)
+    {
+        Entry<V> entry = entries.get(key);
+        if (entry != null && timeToLive > 0 && entry.expires < System.currentTimeMillis()) {
+            entries.remove(key);
+            entry = null;
+        }
+
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+
+        hits++;
+        return entry.value;
+    }
+
+    /**
+     * Function retrieves current cache generation. It must be taken before value calculation
+     * and passed to {@link #put(Object, Object, long)}
+     * @return cache generation
+     */
+    public synchronized long getGeneration()
+    {
+        return generation;
+    }
+
+    /**
+     * Function stores value in the cache if cache was not invalidated since value calculation had been started
+     * @param key - key
+     * @param value - value
+     * @param generation - cache generation taken before value calculation
+     */
+    public synchronized void put(K key, V value, long generation)
+    {
+        if (generation == this.generation)
+            entries.put(key, new Entry<V>(value, System.currentTimeMillis() + timeToLive));
+    }
+
+    /**
+     * Function removes all entries from cache
+     */
+    public synchronized void invalidate()
+    {
+        generation++;
+        entries.clear();
+    }
+
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+
+    public long getTimeToLive()
+    {
+        return timeToLive;
+    }
+
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+}
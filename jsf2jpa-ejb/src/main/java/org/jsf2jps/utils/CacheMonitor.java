@@ -0,0 +1,115 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2011 ASementsov.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jsf2jps.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.persistence.config.DescriptorCustomizer;
+import org.eclipse.persistence.descriptors.ClassDescriptor;
+import org.eclipse.persistence.descriptors.DescriptorEvent;
+import org.eclipse.persistence.descriptors.DescriptorEventAdapter;
+
+/**
+ * Class counts reads of the cached entities. It is installed by
+ * <code>@Customizer(CacheMonitor.class)</code> annotation of the entity.
+ * Every entity read by persistence context is counted as read, entity built from
+ * database row is counted as load (second level cache miss), so cache hits are reads minus loads.
+ * Isolated descriptors (e.g. descriptors of the read-only unit) have no second level cache, they are not counted
+ *
+ * <br/>$LastChangedRevision:$
+ * <br/>$LastChangedDate:$
+ *
+ * @author ASementsov
+ */
+public class CacheMonitor implements DescriptorCustomizer
+{
+    /**
+     * Subversion revision number it will be changed automatically when commited
+     */
+    private static final String REV_NUMBER = "$Revision:$";
+    /**
+     * Size of the second level cache of reference entities
+     */
+    public static final int     REFERENCE_CACHE_SIZE = 256;
+
+    private static final ConcurrentMap<Class<?>, AtomicLong> reads = new ConcurrentHashMap<Class<?>, AtomicLong>();
+    private static final ConcurrentMap<Class<?>, AtomicLong> loads = new ConcurrentHashMap<Class<?>, AtomicLong>();
+
+    @Override
+    public void customize(ClassDescriptor descriptor) throws Exception
+    {
+        final Class<?> entityClass = descriptor.getJavaClass();
+        reads.putIfAbsent(entityClass, new AtomicLong());
+        loads.putIfAbsent(entityClass, new AtomicLong());
+
+        descriptor.getEventManager().addListener(new DescriptorEventAdapter() {
+            @Override
+            public void postBuild(DescriptorEvent event)
+            {
+                if (!event.getDescriptor().isIsolated())
+                    loads.get(entityClass).incrementAndGet();
+            }
+
+            @Override
+            public void postClone(DescriptorEvent event)
+            {
+                if (!event.getDescriptor().isIsolated())
+                    reads.get(entityClass).incrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Retrieves number of entities read by persistence contexts
+     * @param entityClass - entity class
+     * @return number of reads
+     */
+    public static long getReads(Class<?> entityClass)
+    {
+        AtomicLong count = reads.get(entityClass);
+        return count != null ? count.get() : 0;
+    }
+
+    /**
+     * Retrieves number of entities loaded from database
+     * @param entityClass - entity class
+     * @return number of loads
+     */
+    public static long getLoads(Class<?> entityClass)
+    {
+        AtomicLong count = loads.get(entityClass);
+        return count != null ? count.get() : 0;
+    }
+
+    /**
+     * Retrieves number of entities taken from second level cache
+     * @param entityClass - entity class
+     * @return number of cache hits
+     */
+    public static long getHits(Class<?> entityClass)
+    {
+        return Math.max(0, getReads(entityClass) - getLoads(entityClass));
+    }
+}
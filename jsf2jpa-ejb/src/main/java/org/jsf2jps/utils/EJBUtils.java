@@ -23,6 +23,8 @@
  */
 package org.jsf2jps.utils;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.transaction.RollbackException;
@@ -61,7 +63,10 @@ public class EJBUtils
     public static void rollback(UserTransaction tx, boolean flag)
     {
         try {
-            if (flag)
+            /*
+             * Transaction is already completed if commit failed
+             */
+            if (flag && tx.getStatus() != Status.STATUS_NO_TRANSACTION)
                 tx.rollback();
         }
         catch (IllegalStateException ex) {
@@ -75,6 +80,41 @@ public class EJBUtils
         }
     }
     
+    /**
+     * Function converts number to the desired number class
+     * @param value - number to convert
+     * @param type - desired class
+     * @return converted number or source number if conversion is not supported
+     */
+    public static Number convertNumber (Number value, Class<?> type)
+    {
+        if (value == null || type.isInstance(value))
+            return value;
+
+        if (type.equals(Long.class) || type.equals(long.class))
+            return value.longValue();
+
+        if (type.equals(Integer.class) || type.equals(int.class))
+            return value.intValue();
+
+        if (type.equals(Short.class) || type.equals(short.class))
+            return value.shortValue();
+
+        if (type.equals(Double.class) || type.equals(double.class))
+            return value.doubleValue();
+
+        if (type.equals(Float.class) || type.equals(float.class))
+            return value.floatValue();
+
+        if (type.equals(BigDecimal.class))
+            return new BigDecimal(value.toString());
+
+        if (type.equals(BigInteger.class))
+            return BigInteger.valueOf(value.longValue());
+
+        return value;
+    }
+
     public static void commit(UserTransaction tx, boolean flag) throws RollbackException, HeuristicMixedException, HeuristicRollbackException, SecurityException, IllegalStateException, SystemException
     {
         if (flag)
@@ -38,12 +38,19 @@ public interface NamingConstants
     static final String REV_NUMBER = "$Revision: 72 $:";
 
     static final String PERSICTENCE_UNIT = "PU";
+    static final String READ_ONLY_UNIT = "PU_RO";
+    static final String READ_ONLY_REF = "persistence/readOnly";
     static final String NAME = "name";
+    static final String DESCRIPTION = "description";
     static final String ID = "id";
     static final String PARENT = "parent";
     static final String ATTRIBUTES = "attributes";
     static final String STRING_VALUE = "stringValue";
     static final String NUMBER_VALUE = "numberValue";
     static final String DATE_VALUE = "dateValue";
+    static final String DATA_TYPE = "dataType";
     static final String VAR = "var";
+    static final String CHILDREN = "children";
+    static final String PATH = "path";
+    static final String DEPTH = "depth";
 }
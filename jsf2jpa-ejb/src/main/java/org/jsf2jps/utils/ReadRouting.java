@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2011 ASementsov.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jsf2jps.utils;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.persistence.EntityManager;
+
+/**
+ * Class controls routing of the read queries to the read-only persistence unit.
+ * Routing is enabled by system property, after any write reads of the current
+ * request go to the primary unit to see written data. Facades declare reference
+ * {@link NamingConstants#READ_ONLY_REF} to the read-only unit and look it up only when
+ * routing is enabled, so the unit is not used at all otherwise
+ *
+ * <br/>$LastChangedRevision:$
+ * <br/>$LastChangedDate:$
+ *
+ * @author ASementsov
+ */
+public class ReadRouting
+{
+    /**
+     * Subversion revision number it will be changed automatically when commited
+     */
+    private static final String REV_NUMBER = "$Revision:$";
+    /**
+     * System property which enables read-only unit
+     */
+    public static final String  ENABLED_PROPERTY = "org.jsf2jpa.readOnlyUnit";
+    /**
+     * Flag of the current request, it is set by write
+     */
+    private static final ThreadLocal<Boolean> primaryForced = new ThreadLocal<Boolean>();
+
+    /**
+     * Function checks if read-only unit is used
+     * @return true if reads could be routed to the read-only unit
+     */
+    public static boolean isEnabled()
+    {
+        return Boolean.getBoolean(ENABLED_PROPERTY);
+    }
+
+    /**
+     * Function looks up entity manager of the read-only unit in the environment of the calling bean
+     * @return entity manager or null if bean does not declare reference to the read-only unit
+     */
+    public static EntityManager lookupEntityManager()
+    {
+        try {
+            return (EntityManager) new InitialContext().lookup("java:comp/env/" + NamingConstants.READ_ONLY_REF);
+        }
+        catch (NamingException ex) {
+            Logger.getLogger(ReadRouting.class.getName()).log(Level.WARNING, "Read-only unit is not available", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Function forces next reads of the current request to the primary unit
+     */
+    public static void forcePrimary()
+    {
+        primaryForced.set(Boolean.TRUE);
+    }
+
+    /**
+     * Function checks if reads of the current request must go to the primary unit
+     * @return true if data was written by the current request
+     */
+    public static boolean isPrimaryForced()
+    {
+        return primaryForced.get() != null;
+    }
+
+    /**
+     * Function clears flag of the current request. It must be called when
+     * request is finished because request threads are pooled
+     */
+    public static void reset()
+    {
+        primaryForced.remove();
+    }
+}
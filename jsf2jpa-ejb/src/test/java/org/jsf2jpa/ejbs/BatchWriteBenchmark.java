@@ -0,0 +1,169 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2011 ASementsov.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jsf2jpa.ejbs;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.persistence.EntityManager;
+import org.jsf2jpa.entities.Car;
+import org.jsf2jpa.entities.CarAttribute;
+import org.jsf2jpa.entities.CarModel;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Benchmark measures throughput and peak heap of batched {@link AbstractFacade#createAll(java.util.Collection)}
+ * against {@link AbstractFacade#create(org.jsf2jpa.entities.BaseEntity)} called per entity.
+ * Numbers are logged, benchmark checks only that both paths write all entities. It is not run
+ * by the unit tests, run it by <code>mvn test -Pbenchmark</code>. Batching itself is checked
+ * by {@link BatchWriteTest}
+ *
+ * <br/>$LastChangedRevision:$
+ * <br/>$LastChangedDate:$
+ *
+ * @author ASementsov
+ */
+public class BatchWriteBenchmark extends FacadeTestSupport
+{
+    /**
+     * Subversion revision number it will be changed automatically when commited
+     */
+    private static final String REV_NUMBER = "$Revision:$";
+    private static final int    COUNT = 5000;
+    private static final int    ATTRIBUTES = 3;
+
+    private static EntityManager    em;
+    private static CarsFacade       cars;
+    private static CarModel         model;
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+        em = createEntityManager();
+        cars = createFacade(new CarsFacade(), em);
+        cars.initData();
+        model = em.createQuery("SELECT m FROM CarModel m", CarModel.class).setMaxResults(1).getSingleResult();
+
+        /*
+         * Warm up of the provider and JIT, so the first measured path is not penalized
+         */
+        cars.createAll(createCars("warm", COUNT / 10));
+        for (Car car : createCars("warm1", COUNT / 10)) {
+            cars.create(car);
+        }
+
+        em.clear();
+    }
+
+    @Test
+    public void testPerEntity()
+    {
+        final List<Car> list = createCars("single", COUNT);
+        measure("create", new Runnable() {
+            @Override
+            public void run()
+            {
+                for (Car car : list) {
+                    cars.create(car);
+                }
+            }
+        });
+
+        em.clear();
+    }
+
+    @Test
+    public void testBatch()
+    {
+        final List<Car> list = createCars("batch", COUNT);
+        measure("createAll", new Runnable() {
+            @Override
+            public void run()
+            {
+                cars.createAll(list);
+            }
+        });
+    }
+
+    /**
+     * Function runs write, logs its throughput and peak heap and checks that all cars were written
+     * @param name - name of the measured path
+     * @param write - write of {@link #COUNT} cars
+     */
+    private static void measure(String name, Runnable write)
+    {
+        int before = cars.count();
+        System.gc();
+        List<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+        long base = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                base += pool.getUsage().getUsed();
+                pools.add(pool);
+            }
+        }
+
+        long start = System.nanoTime();
+        write.run();
+        long elapsed = System.nanoTime() - start;
+
+        long peak = 0;
+        for (MemoryPoolMXBean pool : pools) {
+            peak += pool.getPeakUsage().getUsed();
+        }
+
+        Logger.getLogger(BatchWriteBenchmark.class.getName()).log(Level.INFO, "{0}: {1} cars with {2} attributes in {3} ms, {4} cars/s, peak heap growth {5} KB",
+                new Object[] {name, COUNT, ATTRIBUTES, elapsed / 1000000, COUNT * 1000000000L / Math.max(elapsed, 1), (peak - base) / 1024});
+
+        assertEquals(before + COUNT, cars.count());
+    }
+
+    private static List<Car> createCars(String prefix, int count)
+    {
+        List<Car> list = new ArrayList<Car>(count);
+        for (int i = 0; i < count; i++) {
+            Car car = new Car();
+            car.setName(prefix + " " + i);
+            car.setModel(model);
+            for (int j = 0; j < ATTRIBUTES; j++) {
+                CarAttribute attr = new CarAttribute();
+                attr.setName("Attr " + j);
+                attr.setStringValue(prefix + " " + i + "." + j);
+                attr.setParent(car);
+                car.getAttributes().add(attr);
+            }
+
+            list.add(car);
+        }
+
+        return list;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2011 ASementsov.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jsf2jpa.ejbs;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.persistence.EntityManager;
+import org.eclipse.persistence.config.PersistenceUnitProperties;
+import org.jsf2jpa.entities.Car;
+import org.jsf2jpa.entities.CarAttribute;
+import org.jsf2jpa.entities.CarModel;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test checks that {@link AbstractFacade#createAll(java.util.Collection, int)} writes entities
+ * by JDBC batches. Inserts are counted by {@link CountingDriver}, throughput is measured by
+ * {@link BatchWriteBenchmark}
+ *
+ * <br/>$LastChangedRevision:$
+ * <br/>$LastChangedDate:$
+ *
+ * @author ASementsov
+ */
+public class BatchWriteTest extends FacadeTestSupport
+{
+    /**
+     * Subversion revision number it will be changed automatically when commited
+     */
+    private static final String REV_NUMBER = "$Revision:$";
+    private static final int    COUNT = 200;
+    private static final int    BATCH_SIZE = 50;
+    private static final int    ATTRIBUTES = 2;
+    private static final String CAR_TABLE = "CAR";
+    private static final String ATTR_TABLE = "CAR_ATTR";
+
+    private static EntityManager    em;
+    private static CarsFacade       cars;
+    private static CarModel         model;
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+        /*
+         * Separate database, so inserts of the other tests do not change the counts
+         */
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put(PersistenceUnitProperties.JDBC_DRIVER, CountingDriver.class.getName());
+        properties.put(PersistenceUnitProperties.JDBC_URL, CountingDriver.URL_PREFIX + "derby:memory:batch;create=true");
+
+        em = createEntityManager(properties);
+        cars = createFacade(new CarsFacade(), em);
+        cars.initData();
+        model = em.createQuery("SELECT m FROM CarModel m", CarModel.class).setMaxResults(1).getSingleResult();
+        em.clear();
+    }
+
+    @Test
+    public void testCreateAllBatchesInserts()
+    {
+        List<Car> list = createCars(COUNT);
+        int before = cars.count();
+
+        CountingDriver.reset();
+        cars.createAll(list, BATCH_SIZE);
+
+        assertEquals(before + COUNT, cars.count());
+        assertEquals(0, CountingDriver.getSingleInserts(CAR_TABLE));
+        assertEquals(0, CountingDriver.getSingleInserts(ATTR_TABLE));
+        assertEquals(COUNT, CountingDriver.getBatchedRows(CAR_TABLE));
+        assertEquals(COUNT * ATTRIBUTES, CountingDriver.getBatchedRows(ATTR_TABLE));
+
+        /*
+         * Every flush of the facade batch writes each table by one or two JDBC batches
+         * depending on the batch size of the unit
+         */
+        int flushes = COUNT / BATCH_SIZE;
+        assertTrue("Car batches: " + CountingDriver.getBatches(CAR_TABLE), CountingDriver.getBatches(CAR_TABLE) <= flushes * 2);
+        assertTrue("Attribute batches: " + CountingDriver.getBatches(ATTR_TABLE), CountingDriver.getBatches(ATTR_TABLE) <= flushes * 2);
+    }
+
+    private static List<Car> createCars(int count)
+    {
+        List<Car> list = new ArrayList<Car>(count);
+        for (int i = 0; i < count; i++) {
+            Car car = new Car();
+            car.setName("batch " + i);
+            car.setModel(model);
+            for (int j = 0; j < ATTRIBUTES; j++) {
+                CarAttribute attr = new CarAttribute();
+                attr.setName("Attr " + j);
+                attr.setStringValue("batch " + i + "." + j);
+                attr.setParent(car);
+                car.getAttributes().add(attr);
+            }
+
+            list.add(car);
+        }
+
+        return list;
+    }
+}
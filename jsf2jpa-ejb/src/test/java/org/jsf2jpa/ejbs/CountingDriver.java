@@ -0,0 +1,250 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2011 ASementsov.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jsf2jpa.ejbs;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * Class implements JDBC driver which counts inserts executed by the wrapped driver. URL of the
+ * wrapped driver is written after {@link #URL_PREFIX}, e.g. <code>jdbc:counting:derby:memory:test</code>.
+ * Inserts are counted by table: rows added to JDBC batches, executed batches and inserts
+ * executed one by one
+ *
+ * <br/>$LastChangedRevision:$
+ * <br/>$LastChangedDate:$
+ *
+ * @author ASementsov
+ */
+public class CountingDriver implements Driver
+{
+    /**
+     * Subversion revision number it will be changed automatically when commited
+     */
+    private static final String REV_NUMBER = "$Revision:$";
+    public static final String  URL_PREFIX = "jdbc:counting:";
+    private static final String INSERT = "INSERT INTO ";
+
+    /**
+     * Counters of the table
+     */
+    private static final class Counts
+    {
+        private int     batchedRows;
+        private int     batches;
+        private int     singleInserts;
+    }
+
+    private static final Map<String, Counts> counts = new HashMap<String, Counts>();
+
+    static {
+        try {
+            Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+            DriverManager.registerDriver(new CountingDriver());
+        }
+        catch (Exception ex) {
+            throw (new ExceptionInInitializerError(ex));
+        }
+    }
+
+    /**
+     * Function drops all counters
+     */
+    public static synchronized void reset()
+    {
+        counts.clear();
+    }
+
+    /**
+     * @param table - table name
+     * @return count of the rows inserted by JDBC batches
+     */
+    public static synchronized int getBatchedRows(String table)
+    {
+        return getCounts(table).batchedRows;
+    }
+
+    /**
+     * @param table - table name
+     * @return count of the executed batches of inserts
+     */
+    public static synchronized int getBatches(String table)
+    {
+        return getCounts(table).batches;
+    }
+
+    /**
+     * @param table - table name
+     * @return count of the inserts executed one by one
+     */
+    public static synchronized int getSingleInserts(String table)
+    {
+        return getCounts(table).singleInserts;
+    }
+
+    private static Counts getCounts(String table)
+    {
+        Counts c = counts.get(table.toUpperCase());
+        if (c == null) {
+            c = new Counts();
+            counts.put(table.toUpperCase(), c);
+        }
+
+        return c;
+    }
+
+    /**
+     * Function retrieves table of the insert statement
+     * @param sql - statement
+     * @return table name or null if statement is not an insert
+     */
+    private static String getTable(String sql)
+    {
+        String text = sql.trim().toUpperCase();
+        if (!text.startsWith(INSERT))
+            return null;
+
+        int end = INSERT.length();
+        while (end < text.length() && text.charAt(end) != ' ' && text.charAt(end) != '(') {
+            end++;
+        }
+
+        return text.substring(INSERT.length(), end);
+    }
+
+    /**
+     * Handler counts calls of the statement, statements created by the connection are wrapped
+     */
+    private static final class Handler implements InvocationHandler
+    {
+        private final Object    target;
+        /**
+         * Table of the prepared insert, null for the other statements
+         */
+        private final String    table;
+
+        private Handler(Object target, String table)
+        {
+            this.target = target;
+            this.table = table;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+        {
+            Object result;
+            try {
+                result = method.invoke(target, args);
+            }
+            catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            }
+
+            String name = method.getName();
+            String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+            if (result instanceof Statement && method.getReturnType().isInterface())
+                return wrap(method.getReturnType(), result, sql != null ? getTable(sql) : null);
+
+            String inserted = sql != null ? getTable(sql) : table;
+            if (target instanceof Statement && inserted != null) {
+                synchronized (CountingDriver.class) {
+                    if ("addBatch".equals(name))
+                        getCounts(inserted).batchedRows++;
+                    else if ("executeBatch".equals(name))
+                        getCounts(inserted).batches++;
+                    else if (name.startsWith("execute"))
+                        getCounts(inserted).singleInserts++;
+                }
+            }
+
+            return result;
+        }
+    }
+
+    private static Object wrap(Class<?> type, Object target, String table)
+    {
+        return Proxy.newProxyInstance(CountingDriver.class.getClassLoader(), new Class<?>[] {type}, new Handler(target, table));
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException
+    {
+        if (!acceptsURL(url))
+            return null;
+
+        Connection con = DriverManager.getConnection("jdbc:" + url.substring(URL_PREFIX.length()), info);
+        return (Connection) wrap(Connection.class, con, null);
+    }
+
+    @Override
+    public boolean acceptsURL(String url)
+    {
+        return url != null && url.startsWith(URL_PREFIX);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info)
+    {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion()
+    {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion()
+    {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant()
+    {
+        return false;
+    }
+
+    /**
+     * Method of JDBC 4.1, it is declared without annotation so the class compiles on Java 6 too
+     */
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException
+    {
+        throw (new SQLFeatureNotSupportedException());
+    }
+}
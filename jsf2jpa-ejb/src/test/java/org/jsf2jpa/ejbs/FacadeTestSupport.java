@@ -0,0 +1,125 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2011 ASementsov.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jsf2jpa.ejbs;
+
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import org.junit.AfterClass;
+
+/**
+ * Class creates facades outside of container. Facades get entity manager of the test unit
+ * and resource local transaction by the same fields container injects
+ *
+ * <br/>$LastChangedRevision:$
+ * <br/>$LastChangedDate:$
+ *
+ * @author ASementsov
+ */
+public abstract class FacadeTestSupport
+{
+    /**
+     * Subversion revision number it will be changed automatically when commited
+     */
+    private static final String REV_NUMBER = "$Revision:$";
+    /**
+     * Test persistence unit, see src/test/resources/META-INF/persistence.xml
+     */
+    public static final String TEST_UNIT = "PU_TEST";
+
+    /**
+     * Audit journal looks up transaction registry and writer bean in JNDI for every change,
+     * there is no JNDI outside of container
+     */
+    private static final Logger auditLogger = Logger.getLogger(AuditJournal.class.getName());
+
+    private static EntityManagerFactory emf;
+
+    /**
+     * Function creates entity manager of the test unit, the factory is created at the first call
+     * @return entity manager
+     */
+    protected static EntityManager createEntityManager()
+    {
+        return createEntityManager(Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Function creates entity manager of the test unit, the factory is created at the first call
+     * @param properties - properties which override properties of the unit, they are used
+     * when the factory is created
+     * @return entity manager
+     */
+    protected static EntityManager createEntityManager(Map<String, String> properties)
+    {
+        if (emf == null) {
+            auditLogger.setLevel(Level.OFF);
+            emf = Persistence.createEntityManagerFactory(TEST_UNIT, properties);
+        }
+
+        return emf.createEntityManager();
+    }
+
+    /**
+     * Function injects entity manager and transaction to the facade
+     * @param facade - facade
+     * @param em - entity manager
+     * @return the same facade
+     */
+    protected static <F extends AbstractFacade<?, ?>> F createFacade(F facade, EntityManager em)
+    {
+        inject(facade, "em", em);
+        inject(facade, "userTx", new ResourceLocalTransaction(em));
+        return facade;
+    }
+
+    private static void inject(Object bean, String name, Object value)
+    {
+        try {
+            Field field = bean.getClass().getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(bean, value);
+        }
+        catch (NoSuchFieldException ex) {
+            throw (new IllegalStateException(ex));
+        }
+        catch (IllegalAccessException ex) {
+            throw (new IllegalStateException(ex));
+        }
+    }
+
+    @AfterClass
+    public static void closeFactory()
+    {
+        if (emf != null) {
+            emf.close();
+            emf = null;
+        }
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2011 ASementsov.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jsf2jpa.ejbs;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.persistence.EntityManager;
+import org.eclipse.persistence.jpa.JpaEntityManager;
+import org.eclipse.persistence.sessions.Session;
+import org.jsf2jpa.entities.Car;
+import org.jsf2jpa.entities.CarAttribute;
+import org.jsf2jpa.entities.CarModel;
+import org.jsf2jpa.entities.Hierarhy;
+import org.jsf2jpa.entities.HierarhyAttribute;
+import org.jsf2jps.utils.NamingConstants;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test checks that facade queries are served by the indexes declared on the entities.
+ * Schema is generated by provider, indexes are created by {@link SchemaProvisioner},
+ * every query is run with Derby runtime statistics and its plan must name the index
+ *
+ * <br/>$LastChangedRevision:$
+ * <br/>$LastChangedDate:$
+ *
+ * @author ASementsov
+ */
+public class QueryPlanTest extends FacadeTestSupport
+{
+    /**
+     * Subversion revision number it will be changed automatically when commited
+     */
+    private static final String REV_NUMBER = "$Revision:$";
+    /**
+     * Tables must be large enough, optimizer scans small tables
+     */
+    private static final int    CARS = 2000;
+    private static final int    ROOTS = 20;
+    private static final int    BRANCHES = 10;
+    private static final String SCHEMA = "APP";
+    private static final String COLOR = "Color";
+    private static final String WEIGHT = "Weight";
+
+    private static EntityManager    em;
+    private static CarsFacade       cars;
+    private static HierarhyFacade   hier;
+    private static List<String>     missing;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception
+    {
+        em = createEntityManager();
+        cars = createFacade(new CarsFacade(), em);
+        hier = createFacade(new HierarhyFacade(), em);
+
+        em.getTransaction().begin();
+        missing = SchemaProvisioner.provision(em);
+        em.getTransaction().commit();
+
+        createCars();
+        createHierarhy();
+        em.clear();
+
+        em.getTransaction().begin();
+        try {
+            Connection con = em.unwrap(Connection.class);
+            Session session = em.unwrap(JpaEntityManager.class).getServerSession();
+            for (Class<?> type : Arrays.asList(Car.class, CarAttribute.class, Hierarhy.class, HierarhyAttribute.class)) {
+                execute(con, "CALL SYSCS_UTIL.SYSCS_UPDATE_STATISTICS('" + SCHEMA + "', '"
+                        + session.getDescriptor(type).getTableName().toUpperCase() + "', NULL)");
+            }
+        }
+        finally {
+            em.getTransaction().commit();
+        }
+    }
+
+    private static void createCars()
+    {
+        cars.initData();
+        List<CarModel> models = em.createQuery("SELECT m FROM CarModel m", CarModel.class).getResultList();
+
+        List<Car> list = new ArrayList<Car>(CARS);
+        for (int i = 0; i < CARS; i++) {
+            Car car = new Car();
+            car.setName("Car " + i);
+            car.setDescription("Test car " + i);
+            car.setModel(models.get(i % models.size()));
+
+            CarAttribute attr = new CarAttribute();
+            attr.setName(COLOR);
+            attr.setStringValue("color " + i);
+            attr.setParent(car);
+            car.getAttributes().add(attr);
+
+            CarAttribute weight = new CarAttribute();
+            weight.setName(WEIGHT);
+            weight.setNumberValue(Integer.valueOf(i));
+            weight.setParent(car);
+            car.getAttributes().add(weight);
+            list.add(car);
+        }
+
+        cars.createAll(list);
+    }
+
+    private static void createHierarhy()
+    {
+        for (int i = 0; i < ROOTS; i++) {
+            Hierarhy root = new Hierarhy();
+            root.setName(String.valueOf(i));
+            for (int j = 0; j < BRANCHES; j++) {
+                Hierarhy node = new Hierarhy();
+                node.setName(i + "." + j);
+                node.setParent(root);
+                root.getChildren().add(node);
+                for (int k = 0; k < BRANCHES; k++) {
+                    Hierarhy leaf = new Hierarhy();
+                    leaf.setName(i + "." + j + "." + k);
+                    leaf.setParent(node);
+                    node.getChildren().add(leaf);
+                }
+            }
+
+            hier.create(root);
+        }
+    }
+
+    @Test
+    public void testDeclaredIndexesExist()
+    {
+        assertEquals(Collections.<String>emptyList(), missing);
+    }
+
+    @Test
+    public void testPropertyFilter() throws SQLException
+    {
+        String plan = getPlan(new Runnable() {
+            @Override
+            public void run()
+            {
+                Map<String, Object> filters = new HashMap<String, Object>();
+                filters.put(NamingConstants.NAME, "=Car 1042");
+                assertEquals(1, cars.countFiltered(filters));
+            }
+        });
+
+        assertIndex(plan, "CAR_NAME_IX");
+    }
+
+    @Test
+    public void testAttributeFilter() throws SQLException
+    {
+        String plan = getPlan(new Runnable() {
+            @Override
+            public void run()
+            {
+                CarAttribute attr = new CarAttribute();
+                attr.setName(COLOR);
+                attr.setStringValue("color 1042");
+                int count = cars.countExtendedFiltered(new HashMap<String, Object>(), Arrays.asList(attr),
+                        NamingConstants.PARENT, AttributeFilterStrategy.EXISTS);
+                assertEquals(1, count);
+            }
+        });
+
+        assertIndex(plan, "CAR_ATTR_VALUE_IX", "CAR_ATTR_NAME_IX");
+    }
+
+    @Test
+    public void testNumberAttributeFilter() throws SQLException
+    {
+        String plan = getPlan(new Runnable() {
+            @Override
+            public void run()
+            {
+                CarAttribute attr = new CarAttribute();
+                attr.setName(WEIGHT);
+                attr.setNumberValue(Integer.valueOf(1042));
+                int count = cars.countExtendedFiltered(new HashMap<String, Object>(), Arrays.asList(attr),
+                        NamingConstants.PARENT, AttributeFilterStrategy.GROUP_BY);
+                assertEquals(1, count);
+            }
+        });
+
+        assertIndex(plan, "CAR_ATTR_NUM_IX");
+    }
+
+    @Test
+    public void testChildrenPage() throws SQLException
+    {
+        final Hierarhy node = findNode("3.4");
+        String plan = getPlan(new Runnable() {
+            @Override
+            public void run()
+            {
+                assertEquals(BRANCHES, hier.findChildren(node, null, BRANCHES * 2).size());
+            }
+        });
+
+        assertIndex(plan, "HIER_PARENT_IX");
+    }
+
+    @Test
+    public void testDescendants() throws SQLException
+    {
+        final Hierarhy node = findNode("3.4");
+        String plan = getPlan(new Runnable() {
+            @Override
+            public void run()
+            {
+                assertEquals(BRANCHES, hier.countDescendants(node));
+            }
+        });
+
+        assertIndex(plan, "HIER_PATH_IX");
+    }
+
+    private static Hierarhy findNode(String name)
+    {
+        return em.createQuery("SELECT h FROM Hierarhy h WHERE h.name = :name", Hierarhy.class)
+                .setParameter("name", name).getSingleResult();
+    }
+
+    /**
+     * Function runs facade query with runtime statistics. Facade uses the same connection
+     * inside of the transaction, statistics describe the last statement of the query
+     * @param query - facade call which executes one statement
+     * @return runtime statistics of the statement
+     */
+    private static String getPlan(Runnable query) throws SQLException
+    {
+        em.getTransaction().begin();
+        try {
+            Connection con = em.unwrap(Connection.class);
+            execute(con, "CALL SYSCS_UTIL.SYSCS_SET_RUNTIMESTATISTICS(1)");
+            try {
+                query.run();
+
+                Statement st = con.createStatement();
+                try {
+                    ResultSet rs = st.executeQuery("VALUES SYSCS_UTIL.SYSCS_GET_RUNTIMESTATISTICS()");
+                    assertTrue(rs.next());
+                    return rs.getString(1);
+                }
+                finally {
+                    st.close();
+                }
+            }
+            finally {
+                execute(con, "CALL SYSCS_UTIL.SYSCS_SET_RUNTIMESTATISTICS(0)");
+            }
+        }
+        finally {
+            em.getTransaction().rollback();
+        }
+    }
+
+    private static void assertIndex(String plan, String... indexes)
+    {
+        for (String index : indexes) {
+            if (plan.contains("using index " + index))
+                return;
+        }
+
+        fail("Plan does not use " + Arrays.asList(indexes) + ":\n" + plan);
+    }
+
+    private static void execute(Connection con, String sql) throws SQLException
+    {
+        Statement st = con.createStatement();
+        try {
+            st.execute(sql);
+        }
+        finally {
+            st.close();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2011 ASementsov.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jsf2jpa.ejbs;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.transaction.Status;
+import javax.transaction.SystemException;
+import javax.transaction.UserTransaction;
+
+/**
+ * Class adapts resource local transaction of the entity manager to user transaction,
+ * so facades could be run by tests without container
+ *
+ * <br/>$LastChangedRevision:$
+ * <br/>$LastChangedDate:$
+ *
+ * @author ASementsov
+ */
+public class ResourceLocalTransaction implements UserTransaction
+{
+    /**
+     * Subversion revision number it will be changed automatically when commited
+     */
+    private static final String REV_NUMBER = "$Revision:$";
+
+    private final EntityManager em;
+
+    /**
+     * Constructor
+     * @param em - entity manager of the resource local unit
+     */
+    public ResourceLocalTransaction(EntityManager em)
+    {
+        this.em = em;
+    }
+
+    @Override
+    public void begin()
+    {
+        em.getTransaction().begin();
+    }
+
+    @Override
+    public void commit()
+    {
+        em.getTransaction().commit();
+    }
+
+    @Override
+    public void rollback()
+    {
+        em.getTransaction().rollback();
+    }
+
+    @Override
+    public void setRollbackOnly()
+    {
+        em.getTransaction().setRollbackOnly();
+    }
+
+    @Override
+    public int getStatus() throws SystemException
+    {
+        EntityTransaction tx = em.getTransaction();
+        if (!tx.isActive())
+            return Status.STATUS_NO_TRANSACTION;
+
+        return tx.getRollbackOnly() ? Status.STATUS_MARKED_ROLLBACK : Status.STATUS_ACTIVE;
+    }
+
+    @Override
+    public void setTransactionTimeout(int seconds)
+    {
+    }
+}
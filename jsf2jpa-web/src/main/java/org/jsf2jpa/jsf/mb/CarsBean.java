@@ -23,12 +23,15 @@
  */
 package org.jsf2jpa.jsf.mb;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 import javax.ejb.EJB;
 import javax.faces.application.Application;
 import javax.faces.bean.ManagedBean;
@@ -36,9 +39,15 @@ import javax.faces.bean.ViewScoped;
 import javax.faces.context.FacesContext;
 import javax.faces.model.DataModel;
 import org.jsf2jpa.ejbs.CarsFacade;
+import org.jsf2jpa.ejbs.FilteredPage;
+import org.jsf2jpa.ejbs.ProjectedRow;
+import org.jsf2jpa.ejbs.SeekKey;
 import org.jsf2jpa.entities.Car;
 import org.jsf2jpa.jsf.utils.BaseObjectJSF;
 import org.jsf2jpa.jsf.utils.JsfUtil;
+import org.jsf2jpa.jsf.servlets.ExportServlet;
+import org.jsf2jpa.jsf.utils.SeekPager;
+import org.jsf2jpa.jsf.utils.UserConfig;
 import org.primefaces.component.datatable.DataTable;
 import org.primefaces.component.panel.Panel;
 import org.primefaces.event.SelectEvent;
@@ -73,6 +82,8 @@ public class CarsBean implements Serializable
     private static final String LAZY_TABLE_MODEL = "carsLazyModel";
     private static final String TABLE_MODEL = "carsModel";
     private static final String CAR_SEL_OBJECT = "car";
+    private static final String CARS_TABLE = "cars";
+    private static final String EXPORT_URL = "/export/cars";
     
     /**
      * Map used to store any objects from JSF page
@@ -91,7 +102,20 @@ public class CarsBean implements Serializable
 
     private int                         pageSize = 10;
     private DataModel                   carsLazyModel;
+    private SeekPager                   carsPager = new SeekPager();
+    /**
+     * Paths of the car selected by lazy table, see {@link org.jsf2jpa.jsf.utils.TableConfig#getProjectionPaths()}
+     */
+    private List<String>                carsPaths;
     private List<BaseObjectJSF<Car>>    carsModel;
+    /**
+     * Count of cars started when panel is built, it is joined by lazy table model before render
+     */
+    private transient Future<Integer>   carsCount;
+    /**
+     * Car selected by any table. Lazy table holds projected rows, so the car is loaded by identifier
+     */
+    private Car                         selectedCar;
 
     public Panel getAttrPanel()
     {
@@ -153,12 +177,38 @@ public class CarsBean implements Serializable
         this.carsLazyPanel = carsLazyPanel;
     }
     
+    public Car getSelectedCar()
+    {
+        return selectedCar;
+    }
+
     public void onRowSelect(SelectEvent ev)
     {
+        selectedCar = resolveCar(ev.getObject());
     }
     
     public void onRowUnselect(UnselectEvent ev)
     {
+        selectedCar = null;
+    }
+
+    /**
+     * Function converts selected row of any table to the car
+     * @param row - selected row
+     * @return car or null if row is empty or car was removed
+     */
+    private Car resolveCar (Object row)
+    {
+        if (row instanceof BaseObjectJSF)
+            row = ((BaseObjectJSF) row).getWrappedObject();
+
+        if (row instanceof Car)
+            return (Car) row;
+
+        if (row instanceof ProjectedRow)
+            return cars.find(((ProjectedRow) row).getId());
+
+        return null;
     }
     
     private void showError (Exception ex)
@@ -216,7 +266,7 @@ public class CarsBean implements Serializable
                     null,
                     UnselectEvent.class));
 
-        JsfUtil.addTableColumns("cars", table);
+        JsfUtil.addTableColumns(CARS_TABLE, table);
         
         /*
          * Add table to cars panel
@@ -264,7 +314,7 @@ public class CarsBean implements Serializable
                     null,
                     UnselectEvent.class));
 
-        JsfUtil.addTableColumns("cars", table);
+        JsfUtil.addTableColumns(CARS_TABLE, table);
         
         /*
          * Add table to cars panel
@@ -287,6 +337,11 @@ public class CarsBean implements Serializable
             }
         }
         
+        /*
+         * Count of the lazy table is retrieved while components are created
+         */
+        carsCount = cars.countAsync();
+
         FacesContext fc = FacesContext.getCurrentInstance();
         Application app = fc.getApplication();
         
@@ -300,41 +355,96 @@ public class CarsBean implements Serializable
     public DataModel getCarsLazyModel ()
     {
         if (carsLazyModel == null) {
-            carsLazyModel = new LazyDataModel<BaseObjectJSF<Car>>() {
+            carsLazyModel = new LazyDataModel<BaseObjectJSF<ProjectedRow>>() {
                 @Override
-                public List<BaseObjectJSF<Car>> load(int first, int pageSize, String sortField, boolean sortOrder, Map<String, String> filters)
+                public List<BaseObjectJSF<ProjectedRow>> load(int first, int pageSize, String sortField, boolean sortOrder, Map<String, String> filters)
                 {
-                    List<BaseObjectJSF<Car>> ret = new ArrayList<BaseObjectJSF<Car>>();
+                    List<BaseObjectJSF<ProjectedRow>> ret = new ArrayList<BaseObjectJSF<ProjectedRow>>();
                     Map<String, Object> parentFilter = new HashMap<String, Object>();
                     if (!filters.isEmpty())
                         parentFilter.putAll(filters);
 
-                    setRowCount(cars.countFiltered(parentFilter));
-                    if (getRowCount() == 0)
-                        return Collections.emptyList();
-                    
-                    List<Car> carList = cars.findFilteredRange(first, pageSize, sortField, sortOrder, parentFilter);
-                    for (Car car : carList) {
-                        ret.add(new BaseObjectJSF<Car>(Car.class, car));
+                    /*
+                     * Use keyset pagination if previous page was already loaded.
+                     * Rows and count are retrieved by one call, only columns
+                     * shown in the table are selected
+                     */
+                    SeekKey after = carsPager.getKey(first, sortField, sortOrder, parentFilter);
+                    FilteredPage<ProjectedRow> page = cars.findProjectedPage(first, after, pageSize, sortField, sortOrder, parentFilter, getCarsPaths());
+                    setRowCount(page.getTotal());
+
+                    for (ProjectedRow row : page.getRows()) {
+                        ret.add(new BaseObjectJSF<ProjectedRow>(ProjectedRow.class, row));
                     }
 
+                    carsPager.setKey(first + page.getRows().size(), page.getNextKey());
+
                     return ret;
                 }
             };
 
-            ((LazyDataModel) carsLazyModel).setRowCount(cars.count());
+            ((LazyDataModel) carsLazyModel).setRowCount(carsCount != null ? JsfUtil.getResult(carsCount) : cars.count());
+            carsCount = null;
             ((LazyDataModel) carsLazyModel).setPageSize(pageSize);
         }
         
         return carsLazyModel;
     }
 
+    /**
+     * Function redirects to the export servlet, current filters and sort of the lazy table are used
+     * @param format - export format, {@link ExportServlet#FORMAT_CSV} or {@link ExportServlet#FORMAT_JSON}
+     */
+    public void export(String format)
+    {
+        try {
+            StringBuilder url = new StringBuilder(FacesContext.getCurrentInstance().getExternalContext().getRequestContextPath());
+            url.append(EXPORT_URL).append('?').append(ExportServlet.FORMAT_PARAM).append('=').append(encode(format));
+            if (carsPager.getSortField() != null) {
+                url.append('&').append(ExportServlet.SORT_PARAM).append('=').append(encode(carsPager.getSortField()));
+                url.append('&').append(ExportServlet.DESC_PARAM).append('=').append(carsPager.isDescend());
+            }
+
+            if (carsPager.getFilters() != null) {
+                for (Map.Entry<String, Object> filter : carsPager.getFilters().entrySet()) {
+                    if (filter.getValue() != null) {
+                        url.append('&').append(encode(ExportServlet.FILTER_PREFIX + filter.getKey()))
+                                .append('=').append(encode(filter.getValue().toString()));
+                    }
+                }
+            }
+
+            FacesContext.getCurrentInstance().getExternalContext().redirect(url.toString());
+        }
+        catch (IOException ex) {
+            showError(ex);
+        }
+    }
+
+    private static String encode(String value) throws UnsupportedEncodingException
+    {
+        return URLEncoder.encode(value, "UTF-8");
+    }
+
+    /**
+     * Function retrieves paths of the car used by lazy table columns
+     * @return list of paths
+     */
+    private List<String> getCarsPaths()
+    {
+        if (carsPaths == null) {
+            UserConfig cfg = (UserConfig) JsfUtil.getExpressionValue("#{" + UserConfig.BEAN_NAME + "}");
+            carsPaths = cfg.getTable(CARS_TABLE).getProjectionPaths();
+        }
+
+        return carsPaths;
+    }
+
     public List<BaseObjectJSF<Car>> getCarsModel()
     {
         if (carsModel == null) {
             carsModel = new ArrayList<BaseObjectJSF<Car>>();
-            List<Car> carList = cars.findAll();
-            for (Car car : carList) {
+            for (Car car : cars.findAll()) {
                 carsModel.add(new BaseObjectJSF<Car>(Car.class, car));
             }
         }
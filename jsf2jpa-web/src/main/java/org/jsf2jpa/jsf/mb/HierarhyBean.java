@@ -25,7 +25,6 @@ package org.jsf2jpa.jsf.mb;
 
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -33,10 +32,13 @@ import javax.ejb.EJB;
 import javax.faces.bean.ManagedBean;
 import javax.faces.bean.ViewScoped;
 import javax.faces.model.DataModel;
+import org.jsf2jpa.ejbs.FilteredPage;
 import org.jsf2jpa.ejbs.HierarhyFacade;
+import org.jsf2jpa.ejbs.SeekKey;
 import org.jsf2jpa.entities.Hierarhy;
 import org.jsf2jpa.jsf.utils.BaseObjectJSF;
 import org.jsf2jpa.jsf.utils.DynamicTreeNode;
+import org.jsf2jpa.jsf.utils.SeekPager;
 import org.jsf2jps.utils.NamingConstants;
 import org.primefaces.event.NodeSelectEvent;
 import org.primefaces.event.SelectEvent;
@@ -61,6 +63,11 @@ public class HierarhyBean implements Serializable
      */
     private static final String REV_NUMBER = "$Revision:$";
     public static final String BEAN_NAME = "hier";
+    /**
+     * Maximum number of children loaded to the tree node at once
+     */
+    private static final int CHILDREN_WINDOW = 100;
+    private static final String MORE_NAME = "More...";
 
     @EJB
     private transient HierarhyFacade        hier;
@@ -74,6 +81,7 @@ public class HierarhyBean implements Serializable
      */
     private TreeNode                        rootNode;
     private DataModel                       childNodeModel;
+    private SeekPager                       childPager = new SeekPager();
 
     public int getPageSize()
     {
@@ -132,18 +140,55 @@ public class HierarhyBean implements Serializable
             super(data, displayName, type);
         }
 
+        /**
+         * Children of the node are loaded by windows when it is expanded, their own
+         * children are only counted by one query so leaf flags of the level are known
+         */
         @Override
         protected List<TreeNode> onLoad(Object data)
         {
-            List<TreeNode> ret = new ArrayList<TreeNode>();
-            List<Hierarhy> hiers = hier.findChildren((Hierarhy) data);
-            for (Hierarhy h : hiers) {
-                ret.add(new MyTreeNode(h, h.getName()));
-            }
+            return onLoadMore(data, null);
+        }
+
+        @Override
+        protected List<TreeNode> onLoadMore(Object data, Object last)
+        {
+            /*
+             * One extra child is read to know if the sentinel is needed
+             */
+            List<Hierarhy> hiers = hier.findChildren((Hierarhy) data, getKey(last), CHILDREN_WINDOW + 1);
+            boolean more = hiers.size() > CHILDREN_WINDOW;
+            List<TreeNode> ret = createNodes(more ? hiers.subList(0, CHILDREN_WINDOW) : hiers);
+            if (more)
+                ret.add(createMoreNode(MORE_NAME));
 
             return ret;
         }
     }
+
+    private static Long getKey(Object data)
+    {
+        return data != null ? ((Hierarhy) data).getId() : null;
+    }
+
+    /**
+     * Function creates tree nodes with children counts set, so children of the
+     * nodes are not loaded until the node is expanded
+     * @param hiers - hierarhy entities
+     * @return tree nodes
+     */
+    private List<TreeNode> createNodes(List<Hierarhy> hiers)
+    {
+        List<TreeNode> ret = new ArrayList<TreeNode>(hiers.size());
+        Map<Long, Integer> counts = hier.countChildren(hiers);
+        for (Hierarhy h : hiers) {
+            MyTreeNode node = new MyTreeNode(h, h.getName());
+            node.setChildCount(counts.get(h.getId()));
+            ret.add(node);
+        }
+
+        return ret;
+    }
     
     /**
      * Creating root tree node
@@ -167,7 +212,19 @@ public class HierarhyBean implements Serializable
      */
     public void onNodeSelect(NodeSelectEvent event)
     {
+        /*
+         * Sentinel loads next children of its parent, selection is moved to the parent
+         */
+        TreeNode node = event.getTreeNode();
+        if (node instanceof DynamicTreeNode && ((DynamicTreeNode) node).isMore()) {
+            node.setSelected(false);
+            node.getParent().setSelected(true);
+            ((DynamicTreeNode) node.getParent()).loadMore();
+            selectedObject.put("hier", node.getParent());
+        }
+
         childNodeModel = null;
+        childPager.reset();
         selectedObject.remove("childHier");
     }
     
@@ -190,15 +247,21 @@ public class HierarhyBean implements Serializable
                     if (!filters.isEmpty())
                         parentFilter.putAll(filters);
 
-                    setRowCount(hier.countFiltered(parentFilter));
-                    if (getRowCount() == 0)
-                        return Collections.emptyList();
-                    
-                    List<Hierarhy> nodeList = hier.findFilteredRange(first, pageSize, sortField, sortOrder, parentFilter);
-                    for (Hierarhy node : nodeList) {
+                    /*
+                     * Use keyset pagination if previous page was already loaded.
+                     * Rows and count are retrieved by one call, attributes shown
+                     * in the table are loaded by batch
+                     */
+                    SeekKey after = childPager.getKey(first, sortField, sortOrder, parentFilter);
+                    FilteredPage<Hierarhy> page = hier.findFilteredPage(first, after, pageSize, sortField, sortOrder, parentFilter, HierarhyFacade.TABLE_FETCH);
+                    setRowCount(page.getTotal());
+
+                    for (Hierarhy node : page.getRows()) {
                         ret.add(new BaseObjectJSF<Hierarhy>(Hierarhy.class, node));
                     }
 
+                    childPager.setKey(first + page.getRows().size(), page.getNextKey());
+
                     return ret;
                 }
             };
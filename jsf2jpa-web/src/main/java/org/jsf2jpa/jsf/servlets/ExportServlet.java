@@ -0,0 +1,297 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2011 ASementsov.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jsf2jpa.jsf.servlets;
+
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.ejb.EJB;
+import javax.ejb.EJBException;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import org.jsf2jpa.ejbs.CarsFacade;
+import org.jsf2jpa.ejbs.RowHandler;
+import org.jsf2jpa.entities.AbstractAttribute;
+import org.jsf2jpa.entities.Car;
+import org.jsf2jpa.jsf.utils.BaseObjectJSF;
+import org.jsf2jpa.jsf.utils.ColumnConfig;
+import org.jsf2jpa.jsf.utils.TableConfig;
+import org.jsf2jpa.jsf.utils.UserConfig;
+
+/**
+ * Servlet streams filtered and sorted cars as CSV or JSON. Columns are taken from the cars
+ * table config, filters and sort are passed as request parameters:
+ * <ul>
+ * <li><code>format</code> - <code>csv</code> (default) or <code>json</code>
+ * <li><code>sort</code> - sort field, <code>desc</code> - <code>true</code> for descending order
+ * <li><code>f.&lt;filter&gt;</code> - filter value, e.g. <code>f.row.wrappedObject.name=A*</code>
+ * </ul>
+ * Rows are written as they are read from database cursor, so whole result is never held in memory.
+ *
+ * <br/>$LastChangedRevision:$
+ * <br/>$LastChangedDate:$
+ *
+ * @author ASementsov
+ */
+public class ExportServlet extends HttpServlet
+{
+    /**
+     * Subversion revision number it will be changed automatically when commited
+     */
+    private static final String REV_NUMBER = "$Revision:$";
+    private static final long serialVersionUID = 1L;
+
+    public static final String FORMAT_PARAM = "format";
+    public static final String SORT_PARAM = "sort";
+    public static final String DESC_PARAM = "desc";
+    public static final String FILTER_PREFIX = "f.";
+    public static final String FORMAT_CSV = "csv";
+    public static final String FORMAT_JSON = "json";
+
+    private static final String CARS_TABLE = "cars";
+    private static final String ATTRIBUTES_PATH = "attributes['";
+    /**
+     * Count of rows fetched from database by one round trip
+     */
+    private static final int FETCH_SIZE = 200;
+
+    @EJB
+    private CarsFacade      cars;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+    {
+        String format = request.getParameter(FORMAT_PARAM);
+        final boolean json = FORMAT_JSON.equals(format);
+
+        final TableConfig table = getUserConfig(request).getTable(CARS_TABLE);
+        final List<String> names = new ArrayList<String>();
+        final List<String> paths = new ArrayList<String>();
+        for (ColumnConfig column : table.getColumns()) {
+            String path = table.getValuePath(column);
+            if (path != null) {
+                names.add(column.getName());
+                paths.add(path);
+            }
+        }
+
+        Map<String, Object> filters = new HashMap<String, Object>();
+        Enumeration<?> params = request.getParameterNames();
+        while (params.hasMoreElements()) {
+            String param = (String) params.nextElement();
+            if (param.startsWith(FILTER_PREFIX))
+                filters.put(param.substring(FILTER_PREFIX.length()), request.getParameter(param));
+        }
+
+        String sortField = request.getParameter(SORT_PARAM);
+        if (sortField != null && sortField.isEmpty())
+            sortField = null;
+
+        response.setCharacterEncoding("UTF-8");
+        response.setContentType(json ? "application/json" : "text/csv");
+        response.setHeader("Content-Disposition", "attachment; filename=\"" + CARS_TABLE + "." + (json ? FORMAT_JSON : FORMAT_CSV) + "\"");
+
+        final PrintWriter out = response.getWriter();
+        if (json)
+            out.write('[');
+        else
+            writeCsvLine(out, names);
+
+        try {
+            cars.findFilteredStream(sortField, Boolean.parseBoolean(request.getParameter(DESC_PARAM)), filters, FETCH_SIZE,
+                    new RowHandler<Car>() {
+                        private boolean first = true;
+
+                        @Override
+                        public boolean handle(Car row) throws Exception
+                        {
+                            List<String> values = getValues(row, paths);
+                            if (json) {
+                                writeJsonObject(out, names, values, first);
+                                first = false;
+                            }
+                            else {
+                                writeCsvLine(out, values);
+                            }
+
+                            /*
+                             * Stop if client has gone
+                             */
+                            return !out.checkError();
+                        }
+                    });
+        }
+        catch (EJBException ex) {
+            Logger.getLogger(ExportServlet.class.getName()).log(Level.SEVERE, null, ex);
+        }
+
+        if (json)
+            out.write(']');
+
+        out.flush();
+    }
+
+    /**
+     * Function retrieves configuration of the current user
+     * @param request - http request
+     * @return user config
+     */
+    private UserConfig getUserConfig(HttpServletRequest request)
+    {
+        HttpSession session = request.getSession(false);
+        Object cfg = session != null ? session.getAttribute(UserConfig.BEAN_NAME) : null;
+        return cfg instanceof UserConfig ? (UserConfig) cfg : new UserConfig();
+    }
+
+    /**
+     * Function retrieves values of the entity paths as strings
+     * @param row - entity
+     * @param paths - paths, see {@link TableConfig#getValuePath(ColumnConfig)}
+     * @return list of values, null values are returned as empty strings
+     */
+    private static List<String> getValues(Car row, List<String> paths) throws Exception
+    {
+        BaseObjectJSF<Car> wrapper = new BaseObjectJSF<Car>(Car.class, row);
+        List<String> values = new ArrayList<String>(paths.size());
+        for (String path : paths) {
+            Object value;
+            if (path.startsWith(ATTRIBUTES_PATH)) {
+                AbstractAttribute attr = (AbstractAttribute) wrapper.getAttributes().get(path.substring(ATTRIBUTES_PATH.length(), path.length() - 2));
+                value = attr != null ? attr.getAsObject() : null;
+            }
+            else {
+                value = row;
+                for (String field : path.split("\\.")) {
+                    value = getProperty(value, field);
+                }
+            }
+
+            values.add(value != null ? value.toString() : "");
+        }
+
+        return values;
+    }
+
+    /**
+     * Function retrieves bean property value
+     * @param bean - bean or null
+     * @param name - property name
+     * @return property value or null if bean is null or it does not have such property
+     */
+    private static Object getProperty(Object bean, String name) throws Exception
+    {
+        if (bean == null)
+            return null;
+
+        for (PropertyDescriptor pd : Introspector.getBeanInfo(bean.getClass()).getPropertyDescriptors()) {
+            if (pd.getName().equals(name) && pd.getReadMethod() != null)
+                return pd.getReadMethod().invoke(bean);
+        }
+
+        return null;
+    }
+
+    private static void writeCsvLine(PrintWriter out, List<String> values)
+    {
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0)
+                out.write(',');
+
+            String value = values.get(i);
+            if (value.indexOf(',') != -1 || value.indexOf('"') != -1 || value.indexOf('\n') != -1 || value.indexOf('\r') != -1)
+                out.write('"' + value.replace("\"", "\"\"") + '"');
+            else
+                out.write(value);
+        }
+
+        out.write("\r\n");
+    }
+
+    private static void writeJsonObject(PrintWriter out, List<String> names, List<String> values, boolean first)
+    {
+        if (!first)
+            out.write(',');
+
+        out.write('{');
+        for (int i = 0; i < names.size(); i++) {
+            if (i > 0)
+                out.write(',');
+
+            writeJsonString(out, names.get(i));
+            out.write(':');
+            writeJsonString(out, values.get(i));
+        }
+
+        out.write("}\n");
+    }
+
+    private static void writeJsonString(PrintWriter out, String value)
+    {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+
+                case '\\':
+                    out.write("\\\\");
+                    break;
+
+                case '\n':
+                    out.write("\\n");
+                    break;
+
+                case '\r':
+                    out.write("\\r");
+                    break;
+
+                case '\t':
+                    out.write("\\t");
+                    break;
+
+                default:
+                    if (c < 0x20)
+                        out.write(String.format("\\u%04x", (int) c));
+                    else
+                        out.write(c);
+                    break;
+            }
+        }
+
+        out.write('"');
+    }
+}
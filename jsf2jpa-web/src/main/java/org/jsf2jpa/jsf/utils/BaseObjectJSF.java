@@ -30,6 +30,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.jsf2jpa.ejbs.ProjectedRow;
 import org.jsf2jpa.entities.AbstractAttribute;
 import org.jsf2jps.utils.NamingConstants;
 
@@ -135,6 +136,12 @@ public class BaseObjectJSF<T> implements Serializable
                     if (key == null)
                         return ret;
 
+                    /*
+                     * Projected row holds selected attributes itself
+                     */
+                    if (wrappedObject instanceof ProjectedRow)
+                        return ((ProjectedRow)wrappedObject).getAttribute(key.toString());
+
                     if (attrPropertyMethods == null) 
                         attrPropertyMethods = PropertyAccessor.findPropertyAccessors(attrPropertyName, attrPropertyClass, entityClass);
 
@@ -184,6 +191,9 @@ public class BaseObjectJSF<T> implements Serializable
     
     public Object getProperty (String property)
     {
+       if (wrappedObject instanceof ProjectedRow)
+           return ((ProjectedRow)wrappedObject).getValue(property);
+
        try {
             if (propertiesMap.containsKey(property)) {
                 PropertyAccessor pac = propertiesMap.get(property);
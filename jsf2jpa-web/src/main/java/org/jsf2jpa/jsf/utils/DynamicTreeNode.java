@@ -23,6 +23,7 @@
  */
 package org.jsf2jpa.jsf.utils;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 import org.primefaces.model.TreeNode;
@@ -42,10 +43,18 @@ public abstract class DynamicTreeNode implements TreeNode
      */
     private static final String REV_NUMBER = "$Revision:$";
     public static final String DEFAULT_TYPE = "default";
+    /**
+     * Type of the node which loads next window of children when it is selected
+     */
+    public static final String MORE_TYPE = "more";
 
     private String                  type;
     private Object                  data;
     private List<TreeNode>          children;
+    /**
+     * Children count known before children are loaded, null if unknown
+     */
+    private Integer                 childCount;
     private TreeNode                parent;
     private boolean                 expanded = false;
     private boolean                 selected = false;
@@ -127,6 +136,9 @@ public abstract class DynamicTreeNode implements TreeNode
     @Override
     public int getChildCount()
     {
+        if (children == null && childCount != null)
+            return childCount;
+
         if (children == null)
             loadChildren();
 
@@ -136,6 +148,9 @@ public abstract class DynamicTreeNode implements TreeNode
     @Override
     public boolean isLeaf()
     {
+        if (children == null && childCount != null)
+            return childCount == 0;
+
         if (children == null)
             loadChildren();
 
@@ -156,9 +171,95 @@ public abstract class DynamicTreeNode implements TreeNode
 
     private void loadChildren()
     {
-        children = onLoad(data);
-        if (children == null)
-            children = new ArrayList<TreeNode>();
+        setChildren(onLoad(data));
+    }
+
+    /**
+     * Function sets children of the node loaded in advance, e.g. together with children
+     * of the parent node. Node does not call {@link #onLoad(Object)} after that
+     * @param children - children nodes
+     */
+    public void setChildren(List<TreeNode> children)
+    {
+        this.children = children != null ? children : new ArrayList<TreeNode>();
+        for (TreeNode child : this.children) {
+            child.setParent(this);
+        }
+    }
+
+    /**
+     * Function checks if the node is the sentinel of not loaded children
+     * @return true for "load more" node
+     */
+    public boolean isMore()
+    {
+        return MORE_TYPE.equals(type);
+    }
+
+    /**
+     * Function creates sentinel node which is added after the loaded window of children
+     * when the node has more children, see {@link #loadMore()}
+     * @param displayName - sentinel display name
+     * @return sentinel node
+     */
+    protected TreeNode createMoreNode(String displayName)
+    {
+        return new MoreTreeNode(data, displayName);
+    }
+
+    /**
+     * Function replaces "load more" sentinel by the next window of children
+     * returned by {@link #onLoadMore(Object, Object)}
+     */
+    public void loadMore()
+    {
+        if (children == null) {
+            loadChildren();
+            return;
+        }
+
+        if (children.isEmpty() || !((DynamicTreeNode) children.get(children.size() - 1)).isMore())
+            return;
+
+        children.remove(children.size() - 1);
+        Object last = children.isEmpty() ? null : children.get(children.size() - 1).getData();
+        for (TreeNode child : onLoadMore(data, last)) {
+            child.setParent(this);
+            children.add(child);
+        }
+    }
+
+    /**
+     * Function loads next window of children. Node which loads children by windows
+     * adds sentinel created by {@link #createMoreNode(String)} to the end of each
+     * window except the last one
+     * @param data - data of this node
+     * @param last - data of the last loaded child or null
+     * @return next children
+     */
+    protected List<TreeNode> onLoadMore(Object data, Object last)
+    {
+        return new ArrayList<TreeNode>();
+    }
+
+    /**
+     * Function sets children count retrieved in advance, e.g. by one query for
+     * all nodes of the level. Leaf flag and children count are taken from it
+     * and children are loaded only when the node is expanded
+     * @param childCount - children count, null if unknown
+     */
+    public void setChildCount(Integer childCount)
+    {
+        this.childCount = childCount;
+    }
+
+    /**
+     * Function checks if children of the node are already loaded
+     * @return true if children are loaded
+     */
+    public boolean isLoaded()
+    {
+        return children != null;
     }
 
     public String getDisplayName()
@@ -204,7 +305,26 @@ public abstract class DynamicTreeNode implements TreeNode
     public void refresh()
     {
         children = null;
+        childCount = null;
     }
 
     protected abstract List<TreeNode> onLoad(Object data);
+
+    /**
+     * Leaf node shown after the loaded window of children
+     */
+    static class MoreTreeNode extends DynamicTreeNode implements Serializable
+    {
+        MoreTreeNode(Object data, String displayName)
+        {
+            super(data, displayName, MORE_TYPE);
+            setChildren(null);
+        }
+
+        @Override
+        protected List<TreeNode> onLoad(Object data)
+        {
+            return new ArrayList<TreeNode>();
+        }
+    }
 }
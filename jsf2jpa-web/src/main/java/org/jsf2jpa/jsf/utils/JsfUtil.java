@@ -27,12 +27,15 @@ import java.text.MessageFormat;
 import java.util.List;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.el.ELContext;
 import javax.el.ExpressionFactory;
 import javax.el.MethodExpression;
 import javax.el.ValueExpression;
+import javax.faces.FacesException;
 import javax.faces.application.Application;
 import javax.faces.application.FacesMessage;
 import javax.faces.component.UIComponent;
@@ -331,4 +334,24 @@ public class JsfUtil
         RequestContext context = RequestContext.getCurrentInstance();
         context.addCallbackParam(paramName, value);
     }
+
+    /**
+     * Function waits for the result of asynchronous EJB call
+     * @param future - result of asynchronous call
+     * @return result
+     * @throws FacesException if call failed or waiting was interrupted
+     */
+    public static <X> X getResult (Future<X> future)
+    {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw (new FacesException(ex));
+        }
+        catch (ExecutionException ex) {
+            throw (new FacesException(ex.getCause()));
+        }
+    }
 }
@@ -0,0 +1,122 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2011 ASementsov.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jsf2jpa.jsf.utils;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import org.jsf2jpa.ejbs.SeekKey;
+
+/**
+ * Class remembers keys of the pages which were loaded by lazy data model. When user goes to the
+ * next page (or returns to the page which was already visited) the page is loaded using keyset
+ * pagination, other pages are loaded using offset. Keys are dropped when sorting or filtering is changed.
+ *
+ * <br/>$LastChangedRevision:$
+ * <br/>$LastChangedDate:$
+ *
+ * @author ASementsov
+ */
+public class SeekPager implements Serializable
+{
+    /**
+     * Subversion revision number it will be changed automatically when commited
+     */
+    private static final String REV_NUMBER = "$Revision:$";
+    private static final long serialVersionUID = 1L;
+
+    private String                  sortField;
+    private boolean                 descend;
+    private Map<String, Object>     filters;
+    /**
+     * Keys of the rows preceding page, key of the map is the first row number of the page
+     */
+    private Map<Integer, SeekKey>   keys = new HashMap<Integer, SeekKey>();
+
+    /**
+     * Function retrieves key used to load page
+     * @param first - first row number
+     * @param sortField - field to sort by
+     * @param descend - flag indicates sort direction
+     * @param filters - map of filters
+     * @return key of the row preceding page or null if page must be loaded using offset
+     */
+    public SeekKey getKey (int first, String sortField, boolean descend, Map<String, Object> filters)
+    {
+        if (!isSameState(sortField, descend, filters)) {
+            this.sortField = sortField;
+            this.descend = descend;
+            this.filters = new HashMap<String, Object>(filters);
+            keys.clear();
+        }
+
+        return keys.get(first);
+    }
+
+    /**
+     * Function stores key of the last loaded row
+     * @param next - first row number of the next page
+     * @param key - key of the last loaded row
+     */
+    public void setKey (int next, SeekKey key)
+    {
+        if (key != null)
+            keys.put(next, key);
+    }
+
+    public String getSortField()
+    {
+        return sortField;
+    }
+
+    public boolean isDescend()
+    {
+        return descend;
+    }
+
+    public Map<String, Object> getFilters()
+    {
+        return filters;
+    }
+
+    /**
+     * Function drops all stored keys
+     */
+    public void reset ()
+    {
+        keys.clear();
+        filters = null;
+    }
+
+    private boolean isSameState (String sortField, boolean descend, Map<String, Object> filters)
+    {
+        if (this.filters == null || this.descend != descend)
+            return false;
+
+        if (this.sortField == null ? sortField != null : !this.sortField.equals(sortField))
+            return false;
+
+        return this.filters.equals(filters);
+    }
+}
@@ -26,6 +26,8 @@ package org.jsf2jpa.jsf.utils;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Class implements TableConfig functions
@@ -41,6 +43,14 @@ public class TableConfig implements Serializable
      * Subversion revision number it will be changed automatically when commited
      */
     private static final String REV_NUMBER = "$Revision:$";
+    /**
+     * Pattern of the wrapped object path, e.g. <code>row.wrappedObject.model.name</code>
+     */
+    private static final String OBJECT_PATH = "\\b%s\\.wrappedObject\\.([A-Za-z_]\\w*(?:\\.[A-Za-z_]\\w*)?)";
+    /**
+     * Pattern of the external attribute, e.g. <code>row.attributes['Price']</code>
+     */
+    private static final String ATTRIBUTE_PATH = "\\b%s\\.attributes\\['([^']+)'\\]";
     private String                  tableName;
     private String                  var;
     private List<ColumnConfig>      columns = new ArrayList<ColumnConfig>();
@@ -74,4 +84,58 @@ public class TableConfig implements Serializable
     {
         this.var = var;
     }
+
+    /**
+     * Function collects paths of the wrapped object used by table columns (values, filters and sorts).
+     * These paths are selected by projection queries, see
+     * {@link org.jsf2jpa.ejbs.AbstractFacade#findProjectedPage}
+     * @return list of paths, e.g. <code>name</code>, <code>model.name</code>, <code>attributes['Price']</code>
+     */
+    public List<String> getProjectionPaths()
+    {
+        List<String> paths = new ArrayList<String>();
+        for (ColumnConfig column : columns) {
+            addPaths(column.getValue(), paths);
+            addPaths(column.getFilter(), paths);
+            addPaths(column.getSort(), paths);
+        }
+
+        return paths;
+    }
+
+    /**
+     * Function retrieves path of the wrapped object shown by column
+     * @param column - column config
+     * @return first path of the column value expression or null if value does not use wrapped object
+     */
+    public String getValuePath(ColumnConfig column)
+    {
+        List<String> paths = new ArrayList<String>();
+        addPaths(column.getValue(), paths);
+        return paths.isEmpty() ? null : paths.get(0);
+    }
+
+    /**
+     * Function adds paths of the wrapped object used by expression
+     * @param expr - expression or null
+     * @param paths - list of paths (in, out)
+     */
+    private void addPaths(String expr, List<String> paths)
+    {
+        if (expr == null)
+            return;
+
+        Matcher m = Pattern.compile(String.format(OBJECT_PATH, Pattern.quote(var))).matcher(expr);
+        while (m.find()) {
+            if (!paths.contains(m.group(1)))
+                paths.add(m.group(1));
+        }
+
+        m = Pattern.compile(String.format(ATTRIBUTE_PATH, Pattern.quote(var))).matcher(expr);
+        while (m.find()) {
+            String path = "attributes['" + m.group(1) + "']";
+            if (!paths.contains(path))
+                paths.add(path);
+        }
+    }
 }